@@ -0,0 +1,257 @@
+/*
+ * *******************************************************
+ * Copyright VMware, Inc. 2021.  All Rights Reserved.
+ * SPDX-License-Identifier: MIT
+ * *******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package vmware.samples.common;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.vmware.vapi.bindings.client.AsyncCallback;
+import com.vmware.vapi.std.Progress;
+
+/**
+ * Runs vAPI stub calls asynchronously and returns their results as
+ * {@link CompletableFuture}s. Every method of a vAPI stub has an overload
+ * taking an {@link AsyncCallback}; the invoker calls that overload, so no
+ * thread is held while a call is in flight:
+ *
+ * <pre>
+ * AsyncInvoker invoker = new AsyncInvoker(100);
+ * CompletableFuture&lt;VMTypes.Info&gt; info =
+ *         invoker.invoke(cb -&gt; vmService.get(vmId, cb));
+ * </pre>
+ *
+ * <p>The calls only overlap when the stub factory uses the non-blocking
+ * transport, see
+ * {@link vmware.samples.common.authentication.VapiAuthenticationHelper#buildAsyncHttpConfiguration}.
+ * Its I/O threads complete the futures, so the stages chained to them must
+ * not block; use the {@code *Async} stages with an executor for blocking
+ * work.</p>
+ *
+ * <p>At most {@code maxInFlight} calls run at a time, the others wait in
+ * order of submission, so a crawler can submit thousands of calls without
+ * flooding the server. A call holds its place until the stub reports its
+ * result, even if its future was cancelled before.</p>
+ */
+public class AsyncInvoker {
+
+    /**
+     * Default number of calls in flight.
+     */
+    public static final int DEFAULT_MAX_IN_FLIGHT = 64;
+
+    private final int maxInFlight;
+    // in order of submission
+    private final Set<Runnable> waiting = new LinkedHashSet<>();
+    private int inFlight;
+    private boolean draining;
+
+    /**
+     * Creates an invoker with the default number of calls in flight.
+     */
+    public AsyncInvoker() {
+        this(DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Creates an invoker.
+     *
+     * @param maxInFlight the maximum number of calls in flight
+     */
+    public AsyncInvoker(int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException(
+                    "The number of calls in flight must be positive");
+        }
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Starts the call, or queues it if too many calls are in flight.
+     * Cancelling the returned future before the call starts removes it from
+     * the queue; cancelling it after does not stop the call on the server.
+     *
+     * @param invocation calls the asynchronous overload of a stub method
+     *        with the given callback
+     * @return the result of the call
+     */
+    public <T> CompletableFuture<T> invoke(final Invocation<T> invocation) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final Runnable call = () -> start(invocation, future);
+        synchronized (this) {
+            waiting.add(call);
+        }
+        future.whenComplete((result, error) -> {
+            // no effect once the call started
+            synchronized (this) {
+                waiting.remove(call);
+            }
+        });
+        drain();
+        return future;
+    }
+
+    /**
+     * Returns the number of calls in flight.
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Returns the number of calls waiting to start.
+     */
+    public synchronized int getWaiting() {
+        return waiting.size();
+    }
+
+    /**
+     * Returns a callback completing the future.
+     *
+     * @param future the future to complete with the result or error of the
+     *        call
+     * @return the callback to pass to a stub method
+     */
+    public static <T> AsyncCallback<T> callback(
+            final CompletableFuture<T> future) {
+        return new AsyncCallback<T>() {
+            @Override
+            public void onProgress(Progress progress) {
+                // only the result is of interest
+            }
+
+            @Override
+            public void onResult(T result) {
+                future.complete(result);
+            }
+
+            @Override
+            public void onError(RuntimeException error) {
+                future.completeExceptionally(error);
+            }
+        };
+    }
+
+    /**
+     * Returns a future completed with the results of all the futures, in the
+     * same order, or with the first error.
+     *
+     * @param futures the futures to combine
+     * @return the combined future
+     */
+    public static <T> CompletableFuture<List<T>> allOf(
+            final List<CompletableFuture<T>> futures) {
+        return CompletableFuture.allOf(
+                futures.toArray(new CompletableFuture<?>[futures.size()]))
+            .thenApply(ignored -> {
+                List<T> results = new ArrayList<>(futures.size());
+                for (CompletableFuture<T> future : futures) {
+                    results.add(future.join());
+                }
+                return results;
+            });
+    }
+
+    private <T> void start(Invocation<T> invocation,
+            final CompletableFuture<T> future) {
+        if (future.isDone()) {
+            // cancelled while the call was taken from the queue
+            finished();
+            return;
+        }
+        // the stub reports once; a call failing to start reports here
+        final AtomicBoolean reported = new AtomicBoolean();
+        try {
+            invocation.invoke(new AsyncCallback<T>() {
+                @Override
+                public void onProgress(Progress progress) {
+                    // only the result is of interest
+                }
+
+                @Override
+                public void onResult(T result) {
+                    if (reported.compareAndSet(false, true)) {
+                        finished();
+                        future.complete(result);
+                    }
+                }
+
+                @Override
+                public void onError(RuntimeException error) {
+                    if (reported.compareAndSet(false, true)) {
+                        finished();
+                        future.completeExceptionally(error);
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            if (reported.compareAndSet(false, true)) {
+                finished();
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void finished() {
+        synchronized (this) {
+            inFlight--;
+        }
+        drain();
+    }
+
+    /*
+     * Start the waiting calls while there is room. A single thread drains
+     * at a time, so calls completing synchronously start the next call from
+     * this loop instead of recursing.
+     */
+    private void drain() {
+        synchronized (this) {
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+        while (true) {
+            Runnable next;
+            synchronized (this) {
+                if (inFlight >= maxInFlight || waiting.isEmpty()) {
+                    draining = false;
+                    return;
+                }
+                Iterator<Runnable> it = waiting.iterator();
+                next = it.next();
+                it.remove();
+                inFlight++;
+            }
+            next.run();
+        }
+    }
+
+    /**
+     * An asynchronous call of a stub method.
+     */
+    public interface Invocation<T> {
+
+        /**
+         * Calls the stub method.
+         *
+         * @param callback the callback to pass to the stub method
+         */
+        void invoke(AsyncCallback<T> callback);
+    }
+}
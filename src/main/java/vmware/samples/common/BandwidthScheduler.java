@@ -0,0 +1,192 @@
+/*
+ * *******************************************************
+ * Copyright VMware, Inc. 2021.  All Rights Reserved.
+ * SPDX-License-Identifier: MIT
+ * *******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package vmware.samples.common;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares a bandwidth budget between concurrent transfers. Every transfer is
+ * a {@link Flow} which asks for bytes before sending or after receiving them.
+ * The bytes of a flow first go through the token bucket of its route (host),
+ * if a limit was set for it, and then through the global token bucket.
+ *
+ * <p>The global bucket is handed out with weighted fair queuing: each request
+ * is tagged with a virtual finish time of {@code bytes / weight} after the
+ * previous request of its flow, and the waiting request with the smallest
+ * tag is served first. Busy flows therefore share the global rate in
+ * proportion to their weights, and a flow with a high weight, such as
+ * interactive API traffic, is not starved by many background transfers.</p>
+ *
+ * <p>One scheduler is usually shared by all the {@link HttpClient}s of a
+ * process, each client using its own weight.</p>
+ */
+public class BandwidthScheduler {
+
+    /**
+     * Weight of background transfers, such as a bulk library sync.
+     */
+    public static final int BACKGROUND_WEIGHT = 1;
+
+    /**
+     * Weight of transfers with no particular priority.
+     */
+    public static final int DEFAULT_WEIGHT = 4;
+
+    /**
+     * Weight of transfers a user is waiting for.
+     */
+    public static final int INTERACTIVE_WEIGHT = 16;
+
+    private static final long MIN_BURST = 256 * 1024;
+
+    private final TokenBucket global;
+    private final Map<String, TokenBucket> routes = new ConcurrentHashMap<>();
+    private final PriorityQueue<Request> queue = new PriorityQueue<>();
+    private double virtualTime;
+    private long sequence;
+
+    /**
+     * Creates a scheduler with no global limit; only the route limits apply.
+     */
+    public BandwidthScheduler() {
+        this.global = null;
+    }
+
+    /**
+     * Creates a scheduler limiting the combined rate of all the flows.
+     *
+     * @param globalBytesPerSecond the global rate
+     */
+    public BandwidthScheduler(long globalBytesPerSecond) {
+        this.global = newBucket(globalBytesPerSecond);
+    }
+
+    /**
+     * Limits the combined rate of the flows to the host.
+     *
+     * @param host the host name of the route
+     * @param bytesPerSecond the rate of the route
+     */
+    public void setRouteLimit(String host, long bytesPerSecond) {
+        routes.put(host, newBucket(bytesPerSecond));
+    }
+
+    /**
+     * Creates the flow of a transfer.
+     *
+     * @param url the URL the transfer is sent to or received from
+     * @param weight the share of the global rate of the flow, relative to
+     *        the other flows
+     * @return the flow
+     */
+    public Flow newFlow(String url, int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Weight must be positive");
+        }
+        String host = url == null ? null : URI.create(url).getHost();
+        return new Flow(host == null ? null : routes.get(host), weight);
+    }
+
+    private synchronized void acquireGlobal(Flow flow, long bytes)
+            throws InterruptedException {
+        double tag = Math.max(virtualTime, flow.lastTag)
+                     + (double) bytes / flow.weight;
+        flow.lastTag = tag;
+        Request request = new Request(tag, sequence++);
+        queue.add(request);
+        try {
+            while (true) {
+                if (queue.peek() == request) {
+                    long waitNanos = global.nanosUntilAvailable(bytes);
+                    if (waitNanos <= 0) {
+                        global.take(bytes);
+                        queue.poll();
+                        virtualTime = tag;
+                        notifyAll();
+                        return;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
+                } else {
+                    wait();
+                }
+            }
+        } catch (InterruptedException e) {
+            queue.remove(request);
+            notifyAll();
+            throw e;
+        }
+    }
+
+    private static TokenBucket newBucket(long bytesPerSecond) {
+        // a tenth of a second of data keeps short bursts smooth
+        return new TokenBucket(bytesPerSecond,
+                Math.max(bytesPerSecond / 10, MIN_BURST));
+    }
+
+    /**
+     * The bandwidth share of one transfer.
+     */
+    public class Flow {
+        private final TokenBucket route;
+        private final int weight;
+        private double lastTag;
+
+        private Flow(TokenBucket route, int weight) {
+            this.route = route;
+            this.weight = weight;
+        }
+
+        /**
+         * Waits until {@code bytes} bytes may be transferred.
+         *
+         * @param bytes the number of bytes
+         * @throws InterruptedException if the current thread was interrupted
+         */
+        public void acquire(long bytes) throws InterruptedException {
+            if (bytes <= 0) {
+                return;
+            }
+            if (route != null) {
+                route.acquire(bytes);
+            }
+            if (global != null) {
+                acquireGlobal(this, bytes);
+            }
+        }
+    }
+
+    /*
+     * A waiting request for global tokens, ordered by virtual finish time
+     * and then by arrival.
+     */
+    private static class Request implements Comparable<Request> {
+        private final double tag;
+        private final long sequence;
+
+        Request(double tag, long sequence) {
+            this.tag = tag;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Request other) {
+            int byTag = Double.compare(tag, other.tag);
+            return byTag != 0 ? byTag : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * *******************************************************
+ * Copyright VMware, Inc. 2021.  All Rights Reserved.
+ * SPDX-License-Identifier: MIT
+ * *******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package vmware.samples.common;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+/**
+ * Repeatable HTTP entity which streams a file, or a byte range of a file,
+ * straight from a {@link FileChannel}. The bytes are read with positional
+ * channel reads into a single buffer that is reused for the whole transfer,
+ * so ranges need no seek or skip and no intermediate stream buffering.
+ */
+public class FileChannelEntity extends AbstractHttpEntity {
+
+    // size of the single buffer reused for the whole transfer
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final long offset;
+    private final long length;
+    private MessageDigest digest;
+    private TransferStats stats;
+    private BandwidthScheduler.Flow flow;
+    private volatile long bytesWritten;
+
+    /**
+     * Creates an entity for the whole file.
+     *
+     * @param file the file to stream
+     */
+    public FileChannelEntity(File file) {
+        this(file, 0, file.length());
+    }
+
+    /**
+     * Creates an entity for {@code length} bytes of the file starting at
+     * {@code offset}.
+     *
+     * @param file the file to stream
+     * @param offset the position of the first byte to send
+     * @param length the number of bytes to send
+     */
+    public FileChannelEntity(File file, long offset, long length) {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException(
+                    "Offset and length must not be negative");
+        }
+        this.file = file;
+        this.offset = offset;
+        this.length = length;
+        setContentType(ContentType.APPLICATION_OCTET_STREAM.toString());
+    }
+
+    /**
+     * Sets a digest which is updated with the bytes of the entity while they
+     * are written, from the same buffer and in the same pass. The digest is
+     * reset every time the entity is written so a retried request does not
+     * hash the data twice.
+     *
+     * @param digest the digest to update, or null for none
+     */
+    public void setDigest(MessageDigest digest) {
+        this.digest = digest;
+    }
+
+    /**
+     * Sets the stats which are updated with the bytes of the entity while
+     * they are written. When the entity is written again the bytes of the
+     * previous attempt are taken back first.
+     *
+     * @param stats the stats of the transfer, or null for none
+     */
+    public void setStats(TransferStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Sets the flow which paces the bytes of the entity while they are
+     * written.
+     *
+     * @param flow the bandwidth flow of the transfer, or null for none
+     */
+    public void setFlow(BandwidthScheduler.Flow flow) {
+        this.flow = flow;
+    }
+
+    /**
+     * Returns the bytes written by the last call to {@link #writeTo}.
+     */
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return length;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        final FileChannel channel = openChannel();
+        channel.position(offset);
+        return new FilterInputStream(Channels.newInputStream(channel)) {
+            private long remaining = length;
+
+            @Override
+            public int read() throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int b = super.read();
+                if (b >= 0) {
+                    remaining--;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (remaining <= 0) {
+                    return -1;
+                }
+                int n = super.read(b, off, (int) Math.min(len, remaining));
+                if (n > 0) {
+                    remaining -= n;
+                }
+                return n;
+            }
+
+            @Override
+            public int available() throws IOException {
+                return (int) Math.min(super.available(), remaining);
+            }
+        };
+    }
+
+    @Override
+    public void writeTo(OutputStream outStream) throws IOException {
+        if (outStream == null) {
+            throw new IllegalArgumentException("Output stream may not be null");
+        }
+        try (FileChannel channel = openChannel()) {
+            byte[] bytes = new byte[(int) Math.min(BUFFER_SIZE,
+                    Math.max(length, 1))];
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            long position = offset;
+            long end = offset + length;
+            if (digest != null) {
+                digest.reset();
+            }
+            if (stats != null && bytesWritten > 0) {
+                stats.rewind(bytesWritten);
+            }
+            bytesWritten = 0;
+            while (position < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(bytes.length, end - position));
+                int read = channel.read(buffer, position);
+                if (read <= 0) {
+                    throw new EOFException("Unexpected end of file "
+                            + file.getName() + " at byte " + position);
+                }
+                if (digest != null) {
+                    digest.update(bytes, 0, read);
+                }
+                if (flow != null) {
+                    acquire(read);
+                }
+                outStream.write(bytes, 0, read);
+                position += read;
+                bytesWritten += read;
+                if (stats != null) {
+                    stats.addBytes(read);
+                }
+            }
+            outStream.flush();
+        }
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    private void acquire(int bytes) throws InterruptedIOException {
+        try {
+            flow.acquire(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttled");
+        }
+    }
+
+    private FileChannel openChannel() throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    }
+}
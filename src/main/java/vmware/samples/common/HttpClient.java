@@ -13,21 +13,31 @@
 
 package vmware.samples.common;
 
-import java.io.BufferedInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
+import java.security.MessageDigest;
 import java.security.SecureRandom;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
@@ -42,23 +52,57 @@ import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.config.ConnectionConfig;
 import org.apache.http.config.Registry;
 import org.apache.http.config.RegistryBuilder;
+import org.apache.http.config.SocketConfig;
 import org.apache.http.conn.socket.ConnectionSocketFactory;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
-import org.apache.http.entity.FileEntity;
-import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
 import org.apache.http.util.EntityUtils;
 
 public class HttpClient {
 
+    /**
+     * Default size of a part sent by {@link #uploadMultiPart}.
+     */
+    public static final long DEFAULT_PART_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * Default number of parts kept in flight by {@link #uploadMultiPart}.
+     */
+    public static final int DEFAULT_PART_PARALLELISM = 8;
+
+    /**
+     * Default number of attempts made for each part before the multi-part
+     * upload is failed.
+     */
+    public static final int DEFAULT_PART_ATTEMPTS = 3;
+
     private final PoolingHttpClientConnectionManager connectionManager;
+    private final TransferProfile profile;
+    private final TransferMetrics metrics = TransferMetrics.getDefault();
+    private volatile BandwidthScheduler scheduler;
+    private volatile int weight = BandwidthScheduler.DEFAULT_WEIGHT;
+    private volatile long partSize;
+    private volatile int partParallelism = DEFAULT_PART_PARALLELISM;
     private CloseableHttpClient client;
 
     public HttpClient(boolean infiniteSocketTimeout) {
+        this(TransferProfile.defaults(infiniteSocketTimeout));
+    }
+
+    /**
+     * Creates a client whose connection pool and sockets are configured by
+     * the transfer profile.
+     *
+     * @param profile the transfer profile
+     */
+    public HttpClient(TransferProfile profile) {
+        this.profile = profile;
         try {
 
             SSLContext sslContext = SSLContext.getInstance("SSL");
@@ -92,19 +136,37 @@ public class HttpClient {
 
             connectionManager = new PoolingHttpClientConnectionManager(
                     socketFactoryRegistry);
-            connectionManager.setDefaultMaxPerRoute(500);
-            connectionManager.setMaxTotal(600);
+            connectionManager.setDefaultMaxPerRoute(profile.getMaxPerRoute());
+            connectionManager.setMaxTotal(profile.getMaxTotal());
+            connectionManager.setValidateAfterInactivity(
+                    profile.getValidateAfterInactivityMs());
+            connectionManager.setDefaultSocketConfig(SocketConfig.custom()
+                    .setTcpNoDelay(profile.isTcpNoDelay())
+                    .setSoKeepAlive(true)
+                    .setSndBufSize(profile.getSendBufferSize())
+                    .setRcvBufSize(profile.getReceiveBufferSize())
+                    .build());
+            connectionManager.setDefaultConnectionConfig(
+                    ConnectionConfig.custom()
+                    .setBufferSize(profile.getIoBufferSize())
+                    .build());
 
             RequestConfig config = RequestConfig.custom()
-                    .setConnectTimeout(5 * 1000)
-                    .setConnectionRequestTimeout(5 * 1000)
-                    .setSocketTimeout(infiniteSocketTimeout ? -1 : 60 * 1000)
+                    .setConnectTimeout(profile.getConnectTimeoutMs())
+                    .setConnectionRequestTimeout(
+                            profile.getConnectionRequestTimeoutMs())
+                    .setSocketTimeout(profile.getSocketTimeoutMs())
                     .build();
 
             HttpClientBuilder clientBuilder = HttpClientBuilder.create();
             clientBuilder.setConnectionManager(connectionManager);
             clientBuilder.setDefaultRequestConfig(config);
-
+            if (profile.getMaxIdleTimeMs() > 0) {
+                // close connections the server is likely to have dropped
+                clientBuilder.evictExpiredConnections();
+                clientBuilder.evictIdleConnections(profile.getMaxIdleTimeMs(),
+                        TimeUnit.MILLISECONDS);
+            }
 
             // build the HTTP client
             client = clientBuilder.build();
@@ -115,6 +177,93 @@ public class HttpClient {
 		}
     }
 
+    /**
+     * Returns the transfer profile the client was created with.
+     */
+    public TransferProfile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Returns the number of leased, available and pending connections of
+     * the connection pool, across all routes.
+     */
+    public PoolStats getPoolStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    /**
+     * Paces the file transfers of this client with the scheduler. Every
+     * upload and download becomes a flow of the scheduler with the given
+     * weight, so clients sharing a scheduler share its bandwidth in
+     * proportion to their weights.
+     *
+     * @param scheduler the scheduler, or null to stop throttling
+     * @param weight the weight of the transfers of this client
+     */
+    public void setBandwidthScheduler(BandwidthScheduler scheduler,
+            int weight) {
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Weight must be positive");
+        }
+        this.scheduler = scheduler;
+        this.weight = weight;
+    }
+
+    /**
+     * Makes the upload helpers send the files larger than {@code partSize}
+     * with {@link #uploadMultiPart(File, String, long, int, int)}, up to
+     * {@code parallelism} parts at a time. The connection pool of the
+     * profile should allow that many connections per route.
+     *
+     * @param partSize the size of each part in bytes, or 0 to send every
+     *        file as a single request
+     * @param parallelism the maximum number of parts in flight for a file
+     */
+    public void setMultiPartUpload(long partSize, int parallelism) {
+        if (partSize < 0 || parallelism <= 0) {
+            throw new IllegalArgumentException("Part size must not be "
+                    + "negative and parallelism must be positive");
+        }
+        this.partSize = partSize;
+        this.partParallelism = parallelism;
+    }
+
+    /**
+     * Returns true if a file of the given size is uploaded in parts, see
+     * {@link #setMultiPartUpload(long, int)}.
+     *
+     * @param size the size of the file
+     */
+    public boolean isMultiPartUpload(long size) {
+        return partSize > 0 && size > partSize;
+    }
+
+    /**
+     * Uploads the file in parts with the settings of
+     * {@link #setMultiPartUpload(long, int)}.
+     *
+     * @param file the file to upload
+     * @param url the transfer URL
+     */
+    public void uploadMultiPart(File file, String url) {
+        uploadMultiPart(file, url,
+                partSize > 0 ? partSize : DEFAULT_PART_SIZE, partParallelism,
+                DEFAULT_PART_ATTEMPTS);
+    }
+
+    /**
+     * Closes the client, its pooled connections and the idle connection
+     * eviction thread if the profile started one.
+     */
+    public void close() {
+        try {
+            client.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to close the HTTP client", e);
+        }
+    }
+
     public void upload(File file, String url) {
         upload(file, 0, file.length(), url, null);
     }
@@ -131,43 +280,292 @@ public class HttpClient {
         }
     }
 
+    /**
+     * Uploads the file and updates the digest with its bytes in the same pass,
+     * so the checksum of the uploaded data is known without reading the file
+     * a second time.
+     *
+     * @param file the file to upload
+     * @param url the transfer URL
+     * @param digest the digest to update with the uploaded bytes
+     */
+    public void upload(File file, String url, MessageDigest digest) {
+        upload(file, 0, file.length(), url, null, digest);
+    }
+
     public void upload(File file, long startByte, long endByte, String url,
             Header header) {
+        upload(file, startByte, endByte, url, header, null);
+    }
+
+    /**
+     * Uploads a resource, such as a file packaged in the samples jar,
+     * streaming it from its URL without copying it to a local file first.
+     * The digest is updated with the uploaded bytes in the same pass.
+     *
+     * @param resource the URL of the resource
+     * @param length the size of the resource
+     * @param url the transfer URL
+     * @param digest the digest to update with the uploaded bytes, or null
+     */
+    public void upload(URL resource, long length, String url,
+            MessageDigest digest) {
         HttpPut httpPut = new HttpPut(url);
+        String path = resource.getPath();
+        TransferStats stats = metrics.start(
+                path.substring(path.lastIndexOf('/') + 1), url, length);
         try {
-            BufferedInputStream bufferedInputStream = new BufferedInputStream(
-                    new FileInputStream(file));
-            long fileSize = file.length();
+            ResourceEntity entity = new ResourceEntity(resource, length);
+            entity.setDigest(digest);
+            entity.setStats(stats);
+            entity.setFlow(newFlow(url));
 
-            InputStreamEntity inputStreamRequestEntity = new InputStreamEntity(
-                    bufferedInputStream, fileSize);
+            httpPut.setEntity(entity);
+            HttpResponse httpResponse = executeRequest(httpPut, stats);
+            validateResponse(httpResponse, HttpStatus.SC_OK);
+            EntityUtils.consumeQuietly(httpResponse.getEntity());
+            stats.completed();
+        } catch (IOException e) {
+            httpPut.abort();
+            stats.failed(e);
+            throw new RuntimeException(
+                    "Failed to upload due to IOException!" + resource, e);
+        } catch (RuntimeException e) {
+            httpPut.abort();
+            stats.failed(e);
+            throw e;
+        }
+    }
+
+    private void upload(File file, long startByte, long endByte, String url,
+            Header header, MessageDigest digest) {
+        HttpPut httpPut = new HttpPut(url);
+        long fileSize = file.length();
+        boolean ranged = startByte != 0 || endByte != fileSize;
+        TransferStats stats = metrics.start(file.getName(), url,
+                ranged ? endByte - startByte + 1 : fileSize);
+        try {
+            if (!file.isFile()) {
+                throw new FileNotFoundException(file.getAbsolutePath());
+            }
 
-            if (startByte != 0 || endByte != file.length()) {
-                inputStreamRequestEntity = new InputStreamEntity(
-                        bufferedInputStream, endByte - startByte + 1);
+            FileChannelEntity fileEntity = ranged
+                    ? new FileChannelEntity(file, startByte,
+                            endByte - startByte + 1)
+                    : new FileChannelEntity(file);
+            if (ranged) {
                 httpPut.setHeader("Content-Range",
-                        "bytes" + Long.toString(startByte) + "-"
+                        "bytes " + Long.toString(startByte) + "-"
                                 + Long.toString(endByte) + "/"
                                 + Long.toString(fileSize));
-                inputStreamRequestEntity.setChunked(true);
             }
+            if (header != null) {
+                httpPut.setHeader(header);
+            }
+            fileEntity.setDigest(digest);
+            fileEntity.setStats(stats);
+            fileEntity.setFlow(newFlow(url));
 
-            FileEntity fileEntity = new FileEntity(file);
             httpPut.setEntity(fileEntity);
-            HttpResponse httpResponse = executeRequest(httpPut);
+            HttpResponse httpResponse = executeRequest(httpPut, stats);
             validateResponse(httpResponse, HttpStatus.SC_OK);
+            EntityUtils.consumeQuietly(httpResponse.getEntity());
+            stats.completed();
         } catch (FileNotFoundException e) {
+            stats.failed(e);
             throw new RuntimeException(
                     "FileNotFoundException for file" + file.getName(), e);
         } catch (IOException e) {
+            httpPut.abort();
+            stats.failed(e);
             throw new RuntimeException(
                     "Failed to upload due to IOException!" + file.getName(), e);
         } catch (RuntimeException e) {
             httpPut.abort();
+            stats.failed(e);
             throw e;
         }
     }
 
+    /**
+     * Uploads the file as a set of ranged PUT requests. The file is split into
+     * parts of {@code partSize} bytes, each part is sent with its own
+     * Content-Range header and up to {@code parallelism} parts are sent
+     * concurrently over the pooled connections. When some parts fail only
+     * those parts are sent again, up to {@code maxAttempts} times.
+     *
+     * @param file the file to upload
+     * @param url the transfer URL
+     * @param partSize the size of each part in bytes
+     * @param parallelism the maximum number of parts in flight
+     * @param maxAttempts the number of attempts made for each part
+     */
+    public void uploadMultiPart(final File file, final String url,
+            long partSize, int parallelism, int maxAttempts) {
+        if (partSize <= 0 || parallelism <= 0 || maxAttempts <= 0) {
+            throw new IllegalArgumentException("Part size, parallelism and "
+                    + "attempts must be positive");
+        }
+        final long fileSize = file.length();
+        List<long[]> parts = new ArrayList<>();
+        for (long start = 0; start < fileSize; start += partSize) {
+            parts.add(new long[] { start,
+                    Math.min(start + partSize, fileSize) - 1 });
+        }
+        if (parts.size() <= 1) {
+            // nothing to split, send the file as a single request
+            upload(file, url);
+            return;
+        }
+
+        final TransferStats stats = metrics.start(file.getName(), url,
+                fileSize);
+        final BandwidthScheduler.Flow flow = newFlow(url);
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(parallelism, parts.size()));
+        try {
+            List<long[]> pending = parts;
+            for (int attempt = 1; ; attempt++) {
+                Map<long[], Future<?>> futures = new LinkedHashMap<>();
+                for (final long[] part : pending) {
+                    futures.put(part, executor.submit(() -> uploadPart(file,
+                            part[0], part[1], fileSize, url, stats, flow)));
+                }
+
+                List<long[]> failed = new ArrayList<>();
+                Throwable lastError = null;
+                for (Map.Entry<long[], Future<?>> entry : futures.entrySet()) {
+                    try {
+                        entry.getValue().get();
+                    } catch (ExecutionException e) {
+                        failed.add(entry.getKey());
+                        lastError = e.getCause();
+                    }
+                }
+                if (failed.isEmpty()) {
+                    stats.completed();
+                    return;
+                }
+                if (attempt >= maxAttempts) {
+                    RuntimeException error = new RuntimeException(
+                            "Failed to upload " + failed.size() + " of "
+                            + parts.size() + " parts of " + file.getName(),
+                            lastError);
+                    stats.failed(error);
+                    throw error;
+                }
+                System.out.println("Retrying " + failed.size()
+                        + " failed part(s) of " + file.getName());
+                for (int i = 0; i < failed.size(); i++) {
+                    stats.retried(lastError);
+                }
+                pending = failed;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stats.failed(e);
+            throw new RuntimeException(
+                    "Interrupted while uploading " + file.getName(), e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Sends the bytes {@code startByte} to {@code endByte} (inclusive) of the
+     * file with a single ranged PUT request.
+     */
+    private void uploadPart(File file, long startByte, long endByte,
+            long fileSize, String url, TransferStats stats,
+            BandwidthScheduler.Flow flow) {
+        HttpPut httpPut = new HttpPut(url);
+        FileChannelEntity entity = new FileChannelEntity(file, startByte,
+                endByte - startByte + 1);
+        entity.setStats(stats);
+        entity.setFlow(flow);
+        try {
+            httpPut.setHeader("Content-Range", "bytes " + startByte + "-"
+                    + endByte + "/" + fileSize);
+            httpPut.setEntity(entity);
+            HttpResponse httpResponse = executeRequest(httpPut, stats);
+            validateResponse(httpResponse, HttpStatus.SC_OK);
+            // release the connection back to the pool
+            EntityUtils.consumeQuietly(httpResponse.getEntity());
+        } catch (IOException e) {
+            httpPut.abort();
+            // the part is sent again from its beginning
+            stats.rewind(entity.getBytesWritten());
+            throw new RuntimeException("Failed to upload bytes " + startByte
+                    + "-" + endByte + " of " + file.getName(), e);
+        } catch (RuntimeException e) {
+            httpPut.abort();
+            stats.rewind(entity.getBytesWritten());
+            throw e;
+        }
+    }
+
+    /**
+     * Downloads the contents of the url starting at {@code startByte} and
+     * counts the bytes read from the returned stream in the stats of the
+     * transfer. When a bandwidth scheduler is set, reading from the stream
+     * is paced by it.
+     *
+     * @param url the URL to retrieve
+     * @param startByte the position of the first byte to retrieve
+     * @param stats the stats of the transfer, or null
+     * @return the stream positioned at {@code startByte}
+     */
+    public InputStream downloadFile(String url, long startByte,
+            final TransferStats stats) {
+        final BandwidthScheduler.Flow flow = newFlow(url);
+        InputStream inputStream = downloadFile(url, startByte);
+        if (inputStream == null || (stats == null && flow == null)) {
+            return inputStream;
+        }
+        return new FilterInputStream(inputStream) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    received(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                received(n);
+                return n;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long skipped = super.skip(n);
+                received(skipped);
+                return skipped;
+            }
+
+            private void received(long bytes) throws IOException {
+                if (bytes <= 0) {
+                    return;
+                }
+                if (stats != null) {
+                    stats.addBytes(bytes);
+                }
+                if (flow != null) {
+                    try {
+                        flow.acquire(bytes);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException(
+                                "Interrupted while throttled");
+                    }
+                }
+            }
+        };
+    }
+
     public InputStream downloadFile(String url) {
 
         try {
@@ -195,6 +593,65 @@ public class HttpClient {
         }
     }
 
+    /**
+     * Downloads the contents of the url starting at {@code startByte} using an
+     * HTTP Range request. If the server ignores the range and returns the
+     * whole entity, the bytes before {@code startByte} are skipped so the
+     * returned stream always starts at the requested position.
+     *
+     * @param url the URL to retrieve
+     * @param startByte the position of the first byte to retrieve
+     * @return the stream positioned at {@code startByte}
+     */
+    public InputStream downloadFile(String url, long startByte) {
+        if (startByte <= 0) {
+            return downloadFile(url);
+        }
+
+        try {
+            new URL(url);
+        } catch (MalformedURLException e) {
+            throw new RuntimeException("Invalid Url!", e);
+        }
+
+        HttpGet httpGet = new HttpGet(url);
+        httpGet.setHeader("Range", "bytes=" + startByte + "-");
+        try {
+            HttpResponse httpResponse = client.execute(httpGet);
+            int statusCode = httpResponse.getStatusLine().getStatusCode();
+            if (statusCode != HttpStatus.SC_PARTIAL_CONTENT) {
+                validateResponse(httpResponse, HttpStatus.SC_OK);
+            }
+            HttpEntity responseEntity = httpResponse.getEntity();
+            if (responseEntity == null) {
+                throw new RuntimeException("No content returned for " + url);
+            }
+            InputStream inputStream = responseEntity.getContent();
+            if (statusCode == HttpStatus.SC_OK) {
+                // the range was ignored, skip what the caller already has
+                long remaining = startByte;
+                while (remaining > 0) {
+                    long skipped = inputStream.skip(remaining);
+                    if (skipped <= 0) {
+                        if (inputStream.read() < 0) {
+                            throw new IOException("Content is shorter than "
+                                    + startByte + " bytes");
+                        }
+                        skipped = 1;
+                    }
+                    remaining -= skipped;
+                }
+            }
+            return inputStream;
+        } catch (IOException e) {
+            httpGet.abort();
+            throw new RuntimeException("Failed to get url contents", e);
+        } catch (RuntimeException e) {
+            httpGet.abort();
+            throw e;
+        }
+    }
+
     /**
      * used to get data from a url and then writes the contents to the file
      * specified.
@@ -241,8 +698,18 @@ public class HttpClient {
         dataoutputstream.close();
     }
 
+    private BandwidthScheduler.Flow newFlow(String url) {
+        BandwidthScheduler current = scheduler;
+        return current == null ? null : current.newFlow(url, weight);
+    }
+
     private HttpResponse executeRequest(HttpUriRequest httpRequest)
             throws IOException, ClientProtocolException {
+        return executeRequest(httpRequest, null);
+    }
+
+    private HttpResponse executeRequest(HttpUriRequest httpRequest,
+            TransferStats stats) throws IOException, ClientProtocolException {
         int retries = 3;
         boolean shouldBreak = true;
         HttpResponse response = null;
@@ -257,6 +724,9 @@ public class HttpClient {
                     throw new RuntimeException(LOGIN_FAILED_MSG, ex);
                 }
                 shouldBreak = false;
+                if (stats != null) {
+                    stats.retried(ex);
+                }
                 try {
                     Thread.sleep(1000);
                 } catch (InterruptedException e) {
@@ -269,6 +739,9 @@ public class HttpClient {
                     throw new RuntimeException(LOGIN_FAILED_MSG, ex);
                 }
                 shouldBreak = false;
+                if (stats != null) {
+                    stats.retried(ex);
+                }
                 try {
                     Thread.sleep(1000);
                 } catch (InterruptedException e) {
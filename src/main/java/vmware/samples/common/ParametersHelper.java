@@ -47,6 +47,7 @@ public class ParametersHelper {
     private  Map<String, Object> parsedOptions;
     private static final String CONFIG_FILE = "config-file";
     private static final String OAUTH_APP_JSON = "oauth_app_json";
+    private boolean exitOnUsage = true;
 
     /**
      * Adds the common and sample-specific options to the list of options to
@@ -63,6 +64,17 @@ public class ParametersHelper {
         }
     }
 
+    /**
+     * Sets whether printing the usage exits the JVM, as the samples run
+     * alone do, or lets {@link #parse} fail with a ParseException, for the
+     * samples run with others in one JVM.
+     *
+     * @param exitOnUsage true to exit after printing the usage
+     */
+    public void setExitOnUsage(boolean exitOnUsage) {
+        this.exitOnUsage = exitOnUsage;
+    }
+
     /**
      * Parses the command line arguments and returns a map which has the values
      * for each of the command line option required by the sample. If a
@@ -83,6 +95,7 @@ public class ParametersHelper {
         parsedOptions = new HashMap<String, Object>();
         if (args.length == 0) {
             printUsage(sampleName);
+            throw new ParseException("No arguments given to " + sampleName);
         }
         List<Option> optionsToParseFromCmdLine = new ArrayList<>();
 
@@ -201,7 +214,9 @@ public class ParametersHelper {
             getOptions(new ArrayList<Option>(this.optionMap.keySet())),
             "",
             true);
-        System.exit(0);
+        if (exitOnUsage) {
+            System.exit(0);
+        }
     }
 
     public Map<String, Object> parseJsonConfig(String[] args) {
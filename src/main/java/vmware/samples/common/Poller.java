@@ -0,0 +1,176 @@
+/*
+ * *******************************************************
+ * Copyright VMware, Inc. 2021.  All Rights Reserved.
+ * SPDX-License-Identifier: MIT
+ * *******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package vmware.samples.common;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Polls a remote condition with exponential backoff and jitter until it is
+ * met or a deadline passes. The deadline is fixed when the poller is created
+ * and is shared by all the waits done with it, while the backoff restarts
+ * from the initial delay on every wait.
+ *
+ * <p>The number of polls and the time spent sleeping are counted per poller
+ * and across all pollers of the JVM.</p>
+ */
+public class Poller {
+
+    public static final long DEFAULT_INITIAL_DELAY_MS = 500;
+    public static final long DEFAULT_MAX_DELAY_MS = 10 * 1000;
+    public static final double DEFAULT_MULTIPLIER = 2.0;
+
+    private static final AtomicLong TOTAL_POLLS = new AtomicLong();
+    private static final AtomicLong TOTAL_SLEEP_MS = new AtomicLong();
+
+    private final long deadlineNanos;
+    private final long initialDelayMs;
+    private final long maxDelayMs;
+    private final double multiplier;
+    private final AtomicLong polls = new AtomicLong();
+    private final AtomicLong sleepMs = new AtomicLong();
+
+    /**
+     * Creates a poller with the default backoff.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit the time unit of the timeout parameter
+     */
+    public Poller(long timeout, TimeUnit unit) {
+        this(timeout, unit, DEFAULT_INITIAL_DELAY_MS, DEFAULT_MAX_DELAY_MS,
+                DEFAULT_MULTIPLIER);
+    }
+
+    /**
+     * Creates a poller.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit the time unit of the timeout parameter
+     * @param initialDelayMs the delay before the second poll
+     * @param maxDelayMs the upper bound of the delay between two polls
+     * @param multiplier the factor applied to the delay after every poll
+     */
+    public Poller(long timeout, TimeUnit unit, long initialDelayMs,
+            long maxDelayMs, double multiplier) {
+        if (initialDelayMs <= 0 || maxDelayMs < initialDelayMs
+            || multiplier < 1.0) {
+            throw new IllegalArgumentException("Invalid backoff settings");
+        }
+        this.deadlineNanos = System.nanoTime() + unit.toNanos(timeout);
+        this.initialDelayMs = initialDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.multiplier = multiplier;
+    }
+
+    /**
+     * Polls the probe until it returns a non null result or the deadline
+     * passes. The first poll is done immediately. Exceptions thrown by the
+     * probe end the wait; checked exceptions are wrapped in a
+     * {@link RuntimeException}.
+     *
+     * @param probe returns the result once the condition is met, null
+     *        otherwise
+     * @return the result of the probe, or null if the deadline passed
+     * @throws InterruptedException if the current thread was interrupted
+     */
+    public <T> T pollUntil(Callable<T> probe) throws InterruptedException {
+        long delayMs = initialDelayMs;
+        while (true) {
+            T result = call(probe);
+            if (result != null) {
+                return result;
+            }
+            long remainingMs = TimeUnit.NANOSECONDS.toMillis(
+                    deadlineNanos - System.nanoTime());
+            if (remainingMs <= 0) {
+                return null;
+            }
+            long sleep = Math.min(withJitter(delayMs), remainingMs);
+            sleepMs.addAndGet(sleep);
+            TOTAL_SLEEP_MS.addAndGet(sleep);
+            Thread.sleep(sleep);
+            delayMs = Math.min((long) (delayMs * multiplier), maxDelayMs);
+        }
+    }
+
+    /**
+     * Polls the condition until it is true or the deadline passes.
+     *
+     * @param condition the condition to poll
+     * @return true if the condition was met, false if the deadline passed
+     * @throws InterruptedException if the current thread was interrupted
+     */
+    public boolean await(final Callable<Boolean> condition)
+            throws InterruptedException {
+        return pollUntil(() -> condition.call() ? Boolean.TRUE : null) != null;
+    }
+
+    /**
+     * Returns true if the deadline of this poller has passed.
+     */
+    public boolean isExpired() {
+        return System.nanoTime() - deadlineNanos >= 0;
+    }
+
+    /**
+     * Returns the number of polls done by this poller.
+     */
+    public long getPollCount() {
+        return polls.get();
+    }
+
+    /**
+     * Returns the time in milliseconds this poller spent sleeping.
+     */
+    public long getSleepMillis() {
+        return sleepMs.get();
+    }
+
+    /**
+     * Returns the number of polls done by all pollers.
+     */
+    public static long getTotalPollCount() {
+        return TOTAL_POLLS.get();
+    }
+
+    /**
+     * Returns the time in milliseconds all pollers spent sleeping.
+     */
+    public static long getTotalSleepMillis() {
+        return TOTAL_SLEEP_MS.get();
+    }
+
+    private <T> T call(Callable<T> probe) {
+        polls.incrementAndGet();
+        TOTAL_POLLS.incrementAndGet();
+        try {
+            return probe.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /*
+     * Spread the delay over [delay / 2, delay] so that concurrent waiters
+     * do not poll the server in lock step.
+     */
+    private static long withJitter(long delayMs) {
+        long half = delayMs / 2;
+        return half + ThreadLocalRandom.current().nextLong(delayMs - half + 1);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * *******************************************************
+ * Copyright VMware, Inc. 2021.  All Rights Reserved.
+ * SPDX-License-Identifier: MIT
+ * *******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package vmware.samples.common;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.security.MessageDigest;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+/**
+ * Repeatable HTTP entity which streams a resource, such as a file packaged in
+ * the samples jar, straight from its URL. The resource is opened again every
+ * time the entity is written, so it never needs to be copied to a local file
+ * before it is uploaded.
+ */
+public class ResourceEntity extends AbstractHttpEntity {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final URL resource;
+    private final long length;
+    private MessageDigest digest;
+    private TransferStats stats;
+    private BandwidthScheduler.Flow flow;
+    private volatile long bytesWritten;
+
+    /**
+     * Creates an entity for the resource.
+     *
+     * @param resource the URL of the resource
+     * @param length the size of the resource
+     */
+    public ResourceEntity(URL resource, long length) {
+        if (length < 0) {
+            throw new IllegalArgumentException(
+                    "The size of " + resource + " is unknown");
+        }
+        this.resource = resource;
+        this.length = length;
+        setContentType(ContentType.APPLICATION_OCTET_STREAM.toString());
+    }
+
+    /**
+     * Sets a digest which is updated with the bytes of the entity while they
+     * are written. The digest is reset every time the entity is written.
+     *
+     * @param digest the digest to update, or null for none
+     */
+    public void setDigest(MessageDigest digest) {
+        this.digest = digest;
+    }
+
+    /**
+     * Sets the stats which are updated with the bytes of the entity while
+     * they are written.
+     *
+     * @param stats the stats of the transfer, or null for none
+     */
+    public void setStats(TransferStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Sets the flow which paces the bytes of the entity while they are
+     * written.
+     *
+     * @param flow the bandwidth flow of the transfer, or null for none
+     */
+    public void setFlow(BandwidthScheduler.Flow flow) {
+        this.flow = flow;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return length;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        return resource.openStream();
+    }
+
+    @Override
+    public void writeTo(OutputStream outStream) throws IOException {
+        if (outStream == null) {
+            throw new IllegalArgumentException("Output stream may not be null");
+        }
+        try (InputStream in = resource.openStream()) {
+            byte[] bytes = new byte[(int) Math.min(BUFFER_SIZE,
+                    Math.max(length, 1))];
+            if (digest != null) {
+                digest.reset();
+            }
+            if (stats != null && bytesWritten > 0) {
+                stats.rewind(bytesWritten);
+            }
+            bytesWritten = 0;
+            while (bytesWritten < length) {
+                int read = in.read(bytes, 0,
+                        (int) Math.min(bytes.length, length - bytesWritten));
+                if (read < 0) {
+                    throw new EOFException("Unexpected end of " + resource
+                            + " at byte " + bytesWritten);
+                }
+                if (digest != null) {
+                    digest.update(bytes, 0, read);
+                }
+                if (flow != null) {
+                    acquire(read);
+                }
+                outStream.write(bytes, 0, read);
+                bytesWritten += read;
+                if (stats != null) {
+                    stats.addBytes(read);
+                }
+            }
+            outStream.flush();
+        }
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    private void acquire(int bytes) throws InterruptedIOException {
+        try {
+            flow.acquire(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttled");
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * *******************************************************
+ * Copyright VMware, Inc. 2021.  All Rights Reserved.
+ * SPDX-License-Identifier: MIT
+ * *******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package vmware.samples.common;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.cli.Option;
+
+import com.vmware.vapi.protocol.HttpConfiguration;
+
+import vmware.samples.common.authentication.SessionPool;
+
+/**
+ * Runs many sample workflows concurrently in one JVM, on the sessions of
+ * one {@link SessionPool}. The runner logs in once to vAPI and VIM; every
+ * submitted sample then parses its own arguments, takes that session from
+ * the pool, sets up, runs and cleans up, sharing the connection pool of its
+ * stub factory, and the runner logs out when it is closed.
+ *
+ * <pre>
+ * try (SampleRunner runner = new SampleRunner(connectionArgs, 8)) {
+ *     Future&lt;Void&gt; a = runner.submit(new ListVMs(), "--cluster", "a");
+ *     Future&lt;Void&gt; b = runner.submit(new ListVMs(), "--cluster", "b");
+ *     a.get();
+ *     b.get();
+ * }
+ * </pre>
+ *
+ * <p>Each submission needs its own sample instance, since the samples keep
+ * their state in fields. Wrong arguments fail the future of the sample
+ * with an IllegalArgumentException instead of exiting the JVM. The samples
+ * run on a fixed pool of {@code parallelism} threads.</p>
+ */
+public class SampleRunner implements AutoCloseable {
+
+    /**
+     * Default number of samples run at the same time.
+     */
+    public static final int DEFAULT_PARALLELISM = 8;
+
+    // concurrent samples beyond this share connections to the server
+    private static final int CONNECTIONS_PER_SAMPLE = 2;
+
+    private final String[] connectionArgs;
+    private final SessionPool pool;
+    private final ExecutorService executor;
+
+    /**
+     * Logs in with the default parallelism.
+     *
+     * @param connectionArgs the common arguments of the samples, such as
+     *        --server, --username, --password and --skip-server-verification
+     * @throws Exception if the login fails
+     */
+    public SampleRunner(String[] connectionArgs) throws Exception {
+        this(connectionArgs, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Logs in.
+     *
+     * @param connectionArgs the common arguments of the samples, such as
+     *        --server, --username, --password and --skip-server-verification
+     * @param parallelism the maximum number of samples run at the same time
+     * @throws Exception if the login fails
+     */
+    public SampleRunner(String[] connectionArgs, int parallelism)
+            throws Exception {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        this.connectionArgs = connectionArgs.clone();
+        ConnectionOptions options =
+                new ConnectionOptions(parallelism * CONNECTIONS_PER_SAMPLE);
+        options.parseArgs(this.connectionArgs);
+        this.pool = new SessionPool(options.buildHttpConfiguration());
+        try {
+            // logs in now, so that a wrong password fails here
+            this.pool.acquire(options.getServer(), options.getUsername(),
+                options.getPassword());
+        } catch (Exception e) {
+            this.pool.close();
+            throw e;
+        }
+        this.executor = Executors.newFixedThreadPool(parallelism);
+    }
+
+    /**
+     * Submits a sample to run on the shared session. The connection
+     * arguments of the runner are passed to the sample ahead of its own
+     * arguments.
+     *
+     * @param sample a new instance of the sample
+     * @param sampleArgs the arguments specific to the sample
+     * @return completes when the sample finished, with the exception thrown
+     *         by the sample if it failed
+     */
+    public Future<Void> submit(final SamplesAbstractBase sample,
+                               String... sampleArgs) {
+        final String[] args = Arrays.copyOf(connectionArgs,
+            connectionArgs.length + sampleArgs.length);
+        System.arraycopy(sampleArgs, 0, args, connectionArgs.length,
+            sampleArgs.length);
+        return executor.submit(() -> {
+            sample.execute(args, pool);
+            return null;
+        });
+    }
+
+    /**
+     * Waits for the submitted samples to finish, then logs out.
+     *
+     * @throws Exception if the logout fails
+     */
+    @Override
+    public void close() throws Exception {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } finally {
+            pool.close();
+        }
+    }
+
+    /*
+     * Parses the connection options of the runner and sizes the connection
+     * pool for the concurrent samples.
+     */
+    private static class ConnectionOptions extends SamplesAbstractBase {
+        private final int maxConnections;
+
+        ConnectionOptions(int maxConnections) {
+            this.maxConnections = maxConnections;
+            setExitOnArgsError(false);
+        }
+
+        @Override
+        protected void parseArgs(String[] args) {
+            super.parseArgs(Collections.<Option>emptyList(), args);
+        }
+
+        @Override
+        protected HttpConfiguration buildHttpConfiguration()
+                throws Exception {
+            return new HttpConfiguration.Builder()
+                .setSslConfiguration(buildSslConfiguration())
+                .setMaxConnections(maxConnections)
+                .getConfig();
+        }
+
+        @Override
+        protected void setup() {
+        }
+
+        @Override
+        protected void run() {
+        }
+
+        @Override
+        protected void cleanup() {
+        }
+    }
+}
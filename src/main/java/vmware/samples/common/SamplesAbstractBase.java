@@ -28,6 +28,8 @@ import com.vmware.vapi.protocol.HttpConfiguration;
 import com.vmware.vapi.protocol.HttpConfiguration.KeyStoreConfig;
 import com.vmware.vapi.protocol.HttpConfiguration.SslConfiguration;
 
+import vmware.samples.common.authentication.SessionPool;
+import vmware.samples.common.authentication.SessionPool.PooledSession;
 import vmware.samples.common.authentication.VapiAuthenticationHelper;
 import vmware.samples.common.authentication.VimAuthenticationHelper;
 
@@ -48,6 +50,9 @@ public abstract class SamplesAbstractBase {
     protected VapiAuthenticationHelper vapiAuthHelper;
     protected StubConfiguration sessionStubConfig;
     protected Map<String, Object> parsedOptions;
+    private SessionPool sessionPool;
+    private boolean exitOnArgsError = true;
+    private boolean ownsSessionPool;
 
     /**
      * Parses the command line arguments / config file and creates a map of
@@ -163,6 +168,7 @@ public abstract class SamplesAbstractBase {
                 skipServerVerificationOption));
 
             paramsHelper = new ParametersHelper(optionList);
+            paramsHelper.setExitOnUsage(this.exitOnArgsError);
             this.parsedOptions = paramsHelper.parse(args,
                     this.getClass().getName());
 
@@ -217,16 +223,38 @@ public abstract class SamplesAbstractBase {
 
         } catch (ParseException pex) {
             System.out.println(pex.getMessage());
-            System.exit(0);
+            failOnArgsError(pex);
         } catch (ConfigurationException cex) {
             System.out.println(cex.getMessage());
-            System.exit(0);
+            failOnArgsError(cex);
         } catch (Exception e) {
             e.printStackTrace();
-            System.exit(0);
+            failOnArgsError(e);
         }
     }
 
+    /*
+     * Makes wrong arguments throw an IllegalArgumentException instead of
+     * exiting the JVM, for the samples run with others in one JVM.
+     */
+    void setExitOnArgsError(boolean exitOnArgsError) {
+        this.exitOnArgsError = exitOnArgsError;
+    }
+
+    /*
+     * Exits the JVM when the arguments of a sample run alone are wrong. A
+     * sample run on a shared session pool fails instead, so that the other
+     * samples of the JVM keep running.
+     */
+    private void failOnArgsError(Exception e) {
+        if (!this.exitOnArgsError) {
+            throw new IllegalArgumentException(
+                "Invalid arguments for " + this.getClass().getName() + ": "
+                + e.getMessage(), e);
+        }
+        System.exit(0);
+    }
+
     public String getServer() {
         return this.server;
     }
@@ -290,7 +318,10 @@ public abstract class SamplesAbstractBase {
     protected abstract void cleanup() throws Exception;
 
     /**
-     * Creates a session with the server using username/password.
+     * Creates a session with the server using username/password, or takes
+     * it from the session pool given to {@link #execute(String[],
+     * SessionPool)}. Without a pool, the sample logs in with a pool of its
+     * own, closed on logout.
      *
      *<p><b>
      * Note: If the "skip-server-verification" option is specified, then this
@@ -302,13 +333,15 @@ public abstract class SamplesAbstractBase {
      * @throws Exception
      */
     protected void login() throws Exception {
-        this.vapiAuthHelper = new VapiAuthenticationHelper();
-        this.vimAuthHelper = new VimAuthenticationHelper();
-        HttpConfiguration httpConfig = buildHttpConfiguration();
-        this.sessionStubConfig =
-                vapiAuthHelper.loginByUsernameAndPassword(
-                    this.server, this.username, this.password, httpConfig);
-        this.vimAuthHelper.loginByUsernameAndPassword(this.server, this.username, this.password);
+        if (this.sessionPool == null) {
+            this.sessionPool = new SessionPool(buildHttpConfiguration());
+            this.ownsSessionPool = true;
+        }
+        PooledSession session = this.sessionPool.acquire(
+            this.server, this.username, this.password);
+        this.vapiAuthHelper = session.getVapiAuthHelper();
+        this.vimAuthHelper = session.getVimAuthHelper();
+        this.sessionStubConfig = session.getStubConfig();
     }
 
     /**
@@ -402,12 +435,17 @@ public abstract class SamplesAbstractBase {
     }
 
     /**
-     * Logs out of the server
+     * Logs out of the server. The session of a pool given to
+     * {@link #execute(String[], SessionPool)} stays open for the other
+     * samples.
      * @throws Exception
      */
     protected void logout() throws Exception {
-        this.vapiAuthHelper.logout();
-        //this.vimAuthHelper.logout();
+        if (this.ownsSessionPool) {
+            this.sessionPool.close();
+            this.sessionPool = null;
+            this.ownsSessionPool = false;
+        }
     }
 
     /**
@@ -447,4 +485,23 @@ public abstract class SamplesAbstractBase {
             logout();
         }
     }
+
+    /**
+     * Executes the sample like {@link #execute(String[])}, with a session of
+     * the pool instead of logging in, so that many samples can run
+     * concurrently on one session and one connection pool. The session
+     * stays in the pool after the run.
+     *
+     * @param args command line arguments passed to the sample
+     * @param pool the pool holding the session of the server and user of
+     *        the arguments
+     * @throws Exception
+     * @see SampleRunner
+     */
+    protected void execute(String[] args, SessionPool pool) throws Exception {
+        this.sessionPool = pool;
+        this.exitOnArgsError = false;
+        this.ownsSessionPool = false;
+        execute(args);
+    }
 }
@@ -0,0 +1,98 @@
+/*
+ * *******************************************************
+ * Copyright VMware, Inc. 2021.  All Rights Reserved.
+ * SPDX-License-Identifier: MIT
+ * *******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package vmware.samples.common;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting a byte rate. The bucket holds up to {@code burst}
+ * tokens and is refilled at {@code bytesPerSecond}. Taking more tokens than
+ * are available puts the bucket in debt, which later callers wait out, so a
+ * request larger than the burst size is still served at the configured rate.
+ */
+public class TokenBucket {
+
+    private final long bytesPerSecond;
+    private final double tokensPerNano;
+    private final double capacity;
+    private double tokens;
+    private long lastRefillNanos = System.nanoTime();
+
+    /**
+     * Creates a full bucket.
+     *
+     * @param bytesPerSecond the sustained rate
+     * @param burst the number of bytes which may be taken at once without
+     *        waiting
+     */
+    public TokenBucket(long bytesPerSecond, long burst) {
+        if (bytesPerSecond <= 0 || burst <= 0) {
+            throw new IllegalArgumentException(
+                    "Rate and burst must be positive");
+        }
+        this.bytesPerSecond = bytesPerSecond;
+        this.tokensPerNano = bytesPerSecond / 1e9;
+        this.capacity = burst;
+        this.tokens = burst;
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Takes {@code bytes} tokens, waiting until the bucket is out of debt.
+     * Callers are served in the order they call this method.
+     *
+     * @param bytes the number of bytes about to be transferred
+     * @throws InterruptedException if the current thread was interrupted
+     */
+    public void acquire(long bytes) throws InterruptedException {
+        long waitNanos;
+        synchronized (this) {
+            refill();
+            tokens -= bytes;
+            waitNanos = tokens >= 0 ? 0 : (long) (-tokens / tokensPerNano);
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Returns how long to wait before {@code bytes} tokens, or a full bucket
+     * for larger requests, are available.
+     */
+    synchronized long nanosUntilAvailable(long bytes) {
+        refill();
+        double needed = Math.min(bytes, capacity);
+        return tokens >= needed ? 0
+                : (long) Math.ceil((needed - tokens) / tokensPerNano);
+    }
+
+    /**
+     * Takes {@code bytes} tokens without waiting.
+     */
+    synchronized void take(long bytes) {
+        refill();
+        tokens -= bytes;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity,
+                tokens + (now - lastRefillNanos) * tokensPerNano);
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * *******************************************************
+ * Copyright VMware, Inc. 2021.  All Rights Reserved.
+ * SPDX-License-Identifier: MIT
+ * *******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package vmware.samples.common;
+
+/**
+ * Receives the events of file transfers. Listeners are added to a
+ * {@link TransferMetrics} registry and are called from the threads doing the
+ * transfers, so they must be thread safe and should return quickly.
+ */
+public interface TransferListener {
+
+    /**
+     * Called when a transfer starts, before the request is sent.
+     */
+    default void transferStarted(TransferStats stats) {
+    }
+
+    /**
+     * Called periodically while the data of a transfer is moving.
+     */
+    default void transferProgress(TransferStats stats) {
+    }
+
+    /**
+     * Called when a failed request of a transfer is sent again.
+     *
+     * @param stats the transfer
+     * @param cause the error of the failed request, or null if unknown
+     */
+    default void transferRetried(TransferStats stats, Throwable cause) {
+    }
+
+    /**
+     * Called once when a transfer completes.
+     */
+    default void transferCompleted(TransferStats stats) {
+    }
+
+    /**
+     * Called once when a transfer fails for good.
+     */
+    default void transferFailed(TransferStats stats, Throwable cause) {
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * *******************************************************
+ * Copyright VMware, Inc. 2021.  All Rights Reserved.
+ * SPDX-License-Identifier: MIT
+ * *******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package vmware.samples.common;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registry of the file transfers done by the samples. It creates the
+ * {@link TransferStats} of every transfer, keeps the totals across transfers
+ * and the average throughput of each host, and forwards the transfer events
+ * to the registered {@link TransferListener}s. The registry can be exported
+ * as a JMX MBean to watch mass transfers with jconsole or any JMX client.
+ */
+public class TransferMetrics implements TransferListener,
+        TransferMetricsMBean {
+
+    public static final String OBJECT_NAME =
+            "vmware.samples:type=TransferMetrics";
+
+    private static final TransferMetrics DEFAULT = new TransferMetrics();
+
+    private final List<TransferListener> listeners =
+            new CopyOnWriteArrayList<>();
+    private final Set<TransferStats> active = ConcurrentHashMap.newKeySet();
+    private final Map<String, HostStats> hosts = new ConcurrentHashMap<>();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong transferredBytes = new AtomicLong();
+
+    /**
+     * Returns the registry used by the upload and download helpers.
+     */
+    public static TransferMetrics getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Starts tracking a transfer.
+     *
+     * @param name the name of the transferred file
+     * @param url the URL the file is sent to or received from
+     * @param totalBytes the size of the file, or -1 if it is unknown
+     * @return the stats to update while the transfer runs
+     */
+    public TransferStats start(String name, String url, long totalBytes) {
+        TransferStats stats = new TransferStats(name, hostOf(url), totalBytes,
+                this);
+        transferStarted(stats);
+        return stats;
+    }
+
+    public void addListener(TransferListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(TransferListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Registers the registry with the platform MBean server under
+     * {@link #OBJECT_NAME}. Registering it again has no effect.
+     */
+    public void registerMBean() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            // already exported
+        } catch (JMException e) {
+            throw new RuntimeException("Failed to register " + OBJECT_NAME,
+                    e);
+        }
+    }
+
+    @Override
+    public void transferStarted(TransferStats stats) {
+        started.incrementAndGet();
+        active.add(stats);
+        for (TransferListener listener : listeners) {
+            listener.transferStarted(stats);
+        }
+    }
+
+    @Override
+    public void transferProgress(TransferStats stats) {
+        for (TransferListener listener : listeners) {
+            listener.transferProgress(stats);
+        }
+    }
+
+    @Override
+    public void transferRetried(TransferStats stats, Throwable cause) {
+        retries.incrementAndGet();
+        hostStats(stats).retries.incrementAndGet();
+        for (TransferListener listener : listeners) {
+            listener.transferRetried(stats, cause);
+        }
+    }
+
+    @Override
+    public void transferCompleted(TransferStats stats) {
+        completed.incrementAndGet();
+        finish(stats);
+        for (TransferListener listener : listeners) {
+            listener.transferCompleted(stats);
+        }
+    }
+
+    @Override
+    public void transferFailed(TransferStats stats, Throwable cause) {
+        failed.incrementAndGet();
+        hostStats(stats).failures.incrementAndGet();
+        finish(stats);
+        for (TransferListener listener : listeners) {
+            listener.transferFailed(stats, cause);
+        }
+    }
+
+    @Override
+    public int getActiveTransfers() {
+        return active.size();
+    }
+
+    @Override
+    public long getStartedTransfers() {
+        return started.get();
+    }
+
+    @Override
+    public long getCompletedTransfers() {
+        return completed.get();
+    }
+
+    @Override
+    public long getFailedTransfers() {
+        return failed.get();
+    }
+
+    @Override
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    /**
+     * Returns the bytes moved by the finished transfers.
+     */
+    @Override
+    public long getTransferredBytes() {
+        return transferredBytes.get();
+    }
+
+    @Override
+    public double getCurrentBytesPerSecond() {
+        double rate = 0;
+        for (TransferStats stats : active) {
+            rate += stats.getBytesPerSecond();
+        }
+        return rate;
+    }
+
+    @Override
+    public Map<String, Double> getBytesPerSecondByHost() {
+        Map<String, Double> rates = new TreeMap<>();
+        for (Map.Entry<String, HostStats> entry : hosts.entrySet()) {
+            rates.put(entry.getKey(), entry.getValue().bytesPerSecond());
+        }
+        return rates;
+    }
+
+    @Override
+    public String[] getActiveTransferProgress() {
+        List<String> progress = new ArrayList<>();
+        for (TransferStats stats : active) {
+            progress.add(stats.toString());
+        }
+        return progress.toArray(new String[progress.size()]);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(completed.get()).append(" completed, ")
+          .append(failed.get()).append(" failed, ")
+          .append(active.size()).append(" active transfers, ")
+          .append(TransferStats.formatBytes(transferredBytes.get()))
+          .append(" transferred, ").append(retries.get()).append(" retries");
+        for (Map.Entry<String, HostStats> entry : new TreeMap<>(hosts)
+                .entrySet()) {
+            sb.append(System.lineSeparator()).append("  ")
+              .append(entry.getKey()).append(" : ")
+              .append(entry.getValue());
+        }
+        return sb.toString();
+    }
+
+    private void finish(TransferStats stats) {
+        active.remove(stats);
+        transferredBytes.addAndGet(stats.getBytes());
+        HostStats hostStats = hostStats(stats);
+        hostStats.transfers.incrementAndGet();
+        hostStats.bytes.addAndGet(stats.getBytes());
+        hostStats.millis.addAndGet(stats.getElapsedMillis());
+    }
+
+    private HostStats hostStats(TransferStats stats) {
+        return hosts.computeIfAbsent(stats.getHost(), h -> new HostStats());
+    }
+
+    private static String hostOf(String url) {
+        String host = null;
+        if (url != null) {
+            try {
+                host = URI.create(url).getHost();
+            } catch (IllegalArgumentException e) {
+                // not a valid URI, fall back to the unknown host
+            }
+        }
+        return host != null ? host : "unknown";
+    }
+
+    /*
+     * Totals of the finished transfers of one host.
+     */
+    private static class HostStats {
+        private final AtomicLong transfers = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        private final AtomicLong retries = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong millis = new AtomicLong();
+
+        double bytesPerSecond() {
+            long elapsed = millis.get();
+            return elapsed <= 0 ? 0 : bytes.get() * 1000.0 / elapsed;
+        }
+
+        @Override
+        public String toString() {
+            return transfers.get() + " transfers at "
+                   + TransferStats.formatBytes((long) bytesPerSecond())
+                   + "/s, " + failures.get() + " failed, " + retries.get()
+                   + " retries";
+        }
+    }
+}
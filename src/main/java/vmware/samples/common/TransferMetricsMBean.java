@@ -0,0 +1,49 @@
+/*
+ * *******************************************************
+ * Copyright VMware, Inc. 2021.  All Rights Reserved.
+ * SPDX-License-Identifier: MIT
+ * *******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package vmware.samples.common;
+
+import java.util.Map;
+
+/**
+ * JMX view of a {@link TransferMetrics} registry.
+ */
+public interface TransferMetricsMBean {
+
+    int getActiveTransfers();
+
+    long getStartedTransfers();
+
+    long getCompletedTransfers();
+
+    long getFailedTransfers();
+
+    long getRetryCount();
+
+    long getTransferredBytes();
+
+    /**
+     * Returns the combined throughput of the active transfers.
+     */
+    double getCurrentBytesPerSecond();
+
+    /**
+     * Returns the average throughput of the finished transfers of each host.
+     */
+    Map<String, Double> getBytesPerSecondByHost();
+
+    /**
+     * Returns the progress of every active transfer.
+     */
+    String[] getActiveTransferProgress();
+}
@@ -0,0 +1,269 @@
+/*
+ * *******************************************************
+ * Copyright VMware, Inc. 2021.  All Rights Reserved.
+ * SPDX-License-Identifier: MIT
+ * *******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package vmware.samples.common;
+
+/**
+ * Connection pool and socket settings used by {@link HttpClient}. The named
+ * profiles cover the common cases and every setting can be adjusted on the
+ * returned profile before the client is created:
+ *
+ * <ul>
+ * <li>{@link #bulkTransfer()} - few long lived connections with large socket
+ * buffers and no socket timeout, for moving file content over fast links.</li>
+ * <li>{@link #metadata()} - a small pool for chatty API calls, with Nagle's
+ * algorithm disabled and a bounded socket timeout.</li>
+ * <li>{@link #lowLatency()} - short timeouts and frequent validation of idle
+ * connections, for requests which should fail fast rather than wait.</li>
+ * </ul>
+ *
+ * Sizes are in bytes and durations in milliseconds. A buffer size of 0 keeps
+ * the operating system default, a socket timeout of -1 means no timeout, and
+ * an idle timeout of 0 disables the eviction of idle connections.
+ */
+public class TransferProfile {
+
+    private final String name;
+    private int maxTotal;
+    private int maxPerRoute;
+    private int connectTimeoutMs;
+    private int connectionRequestTimeoutMs;
+    private int socketTimeoutMs;
+    private long maxIdleTimeMs;
+    private int validateAfterInactivityMs;
+    private boolean tcpNoDelay;
+    private int sendBufferSize;
+    private int receiveBufferSize;
+    private int ioBufferSize;
+
+    private TransferProfile(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns the settings {@link HttpClient} has always used: a pool of 600
+     * connections, 5 second connect timeouts and either no socket timeout or
+     * a 60 second one.
+     *
+     * @param infiniteSocketTimeout whether the socket timeout is disabled
+     * @return the profile
+     */
+    public static TransferProfile defaults(boolean infiniteSocketTimeout) {
+        return new TransferProfile("default")
+            .setMaxTotal(600)
+            .setMaxPerRoute(500)
+            .setConnectTimeoutMs(5 * 1000)
+            .setConnectionRequestTimeoutMs(5 * 1000)
+            .setSocketTimeoutMs(infiniteSocketTimeout ? -1 : 60 * 1000)
+            .setValidateAfterInactivityMs(2 * 1000)
+            .setTcpNoDelay(true)
+            .setIoBufferSize(8 * 1024);
+    }
+
+    /**
+     * Returns a profile for transferring file content. The socket buffers
+     * are large enough to keep a 10 GbE link busy at a few milliseconds of
+     * round trip time.
+     *
+     * @return the profile
+     */
+    public static TransferProfile bulkTransfer() {
+        return new TransferProfile("bulk-transfer")
+            .setMaxTotal(64)
+            .setMaxPerRoute(32)
+            .setConnectTimeoutMs(10 * 1000)
+            .setConnectionRequestTimeoutMs(60 * 1000)
+            .setSocketTimeoutMs(-1)
+            .setMaxIdleTimeMs(60 * 1000)
+            .setValidateAfterInactivityMs(10 * 1000)
+            .setTcpNoDelay(true)
+            .setSendBufferSize(4 * 1024 * 1024)
+            .setReceiveBufferSize(4 * 1024 * 1024)
+            .setIoBufferSize(256 * 1024);
+    }
+
+    /**
+     * Returns a profile for API calls which exchange small requests and
+     * responses.
+     *
+     * @return the profile
+     */
+    public static TransferProfile metadata() {
+        return new TransferProfile("metadata")
+            .setMaxTotal(20)
+            .setMaxPerRoute(10)
+            .setConnectTimeoutMs(5 * 1000)
+            .setConnectionRequestTimeoutMs(5 * 1000)
+            .setSocketTimeoutMs(60 * 1000)
+            .setMaxIdleTimeMs(30 * 1000)
+            .setValidateAfterInactivityMs(2 * 1000)
+            .setTcpNoDelay(true)
+            .setIoBufferSize(8 * 1024);
+    }
+
+    /**
+     * Returns a profile for requests which should fail fast.
+     *
+     * @return the profile
+     */
+    public static TransferProfile lowLatency() {
+        return new TransferProfile("low-latency")
+            .setMaxTotal(50)
+            .setMaxPerRoute(50)
+            .setConnectTimeoutMs(2 * 1000)
+            .setConnectionRequestTimeoutMs(1000)
+            .setSocketTimeoutMs(10 * 1000)
+            .setMaxIdleTimeMs(15 * 1000)
+            .setValidateAfterInactivityMs(500)
+            .setTcpNoDelay(true)
+            .setSendBufferSize(64 * 1024)
+            .setReceiveBufferSize(64 * 1024)
+            .setIoBufferSize(8 * 1024);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    /**
+     * @param maxTotal the maximum number of pooled connections
+     */
+    public TransferProfile setMaxTotal(int maxTotal) {
+        this.maxTotal = maxTotal;
+        return this;
+    }
+
+    public int getMaxPerRoute() {
+        return maxPerRoute;
+    }
+
+    /**
+     * @param maxPerRoute the maximum number of pooled connections to a host
+     */
+    public TransferProfile setMaxPerRoute(int maxPerRoute) {
+        this.maxPerRoute = maxPerRoute;
+        return this;
+    }
+
+    public int getConnectTimeoutMs() {
+        return connectTimeoutMs;
+    }
+
+    public TransferProfile setConnectTimeoutMs(int connectTimeoutMs) {
+        this.connectTimeoutMs = connectTimeoutMs;
+        return this;
+    }
+
+    public int getConnectionRequestTimeoutMs() {
+        return connectionRequestTimeoutMs;
+    }
+
+    /**
+     * @param connectionRequestTimeoutMs the time to wait for a connection
+     *        from the pool
+     */
+    public TransferProfile setConnectionRequestTimeoutMs(
+            int connectionRequestTimeoutMs) {
+        this.connectionRequestTimeoutMs = connectionRequestTimeoutMs;
+        return this;
+    }
+
+    public int getSocketTimeoutMs() {
+        return socketTimeoutMs;
+    }
+
+    public TransferProfile setSocketTimeoutMs(int socketTimeoutMs) {
+        this.socketTimeoutMs = socketTimeoutMs;
+        return this;
+    }
+
+    public long getMaxIdleTimeMs() {
+        return maxIdleTimeMs;
+    }
+
+    /**
+     * @param maxIdleTimeMs the time after which an idle pooled connection is
+     *        closed, or 0 to keep idle connections
+     */
+    public TransferProfile setMaxIdleTimeMs(long maxIdleTimeMs) {
+        this.maxIdleTimeMs = maxIdleTimeMs;
+        return this;
+    }
+
+    public int getValidateAfterInactivityMs() {
+        return validateAfterInactivityMs;
+    }
+
+    /**
+     * @param validateAfterInactivityMs the idle time after which a pooled
+     *        connection is checked for staleness before it is reused
+     */
+    public TransferProfile setValidateAfterInactivityMs(
+            int validateAfterInactivityMs) {
+        this.validateAfterInactivityMs = validateAfterInactivityMs;
+        return this;
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public TransferProfile setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+        return this;
+    }
+
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    public TransferProfile setSendBufferSize(int sendBufferSize) {
+        this.sendBufferSize = sendBufferSize;
+        return this;
+    }
+
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    public TransferProfile setReceiveBufferSize(int receiveBufferSize) {
+        this.receiveBufferSize = receiveBufferSize;
+        return this;
+    }
+
+    public int getIoBufferSize() {
+        return ioBufferSize;
+    }
+
+    /**
+     * @param ioBufferSize the size of the buffer between the HTTP connection
+     *        and the socket
+     */
+    public TransferProfile setIoBufferSize(int ioBufferSize) {
+        this.ioBufferSize = ioBufferSize;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return name + " [maxTotal=" + maxTotal + ", maxPerRoute=" + maxPerRoute
+               + ", socketTimeoutMs=" + socketTimeoutMs + ", maxIdleTimeMs="
+               + maxIdleTimeMs + ", tcpNoDelay=" + tcpNoDelay
+               + ", sendBufferSize=" + sendBufferSize + ", receiveBufferSize="
+               + receiveBufferSize + "]";
+    }
+}
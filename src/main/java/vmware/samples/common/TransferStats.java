@@ -0,0 +1,265 @@
+/*
+ * *******************************************************
+ * Copyright VMware, Inc. 2021.  All Rights Reserved.
+ * SPDX-License-Identifier: MIT
+ * *******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package vmware.samples.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of a single file transfer: the bytes moved so far, the time to the
+ * first byte, the number of retries and the throughput and ETA derived from
+ * them. Instances are created by {@link TransferMetrics#start} and updated by
+ * the thread doing the transfer; the getters may be called from any thread.
+ */
+public class TransferStats {
+
+    // minimum time between two progress events of the same transfer
+    private static final long PROGRESS_INTERVAL_NANOS =
+            TimeUnit.SECONDS.toNanos(1);
+
+    private final String name;
+    private final String host;
+    private final long totalBytes;
+    private final TransferListener listener;
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong bytes = new AtomicLong();
+    private volatile long resumedBytes;
+    private final AtomicLong firstByteNanos = new AtomicLong();
+    private final AtomicLong lastProgressNanos = new AtomicLong(startNanos);
+    private final AtomicInteger retries = new AtomicInteger();
+    private final AtomicBoolean done = new AtomicBoolean();
+    private volatile long endNanos;
+    private volatile boolean failed;
+
+    TransferStats(String name, String host, long totalBytes,
+            TransferListener listener) {
+        this.name = name;
+        this.host = host;
+        this.totalBytes = totalBytes;
+        this.listener = listener;
+    }
+
+    /**
+     * Records that {@code count} more bytes were sent or received. The first
+     * call marks the time to first byte.
+     *
+     * @param count the number of bytes moved
+     */
+    public void addBytes(long count) {
+        if (count <= 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        firstByteNanos.compareAndSet(0, now);
+        bytes.addAndGet(count);
+        notifyProgress(now);
+    }
+
+    /**
+     * Sets the number of bytes moved so far, for transfers whose progress is
+     * reported by the server.
+     *
+     * @param count the number of bytes moved
+     */
+    public void setBytes(long count) {
+        bytes.set(count);
+        notifyProgress(System.nanoTime());
+    }
+
+    /**
+     * Records that the transfer resumes at {@code offset}: the bytes before
+     * it were moved by an earlier transfer, so they count toward the
+     * progress but not toward the bytes moved and the throughput.
+     *
+     * @param offset the number of bytes already there
+     */
+    public void setResumedBytes(long offset) {
+        this.resumedBytes = offset;
+    }
+
+    /**
+     * Takes back bytes which have to be sent again, such as the bytes of a
+     * request which is retried from its beginning.
+     */
+    void rewind(long count) {
+        bytes.addAndGet(-count);
+    }
+
+    /**
+     * Records that a failed request of the transfer is sent again.
+     *
+     * @param cause the error of the failed request, or null if unknown
+     */
+    public void retried(Throwable cause) {
+        retries.incrementAndGet();
+        listener.transferRetried(this, cause);
+    }
+
+    /**
+     * Marks the transfer as completed. Only the first call to this method or
+     * to {@link #failed} has an effect.
+     */
+    public void completed() {
+        if (done.compareAndSet(false, true)) {
+            endNanos = System.nanoTime();
+            listener.transferCompleted(this);
+        }
+    }
+
+    /**
+     * Marks the transfer as failed. Only the first call to this method or
+     * to {@link #completed} has an effect.
+     *
+     * @param cause the error which ended the transfer
+     */
+    public void failed(Throwable cause) {
+        if (done.compareAndSet(false, true)) {
+            endNanos = System.nanoTime();
+            failed = true;
+            listener.transferFailed(this, cause);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the host the data is sent to or received from.
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Returns the size of the transfer in bytes, or -1 if it is unknown.
+     */
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * Returns the bytes moved by this transfer, without the bytes it resumed
+     * after.
+     */
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Returns the bytes moved by an earlier transfer which this one resumed
+     * after.
+     */
+    public long getResumedBytes() {
+        return resumedBytes;
+    }
+
+    public int getRetryCount() {
+        return retries.get();
+    }
+
+    public boolean isDone() {
+        return done.get();
+    }
+
+    public boolean isFailed() {
+        return failed;
+    }
+
+    public long getElapsedMillis() {
+        long end = done.get() ? endNanos : System.nanoTime();
+        return TimeUnit.NANOSECONDS.toMillis(end - startNanos);
+    }
+
+    /**
+     * Returns the time from the start of the transfer to its first byte, or
+     * -1 if no byte was moved yet.
+     */
+    public long getTimeToFirstByteMillis() {
+        long first = firstByteNanos.get();
+        return first == 0 ? -1
+                : TimeUnit.NANOSECONDS.toMillis(first - startNanos);
+    }
+
+    /**
+     * Returns the average throughput since the start of the transfer.
+     */
+    public double getBytesPerSecond() {
+        long elapsedMillis = getElapsedMillis();
+        return elapsedMillis <= 0 ? 0 : getBytes() * 1000.0 / elapsedMillis;
+    }
+
+    /**
+     * Returns the estimated time to the end of the transfer at the average
+     * throughput so far, or -1 if it cannot be estimated.
+     */
+    public long getEtaMillis() {
+        if (done.get()) {
+            return 0;
+        }
+        double rate = getBytesPerSecond();
+        if (totalBytes < 0 || rate <= 0) {
+            return -1;
+        }
+        return (long) (Math.max(totalBytes - resumedBytes - getBytes(), 0)
+                * 1000 / rate);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(name).append(" : ")
+                .append(formatBytes(getBytes()));
+        if (totalBytes >= 0) {
+            sb.append(" of ").append(formatBytes(totalBytes));
+        }
+        sb.append(" at ").append(formatBytes((long) getBytesPerSecond()))
+          .append("/s");
+        if (resumedBytes > 0) {
+            sb.append(", resumed at ").append(formatBytes(resumedBytes));
+        }
+        long ttfb = getTimeToFirstByteMillis();
+        if (ttfb >= 0) {
+            sb.append(", TTFB ").append(ttfb).append(" ms");
+        }
+        if (getRetryCount() > 0) {
+            sb.append(", ").append(getRetryCount()).append(" retries");
+        }
+        if (done.get()) {
+            sb.append(failed ? ", failed" : ", done").append(" in ")
+              .append(getElapsedMillis()).append(" ms");
+        } else if (getEtaMillis() >= 0) {
+            sb.append(", ETA ").append(getEtaMillis() / 1000).append(" s");
+        }
+        return sb.toString();
+    }
+
+    static String formatBytes(long count) {
+        if (count < 1024) {
+            return count + " B";
+        }
+        int exp = (int) (Math.log(count) / Math.log(1024));
+        return String.format("%.1f %sB", count / Math.pow(1024, exp),
+                "KMGTPE".charAt(exp - 1));
+    }
+
+    private void notifyProgress(long now) {
+        long last = lastProgressNanos.get();
+        if (now - last >= PROGRESS_INTERVAL_NANOS
+            && lastProgressNanos.compareAndSet(last, now)) {
+            listener.transferProgress(this);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * *******************************************************
+ * Copyright VMware, Inc. 2021.  All Rights Reserved.
+ * SPDX-License-Identifier: MIT
+ * *******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package vmware.samples.common;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.InputStreamEntity;
+
+/**
+ * Description: Compares the throughput and heap allocation of the stream
+ * based upload entity (a {@link BufferedInputStream} over a
+ * {@link FileInputStream}) with the {@link FileChannelEntity} used by
+ * {@link HttpClient#upload}. Both entities are written to a discarding sink
+ * so that only the cost of reading and handing over the file is measured.
+ *
+ * Usage: UploadEntityBenchmark [FILE] [ITERATIONS]
+ * When no file is given a 1 GB sparse temp file is used.
+ */
+public class UploadEntityBenchmark {
+
+    private static final long DEFAULT_FILE_SIZE = 1024L * 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        File file;
+        if (args.length > 0) {
+            file = new File(args[0]);
+        } else {
+            file = File.createTempFile("upload-benchmark", ".bin");
+            file.deleteOnExit();
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(DEFAULT_FILE_SIZE);
+            }
+        }
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        System.out.println("File : " + file + " (" + file.length()
+                + " bytes), iterations : " + iterations);
+        // warm up both paths before measuring
+        run("stream (warm-up)", file, false, 1);
+        run("channel (warm-up)", file, true, 1);
+        run("stream", file, false, iterations);
+        run("channel", file, true, iterations);
+    }
+
+    private static void run(String name, File file, boolean channel,
+            int iterations) throws IOException {
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory
+                        .getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long bytes = 0;
+        long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            HttpEntity entity;
+            if (channel) {
+                entity = new FileChannelEntity(file);
+            } else {
+                entity = new InputStreamEntity(new BufferedInputStream(
+                        new FileInputStream(file)), file.length());
+            }
+            CountingSink sink = new CountingSink();
+            entity.writeTo(sink);
+            bytes += sink.count;
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        long allocated =
+                threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        double seconds = elapsedNanos / 1e9;
+        System.out.println(String.format(
+                "%-18s : %8.1f MB/s, %10d bytes allocated (%.1f KB/s)", name,
+                bytes / seconds / (1024 * 1024), allocated,
+                allocated / seconds / 1024));
+    }
+
+    /**
+     * Output stream which discards everything written to it.
+     */
+    private static class CountingSink extends OutputStream {
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
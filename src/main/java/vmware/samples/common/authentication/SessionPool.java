@@ -0,0 +1,255 @@
+/*
+ * *******************************************************
+ * Copyright VMware, Inc. 2021.  All Rights Reserved.
+ * SPDX-License-Identifier: MIT
+ * *******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package vmware.samples.common.authentication;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.vmware.vapi.bindings.StubConfiguration;
+import com.vmware.vapi.bindings.StubFactory;
+import com.vmware.vapi.protocol.HttpConfiguration;
+import com.vmware.vim25.ServiceContent;
+import com.vmware.vim25.VimPortType;
+
+/**
+ * Pool of authenticated sessions, one per server and user. The first
+ * caller for a server and user logs in to vAPI and VIM; the callers after
+ * it, concurrent or not, get the same session without logging in again.
+ *
+ * <p>A background thread touches every session periodically so that it
+ * does not reach the idle timeout of the server, and logs in again if a
+ * session expired anyway. The new session replaces the old one inside the
+ * same {@link StubConfiguration} and VIM port, so the stubs handed out keep
+ * working.</p>
+ *
+ * <pre>
+ * try (SessionPool pool = new SessionPool(httpConfig)) {
+ *     SessionPool.PooledSession session =
+ *             pool.acquire(server, username, password);
+ *     VM vmService = session.getStubFactory().createStub(
+ *         VM.class, session.getStubConfig());
+ * }
+ * </pre>
+ */
+public class SessionPool implements AutoCloseable {
+
+    /**
+     * Default interval between two refreshes of a session. vCenter expires
+     * idle sessions after 30 minutes by default.
+     */
+    public static final long DEFAULT_REFRESH_MINUTES = 10;
+
+    private final HttpConfiguration httpConfig;
+    private final ConcurrentMap<String, PooledSession> sessions =
+            new ConcurrentHashMap<>();
+    private final ScheduledExecutorService refresher;
+
+    /**
+     * Creates a pool refreshing the sessions at the default interval.
+     *
+     * @param httpConfig HTTP configuration settings to be applied for the
+     *        connections to the servers
+     */
+    public SessionPool(HttpConfiguration httpConfig) {
+        this(httpConfig, DEFAULT_REFRESH_MINUTES, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Creates a pool.
+     *
+     * @param httpConfig HTTP configuration settings to be applied for the
+     *        connections to the servers
+     * @param refreshInterval interval between two refreshes of a session,
+     *        shorter than the idle timeout of the server
+     * @param unit unit of the interval
+     */
+    public SessionPool(HttpConfiguration httpConfig, long refreshInterval,
+                       TimeUnit unit) {
+        this.httpConfig = httpConfig;
+        this.refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "session-pool-refresher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.refresher.scheduleWithFixedDelay(this::refreshAll,
+            refreshInterval, refreshInterval, unit);
+    }
+
+    /**
+     * Returns the session of the user on the server, logging in if the pool
+     * has none yet. Concurrent callers for the same server and user wait for
+     * a single login.
+     *
+     * @param server hostname or ip address of the server
+     * @param username username for login
+     * @param password password for login
+     * @return the session, shared with the other callers
+     * @throws Exception if the vAPI or the VIM login fails; the next caller
+     *         logs in again
+     */
+    public PooledSession acquire(String server, String username,
+                                 String password) throws Exception {
+        String key = server + "/" + username;
+        PooledSession session = sessions.computeIfAbsent(key,
+            k -> new PooledSession(server, username, password));
+        if (!session.password.equals(password)) {
+            throw new IllegalArgumentException(
+                "Session of " + username + " on " + server
+                + " exists with another password");
+        }
+        try {
+            session.login(httpConfig);
+        } catch (Exception e) {
+            // not kept, so that a later caller can log in with another password
+            sessions.remove(key, session);
+            throw e;
+        }
+        return session;
+    }
+
+    /**
+     * Stops refreshing the sessions and logs out of all of them.
+     */
+    @Override
+    public void close() {
+        refresher.shutdownNow();
+        for (PooledSession session : sessions.values()) {
+            session.logout();
+        }
+        sessions.clear();
+    }
+
+    private void refreshAll() {
+        for (PooledSession session : sessions.values()) {
+            try {
+                session.refresh();
+            } catch (RuntimeException e) {
+                // retried at the next refresh
+                System.out.println("Failed to refresh the session of "
+                    + session.username + " on " + session.server + ": "
+                    + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Authenticated vAPI and VIM sessions of a user on a server. It is
+     * safe to use from many threads.
+     */
+    public static class PooledSession {
+        private final String server;
+        private final String username;
+        private final String password;
+        private VapiAuthenticationHelper vapiAuthHelper;
+        private VimAuthenticationHelper vimAuthHelper;
+        private StubConfiguration stubConfig;
+
+        private PooledSession(String server, String username,
+                              String password) {
+            this.server = server;
+            this.username = username;
+            this.password = password;
+        }
+
+        private synchronized void login(HttpConfiguration httpConfig)
+                throws Exception {
+            if (this.stubConfig != null) {
+                return;
+            }
+            VapiAuthenticationHelper vapi = new VapiAuthenticationHelper();
+            VimAuthenticationHelper vim = new VimAuthenticationHelper();
+            StubConfiguration config = vapi.loginByUsernameAndPassword(
+                server, username, password, httpConfig);
+            if (!vim.loginByUsernameAndPassword(server, username, password)) {
+                vapi.logout();
+                throw new RuntimeException("VIM login of " + username
+                    + " on " + server + " failed");
+            }
+            this.vapiAuthHelper = vapi;
+            this.vimAuthHelper = vim;
+            this.stubConfig = config;
+        }
+
+        private synchronized void refresh() {
+            if (this.stubConfig == null) {
+                return;
+            }
+            if (!vapiAuthHelper.keepAlive()) {
+                System.out.println("vAPI session of " + username + " on "
+                    + server + " expired, logging in again");
+                vapiAuthHelper.renewByUsernameAndPassword(
+                    stubConfig, username, password);
+            }
+            if (!vimAuthHelper.keepAlive()) {
+                System.out.println("VIM session of " + username + " on "
+                    + server + " expired, logging in again");
+                vimAuthHelper.renewByUsernameAndPassword(username, password);
+            }
+        }
+
+        private synchronized void logout() {
+            if (this.stubConfig == null) {
+                return;
+            }
+            vapiAuthHelper.logout();
+            vimAuthHelper.logout();
+            this.stubConfig = null;
+        }
+
+        /**
+         * Returns the stub configuration of the vAPI session.
+         */
+        public synchronized StubConfiguration getStubConfig() {
+            return this.stubConfig;
+        }
+
+        /**
+         * Returns the stub factory, whose connection pool all users of the
+         * session share.
+         */
+        public synchronized StubFactory getStubFactory() {
+            return this.vapiAuthHelper.getStubFactory();
+        }
+
+        /**
+         * Returns the helper holding the vAPI session.
+         */
+        public synchronized VapiAuthenticationHelper getVapiAuthHelper() {
+            return this.vapiAuthHelper;
+        }
+
+        /**
+         * Returns the helper holding the VIM session.
+         */
+        public synchronized VimAuthenticationHelper getVimAuthHelper() {
+            return this.vimAuthHelper;
+        }
+
+        /**
+         * Returns the VIM port of the session.
+         */
+        public synchronized VimPortType getVimPort() {
+            return this.vimAuthHelper.getVimPort();
+        }
+
+        /**
+         * Returns the service content of the VIM session.
+         */
+        public synchronized ServiceContent getServiceContent() {
+            return this.vimAuthHelper.getServiceContent();
+        }
+    }
+}
@@ -24,6 +24,7 @@ import com.vmware.vapi.protocol.ProtocolConnection;
 import com.vmware.vapi.protocol.HttpConfiguration.SslConfiguration;
 import com.vmware.vapi.saml.SamlToken;
 import com.vmware.vapi.security.SessionSecurityContext;
+import com.vmware.vapi.std.errors.Unauthenticated;
 
 /**
  * Helper class which provides methods for
@@ -143,6 +144,47 @@ public class VapiAuthenticationHelper {
     }
 
 
+    /**
+     * Creates a new session using username and password on the existing
+     * stub factory, and switches the stub configuration to it. The stubs
+     * created with the stub configuration keep working with the new session.
+     *
+     * @param stubConfig the stub configuration returned by the login
+     * @param username username for login
+     * @param password password for login
+     */
+    public void renewByUsernameAndPassword(StubConfiguration stubConfig,
+        String username, String password) {
+        SecurityContext securityContext =
+                SecurityContextFactory.createUserPassSecurityContext(
+                    username, password.toCharArray());
+        Session session = this.stubFactory.createStub(Session.class,
+            new StubConfiguration(securityContext));
+        char[] sessionId = session.create();
+        StubConfiguration sessionConfig = new StubConfiguration(
+            new SessionSecurityContext(sessionId));
+        this.sessionSvc =
+                this.stubFactory.createStub(Session.class, sessionConfig);
+        stubConfig.setSecurityContext(sessionConfig.getSecurityContext());
+    }
+
+    /**
+     * Touches the current session, which restarts its idle timeout.
+     *
+     * @return false if the session expired
+     */
+    public boolean keepAlive() {
+        if (this.sessionSvc == null) {
+            return false;
+        }
+        try {
+            this.sessionSvc.get();
+            return true;
+        } catch (Unauthenticated e) {
+            return false;
+        }
+    }
+
     /**
      * Logs out of the current session.
      */
@@ -223,6 +265,48 @@ public class VapiAuthenticationHelper {
       return httpConfig;
   }
 
+	/**
+	 * Builds an http configuration using the non-blocking transport. The
+	 * asynchronous overloads of the stub methods then return immediately and
+	 * the I/O threads run the callbacks, see
+	 * {@link vmware.samples.common.AsyncInvoker}. The blocking methods of the
+	 * stubs still work on top of it.
+	 *
+	 * @param skipServerVerification whether to skip the server certificate
+	 *        verification
+	 * @param ioThreadCount the number of I/O threads
+	 * @param maxConnections the maximum number of connections to the server
+	 * @return the http configuration
+	 * @throws Exception the exception
+	 */
+	public HttpConfiguration buildAsyncHttpConfiguration(
+			boolean skipServerVerification, int ioThreadCount,
+			int maxConnections) throws Exception {
+      return buildAsyncHttpConfiguration(
+          buildSslConfiguration(skipServerVerification), ioThreadCount,
+          maxConnections);
+  }
+
+	/**
+	 * Builds an http configuration using the non-blocking transport and the
+	 * given ssl configuration, such as the one of a sample.
+	 *
+	 * @param sslConfig the ssl configuration
+	 * @param ioThreadCount the number of I/O threads
+	 * @param maxConnections the maximum number of connections to the server
+	 * @return the http configuration
+	 */
+	public static HttpConfiguration buildAsyncHttpConfiguration(
+			SslConfiguration sslConfig, int ioThreadCount,
+			int maxConnections) {
+      return new HttpConfiguration.Builder()
+          .setSslConfiguration(sslConfig)
+          .setLibraryType(HttpConfiguration.LibType.APACHE_HTTP_ASYNC_CLIENT)
+          .setIoThreadCount(ioThreadCount)
+          .setMaxConnections(maxConnections)
+          .getConfig();
+  }
+
   /**
    * Builds the ssl configuration.
    *
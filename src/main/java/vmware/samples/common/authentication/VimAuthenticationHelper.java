@@ -12,18 +12,26 @@
  */
 package vmware.samples.common.authentication;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import javax.xml.ws.BindingProvider;
 
+import com.vmware.vim25.DynamicProperty;
 import com.vmware.vim25.InvalidLocaleFaultMsg;
 import com.vmware.vim25.InvalidLoginFaultMsg;
+import com.vmware.vim25.InvalidPropertyFaultMsg;
 import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.NotAuthenticated;
 import com.vmware.vim25.RuntimeFaultFaultMsg;
 import com.vmware.vim25.ServiceContent;
 import com.vmware.vim25.VimPortType;
 import com.vmware.vim25.VimService;
 
+import vmware.samples.common.vim.helpers.PropertyWatcher;
+import vmware.samples.common.vim.helpers.VimUtil;
+
 /**
  * Vim api helper class which provides methods for login/logout using
  * username, password authentication.
@@ -40,6 +48,7 @@ public class VimAuthenticationHelper {
     private VimService vimService;
     private VimPortType vimPort;
     private ServiceContent serviceContent;
+    private PropertyWatcher propertyWatcher;
 
     private static ManagedObjectReference SVC_INST_REF =
             new ManagedObjectReference();
@@ -59,9 +68,11 @@ public class VimAuthenticationHelper {
      * @param server hostname or ip address of the server to log in to
      * @param username username for login
      * @param password password for login
+     * @return false if the login failed
      */
-    public void loginByUsernameAndPassword(
+    public boolean loginByUsernameAndPassword(
         String server, String username, String password) {
+        closePropertyWatcher();
         try {
             String vimSdkUrl = "https://" + server + VIM_PATH;
 
@@ -91,9 +102,54 @@ public class VimAuthenticationHelper {
 
             this.vimPort.login(
                 serviceContent.getSessionManager(), username, password, null);
+            return true;
 
         } catch (InvalidLocaleFaultMsg | InvalidLoginFaultMsg | RuntimeFaultFaultMsg e) {
             e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Creates a new session on the existing port, after the current one
+     * expired. The port keeps the new session cookie.
+     *
+     * @param username username for login
+     * @param password password for login
+     */
+    public void renewByUsernameAndPassword(String username, String password) {
+        try {
+            this.vimPort.login(
+                serviceContent.getSessionManager(), username, password, null);
+        } catch (InvalidLocaleFaultMsg | InvalidLoginFaultMsg
+                | RuntimeFaultFaultMsg e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Touches the current session, which restarts its idle timeout.
+     *
+     * @return false if the session expired
+     * @throws RuntimeException if the server could not be reached, which
+     *         says nothing about the session
+     */
+    public boolean keepAlive() {
+        if (this.vimPort == null) {
+            return false;
+        }
+        try {
+            List<DynamicProperty> props = VimUtil.getProperties(vimPort,
+                serviceContent, serviceContent.getSessionManager(),
+                "SessionManager", Collections.singletonList("currentSession"));
+            return !props.isEmpty() && props.get(0).getVal() != null;
+        } catch (RuntimeFaultFaultMsg e) {
+            if (e.getFaultInfo() instanceof NotAuthenticated) {
+                return false;
+            }
+            throw new RuntimeException(e);
+        } catch (InvalidPropertyFaultMsg e) {
+            throw new RuntimeException(e);
         }
     }
 
@@ -101,6 +157,7 @@ public class VimAuthenticationHelper {
      * Logs out of the current session.
      */
     public void logout() {
+        closePropertyWatcher();
         try {
             this.vimPort.logout(serviceContent.getSessionManager());
         } catch (Exception e) {
@@ -120,4 +177,22 @@ public class VimAuthenticationHelper {
     public ServiceContent getServiceContent() {
         return this.serviceContent;
     }
+
+    /**
+     * Returns the property watcher of the session, which the waits on the
+     * session share. It is closed on logout.
+     */
+    public synchronized PropertyWatcher getPropertyWatcher() {
+        if (this.propertyWatcher == null) {
+            this.propertyWatcher = new PropertyWatcher(vimPort, serviceContent);
+        }
+        return this.propertyWatcher;
+    }
+
+    private synchronized void closePropertyWatcher() {
+        if (this.propertyWatcher != null) {
+            this.propertyWatcher.close();
+            this.propertyWatcher = null;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,398 @@
+/*
+ * *******************************************************
+ * Copyright VMware, Inc. 2021.  All Rights Reserved.
+ * SPDX-License-Identifier: MIT
+ * *******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package vmware.samples.common.vim.helpers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.vmware.vim25.InvalidCollectorVersionFaultMsg;
+import com.vmware.vim25.InvalidPropertyFaultMsg;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.ObjectUpdateKind;
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.PropertyChangeOp;
+import com.vmware.vim25.PropertyFilterUpdate;
+import com.vmware.vim25.RuntimeFaultFaultMsg;
+import com.vmware.vim25.ServiceContent;
+import com.vmware.vim25.UpdateSet;
+import com.vmware.vim25.VimPortType;
+import com.vmware.vim25.WaitOptions;
+
+/**
+ * Client side index of the inventory, resolving names to managed object
+ * references without a call to the server. It holds the name and parent of
+ * every entity of the indexed types, loaded once and then kept current by a
+ * background thread waiting for the changes of the inventory:
+ *
+ * <pre>
+ * InventoryIndex index = new InventoryIndex(vimPort, serviceContent);
+ * index.start();
+ * ManagedObjectReference vm = index.find("VirtualMachine", "my-vm");
+ * ...
+ * index.close();
+ * </pre>
+ *
+ * <p>The vAPI identifiers of the vcenter services are the values of the
+ * managed object references, see {@link #findId}.</p>
+ */
+public class InventoryIndex implements AutoCloseable {
+
+    /**
+     * Types indexed when none are given.
+     */
+    public static final List<String> DEFAULT_TYPES = Collections
+            .unmodifiableList(Arrays.asList("Datacenter", "Folder",
+                    "ClusterComputeResource", "ComputeResource", "HostSystem",
+                    "ResourcePool", "VirtualApp", "VirtualMachine",
+                    "Datastore", "Network"));
+
+    // seconds a single wait for updates may block on the server
+    private static final int MAX_WAIT_SECONDS = 60;
+    // updates per page while loading the inventory
+    private static final int MAX_OBJECT_UPDATES = 1000;
+    // delay before waiting again after an error
+    private static final long RETRY_DELAY_MILLIS = 5000;
+
+    private final VimPortType vimPort;
+    private final ServiceContent serviceContent;
+    private final List<String> types;
+
+    // moRef value -> entry, and type -> name -> entities
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final Map<String, Map<String, List<ManagedObjectReference>>>
+            byName = new HashMap<>();
+
+    private ManagedObjectReference collector;
+    private ManagedObjectReference view;
+    private Thread updater;
+    private volatile boolean closed;
+    private String version = "";
+
+    /**
+     * Creates an index of the default types.
+     *
+     * @param vimPort
+     * @param serviceContent
+     */
+    public InventoryIndex(VimPortType vimPort,
+            ServiceContent serviceContent) {
+        this(vimPort, serviceContent, DEFAULT_TYPES);
+    }
+
+    /**
+     * Creates an index of the given types.
+     *
+     * @param vimPort
+     * @param serviceContent
+     * @param types
+     *            types of the managed entities to index
+     */
+    public InventoryIndex(VimPortType vimPort, ServiceContent serviceContent,
+            List<String> types) {
+        this.vimPort = vimPort;
+        this.serviceContent = serviceContent;
+        this.types = new ArrayList<>(types);
+    }
+
+    /**
+     * Loads the inventory and starts following its changes. Returns when the
+     * index is complete.
+     *
+     * @throws RuntimeFaultFaultMsg
+     * @throws InvalidPropertyFaultMsg
+     * @throws InvalidCollectorVersionFaultMsg
+     */
+    public void start() throws RuntimeFaultFaultMsg, InvalidPropertyFaultMsg,
+            InvalidCollectorVersionFaultMsg {
+        /*
+         * A property collector of its own, so that waiting for updates does
+         * not take the updates of the filters of other callers.
+         */
+        collector = vimPort.createPropertyCollector(
+                serviceContent.getPropertyCollector());
+        view = VimUtil.createContainerView(vimPort, serviceContent, null,
+                types);
+        vimPort.createFilter(collector, VimUtil.containerViewFilterSpec(view,
+                types, Arrays.asList("name", "parent")), true);
+
+        /*
+         * The first wait of a new filter returns the whole inventory, in
+         * pages while it is truncated.
+         */
+        WaitOptions options = new WaitOptions();
+        options.setMaxWaitSeconds(0);
+        options.setMaxObjectUpdates(MAX_OBJECT_UPDATES);
+        UpdateSet updateSet;
+        do {
+            updateSet = vimPort.waitForUpdatesEx(collector, version, options);
+            if (updateSet == null) {
+                break;
+            }
+            apply(updateSet);
+        } while (Boolean.TRUE.equals(updateSet.isTruncated()));
+
+        updater = new Thread(this::followUpdates, "inventory-index");
+        updater.setDaemon(true);
+        updater.start();
+    }
+
+    /**
+     * Returns an entity of the type with the name.
+     *
+     * @param type
+     *            type of the entity, such as VirtualMachine
+     * @param name
+     *            name of the entity
+     * @return the entity, or null if none has the name
+     */
+    public synchronized ManagedObjectReference find(String type,
+            String name) {
+        List<ManagedObjectReference> found = findAll(type, name);
+        return found.isEmpty() ? null : found.get(0);
+    }
+
+    /**
+     * Returns all the entities of the type with the name. Names are only
+     * unique within a folder.
+     *
+     * @param type
+     *            type of the entity, such as VirtualMachine
+     * @param name
+     *            name of the entities
+     * @return the entities, empty if none has the name
+     */
+    public synchronized List<ManagedObjectReference> findAll(String type,
+            String name) {
+        Map<String, List<ManagedObjectReference>> names = byName.get(type);
+        List<ManagedObjectReference> found = names == null ? null
+                : names.get(name);
+        return found == null ? Collections.<ManagedObjectReference>emptyList()
+                : new ArrayList<>(found);
+    }
+
+    /**
+     * Returns the vAPI identifier of an entity of the type with the name.
+     *
+     * @param type
+     *            type of the entity, such as VirtualMachine
+     * @param name
+     *            name of the entity
+     * @return the identifier, such as vm-42, or null if none has the name
+     */
+    public String findId(String type, String name) {
+        ManagedObjectReference moRef = find(type, name);
+        return moRef == null ? null : moRef.getValue();
+    }
+
+    /**
+     * Returns the name of an entity.
+     *
+     * @param moRef
+     *            the entity
+     * @return the name, or null if the entity is not indexed
+     */
+    public synchronized String getName(ManagedObjectReference moRef) {
+        Entry entry = entries.get(moRef.getValue());
+        return entry == null ? null : entry.name;
+    }
+
+    /**
+     * Returns the parent of an entity.
+     *
+     * @param moRef
+     *            the entity
+     * @return the parent, or null if the entity has none or is not indexed
+     */
+    public synchronized ManagedObjectReference getParent(
+            ManagedObjectReference moRef) {
+        Entry entry = entries.get(moRef.getValue());
+        return entry == null ? null : entry.parent;
+    }
+
+    /**
+     * Returns the entities of the type with the name below the given
+     * ancestor, such as the VMs of a datacenter.
+     *
+     * @param ancestor
+     *            the entity to search below
+     * @param type
+     *            type of the entity, such as VirtualMachine
+     * @param name
+     *            name of the entities
+     * @return the entities, empty if none has the name
+     */
+    public synchronized List<ManagedObjectReference> findAll(
+            ManagedObjectReference ancestor, String type, String name) {
+        List<ManagedObjectReference> found = new ArrayList<>();
+        for (ManagedObjectReference moRef : findAll(type, name)) {
+            Entry entry = entries.get(moRef.getValue());
+            // the depth bounds the walk should the parents form a cycle
+            for (int depth = 0; entry != null && depth < entries.size();
+                    depth++) {
+                if (entry.parent == null) {
+                    break;
+                }
+                if (entry.parent.getValue().equals(ancestor.getValue())) {
+                    found.add(moRef);
+                    break;
+                }
+                entry = entries.get(entry.parent.getValue());
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the number of indexed entities.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Stops following the changes of the inventory and frees the objects of
+     * the index on the server.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            if (collector != null) {
+                vimPort.cancelWaitForUpdates(collector);
+            }
+            if (updater != null) {
+                updater.join(RETRY_DELAY_MILLIS);
+            }
+            if (collector != null) {
+                vimPort.destroyPropertyCollector(collector);
+            }
+            if (view != null) {
+                vimPort.destroyView(view);
+            }
+        } catch (RuntimeFaultFaultMsg e) {
+            throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void followUpdates() {
+        WaitOptions options = new WaitOptions();
+        options.setMaxWaitSeconds(MAX_WAIT_SECONDS);
+        while (!closed) {
+            try {
+                UpdateSet updateSet = vimPort.waitForUpdatesEx(collector,
+                        version, options);
+                // null when nothing changed during the wait
+                if (updateSet != null) {
+                    apply(updateSet);
+                }
+            } catch (InvalidCollectorVersionFaultMsg e) {
+                // the next wait returns the whole inventory again
+                synchronized (this) {
+                    version = "";
+                }
+            } catch (Exception e) {
+                if (closed) {
+                    return;
+                }
+                System.out.println("Failed to update the inventory index: "
+                        + e.getMessage());
+                try {
+                    Thread.sleep(RETRY_DELAY_MILLIS);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private synchronized void apply(UpdateSet updateSet) {
+        if (version.isEmpty()) {
+            // a complete inventory follows
+            entries.clear();
+            byName.clear();
+        }
+        version = updateSet.getVersion();
+        if (updateSet.getFilterSet() == null) {
+            return;
+        }
+        for (PropertyFilterUpdate filterUpdate : updateSet.getFilterSet()) {
+            for (ObjectUpdate objectUpdate : filterUpdate.getObjectSet()) {
+                ManagedObjectReference moRef = objectUpdate.getObj();
+                if (objectUpdate.getKind() == ObjectUpdateKind.LEAVE) {
+                    remove(moRef);
+                    continue;
+                }
+                Entry entry = entries.get(moRef.getValue());
+                String name = entry == null ? null : entry.name;
+                ManagedObjectReference parent = entry == null ? null
+                        : entry.parent;
+                for (PropertyChange change : objectUpdate.getChangeSet()) {
+                    Object val = change.getOp() == PropertyChangeOp.REMOVE
+                            ? null : change.getVal();
+                    if ("name".equals(change.getName())) {
+                        name = (String) val;
+                    } else if ("parent".equals(change.getName())) {
+                        parent = (ManagedObjectReference) val;
+                    }
+                }
+                remove(moRef);
+                put(new Entry(moRef, name, parent));
+            }
+        }
+    }
+
+    private void put(Entry entry) {
+        entries.put(entry.moRef.getValue(), entry);
+        if (entry.name != null) {
+            byName.computeIfAbsent(entry.moRef.getType(),
+                    type -> new HashMap<>())
+                .computeIfAbsent(entry.name, name -> new ArrayList<>(1))
+                .add(entry.moRef);
+        }
+    }
+
+    private void remove(ManagedObjectReference moRef) {
+        Entry entry = entries.remove(moRef.getValue());
+        if (entry == null || entry.name == null) {
+            return;
+        }
+        Map<String, List<ManagedObjectReference>> names =
+                byName.get(moRef.getType());
+        List<ManagedObjectReference> found = names.get(entry.name);
+        found.removeIf(m -> m.getValue().equals(moRef.getValue()));
+        if (found.isEmpty()) {
+            names.remove(entry.name);
+        }
+    }
+
+    private static class Entry {
+        private final ManagedObjectReference moRef;
+        private final String name;
+        private final ManagedObjectReference parent;
+
+        private Entry(ManagedObjectReference moRef, String name,
+                ManagedObjectReference parent) {
+            this.moRef = moRef;
+            this.name = name;
+            this.parent = parent;
+        }
+    }
+}
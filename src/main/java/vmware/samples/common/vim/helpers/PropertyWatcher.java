@@ -0,0 +1,662 @@
+/*
+ * *******************************************************
+ * Copyright VMware, Inc. 2021.  All Rights Reserved.
+ * SPDX-License-Identifier: MIT
+ * *******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package vmware.samples.common.vim.helpers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+
+import javax.xml.ws.WebServiceException;
+
+import com.vmware.vim25.InvalidCollectorVersionFaultMsg;
+import com.vmware.vim25.InvalidPropertyFaultMsg;
+import com.vmware.vim25.ManagedObjectNotFound;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.NotAuthenticated;
+import com.vmware.vim25.ObjectSpec;
+import com.vmware.vim25.ObjectUpdate;
+import com.vmware.vim25.PropertyChange;
+import com.vmware.vim25.PropertyChangeOp;
+import com.vmware.vim25.PropertyFilterSpec;
+import com.vmware.vim25.PropertyFilterUpdate;
+import com.vmware.vim25.PropertySpec;
+import com.vmware.vim25.RuntimeFault;
+import com.vmware.vim25.RuntimeFaultFaultMsg;
+import com.vmware.vim25.ServiceContent;
+import com.vmware.vim25.UpdateSet;
+import com.vmware.vim25.VimPortType;
+import com.vmware.vim25.WaitOptions;
+
+import vmware.samples.common.Poller;
+
+/**
+ * Watches properties of many objects with a single update loop per
+ * session. Each watch adds a filter to a property collector shared by the
+ * session, and one thread long-polls that collector with WaitForUpdatesEx,
+ * dispatching the changes to the watches; waiting for 500 tasks costs one
+ * pending call to the server, not 500. A watch of many objects takes a
+ * single filter, see {@link TaskTracker}.
+ *
+ * <p>The watcher of a session is held by its
+ * {@link vmware.samples.common.authentication.VimAuthenticationHelper},
+ * which closes it on logout.</p>
+ *
+ * <pre>
+ * PropertyWatcher watcher = vimAuthHelper.getPropertyWatcher();
+ * CompletableFuture&lt;Map&lt;String, Object&gt;&gt; done = watcher.watch(task,
+ *     new String[] { "info.state", "info.error" },
+ *     values -&gt; values.get("info.state") == TaskInfoState.SUCCESS
+ *         || values.get("info.state") == TaskInfoState.ERROR);
+ * </pre>
+ *
+ * <p>The thread runs while there are watches and stops when the last one
+ * completes. The futures are completed by that thread, so the stages
+ * chained to them must not block; use the {@code *Async} stages for
+ * blocking work.</p>
+ *
+ * <p>A property collector lives as long as the session which created it.
+ * When the session expired or was renewed on the same port, the watcher
+ * creates a new collector and filters for the active watches, which see
+ * the current values again. Transport errors are retried with backoff;
+ * only the other faults, or too many retries in a row, fail the
+ * watches.</p>
+ */
+public class PropertyWatcher {
+
+    // seconds a single wait for updates may block on the server
+    private static final int MAX_WAIT_SECONDS = 60;
+    // failed waits in a row after which the watches fail
+    private static final int MAX_RETRIES = 10;
+
+    private final VimPortType vimPort;
+    private final ServiceContent serviceContent;
+
+    // filter moRef value -> watch
+    private final Map<String, Watch<?>> watches = new HashMap<>();
+    // updates received for a filter before its watch was registered
+    private final Map<String, List<ObjectUpdate>> early = new HashMap<>();
+    private ManagedObjectReference collector;
+    private String version = "";
+    private boolean running;
+    private boolean closed;
+
+    /**
+     * Creates a watcher for the session of the port. Its property collector
+     * is created on the first watch.
+     *
+     * @param vimPort
+     * @param serviceContent
+     */
+    public PropertyWatcher(VimPortType vimPort,
+            ServiceContent serviceContent) {
+        this.vimPort = vimPort;
+        this.serviceContent = serviceContent;
+    }
+
+    /**
+     * Watches properties of an object until their values satisfy the
+     * condition. Cancelling the returned future stops the watch.
+     *
+     * @param obj
+     *            the object to watch
+     * @param properties
+     *            property paths to watch, such as info.state
+     * @param condition
+     *            tested with the current values of the properties, by path,
+     *            after every change; null for properties not set
+     * @return completed with the values which satisfied the condition
+     * @throws InvalidPropertyFaultMsg
+     * @throws RuntimeFaultFaultMsg
+     */
+    public CompletableFuture<Map<String, Object>> watch(
+            ManagedObjectReference obj, String[] properties,
+            Predicate<Map<String, Object>> condition)
+            throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
+        return register(new ValuesWatch(
+                propertyFilterSpec(Collections.singletonList(obj),
+                        properties), condition));
+    }
+
+    /**
+     * Watches properties of many objects with a single filter, until the
+     * handler ends the watch. Cancelling the returned future stops the
+     * watch.
+     *
+     * @param objs
+     *            the objects to watch
+     * @param properties
+     *            property paths to watch, such as info.state
+     * @param handler
+     *            called with the changed properties of an object, by path,
+     *            on the update thread; null for properties removed
+     * @return completed when the handler ended the watch
+     * @throws InvalidPropertyFaultMsg
+     * @throws RuntimeFaultFaultMsg
+     */
+    public CompletableFuture<Void> watch(List<ManagedObjectReference> objs,
+            String[] properties, UpdateHandler handler)
+            throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
+        return register(new ObjectsWatch(
+                propertyFilterSpec(objs, properties), handler));
+    }
+
+    private <T> CompletableFuture<T> register(final Watch<T> watch)
+            throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
+        boolean done = false;
+        while (true) {
+            createFilter(watch);
+            ManagedObjectReference stale = null;
+            /*
+             * The lock of the watch is taken first, so that the update thread
+             * applies its updates after the ones received before the watch
+             * was registered.
+             */
+            synchronized (watch) {
+                List<ObjectUpdate> updates = null;
+                synchronized (this) {
+                    if (closed) {
+                        throw new IllegalStateException(
+                                "Property watcher closed");
+                    }
+                    if (collector != null && collector != watch.collector) {
+                        // replaced since the filter was created, start over
+                        stale = watch.filter;
+                    } else {
+                        String filter = watch.filter.getValue();
+                        watches.put(filter, watch);
+                        updates = early.remove(filter);
+                        if (!running) {
+                            running = true;
+                            Thread thread = new Thread(this::updateLoop,
+                                    "property-watcher");
+                            thread.setDaemon(true);
+                            thread.start();
+                        }
+                    }
+                }
+                if (updates != null) {
+                    done = watch.update(updates);
+                }
+            }
+            if (stale == null) {
+                break;
+            }
+            destroyFilter(stale);
+        }
+        if (done) {
+            watch.complete();
+        }
+        // removes the watch at once if it is already done
+        watch.future.whenComplete((result, error) -> unwatch(watch));
+        return watch.future;
+    }
+
+    /*
+     * Creates the filter of the watch on the current collector, replacing
+     * the collector if it is gone with its session.
+     */
+    private void createFilter(Watch<?> watch)
+            throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
+        ManagedObjectReference pc = getCollector();
+        try {
+            watch.filter = vimPort.createFilter(pc, watch.spec, true);
+        } catch (RuntimeFaultFaultMsg e) {
+            if (!isCollectorLost(e, pc)) {
+                throw e;
+            }
+            // the session was renewed since the collector was created
+            resync(pc);
+            pc = getCollector();
+            watch.filter = vimPort.createFilter(pc, watch.spec, true);
+        }
+        watch.collector = pc;
+    }
+
+    /**
+     * Fails the active watches and destroys the property collector. The
+     * watcher cannot be used after.
+     */
+    public void close() {
+        ManagedObjectReference toDestroy;
+        synchronized (this) {
+            closed = true;
+            toDestroy = collector;
+            collector = null;
+        }
+        failAll(new IllegalStateException("Property watcher closed"));
+        if (toDestroy != null) {
+            try {
+                vimPort.destroyPropertyCollector(toDestroy);
+            } catch (Exception e) {
+                // the collector goes away with the session
+            }
+        }
+    }
+
+    /**
+     * Returns the number of active watches.
+     */
+    public synchronized int getWatchCount() {
+        return watches.size();
+    }
+
+    private synchronized ManagedObjectReference getCollector()
+            throws RuntimeFaultFaultMsg {
+        if (closed) {
+            throw new IllegalStateException("Property watcher closed");
+        }
+        if (collector == null) {
+            /*
+             * A property collector of its own, so that waiting for updates
+             * does not take the updates of the filters of other callers.
+             */
+            collector = vimPort.createPropertyCollector(
+                    serviceContent.getPropertyCollector());
+        }
+        return collector;
+    }
+
+    /*
+     * Replaces a collector which is gone with its session: creates a new
+     * one and the filters of the active watches on it. Does nothing if the
+     * collector was replaced already.
+     */
+    private void resync(ManagedObjectReference stale)
+            throws RuntimeFaultFaultMsg {
+        Map<Watch<?>, Exception> failed = new LinkedHashMap<>();
+        synchronized (this) {
+            if (collector != stale) {
+                return;
+            }
+            collector = null;
+            version = "";
+            early.clear();
+            ManagedObjectReference pc = getCollector();
+            Map<Watch<?>, ManagedObjectReference> filters =
+                    new LinkedHashMap<>();
+            try {
+                for (Watch<?> watch : watches.values()) {
+                    try {
+                        filters.put(watch,
+                                vimPort.createFilter(pc, watch.spec, true));
+                    } catch (InvalidPropertyFaultMsg e) {
+                        failed.put(watch, e);
+                    } catch (RuntimeFaultFaultMsg e) {
+                        if (isCollectorLost(e, pc)) {
+                            throw e;
+                        }
+                        // such as an object deleted meanwhile
+                        failed.put(watch, e);
+                    }
+                }
+            } catch (RuntimeFaultFaultMsg | RuntimeException e) {
+                // the watches keep their filters, the next resync starts over
+                collector = null;
+                throw e;
+            }
+            for (Map.Entry<Watch<?>, ManagedObjectReference> entry : filters
+                    .entrySet()) {
+                Watch<?> watch = entry.getKey();
+                watches.remove(watch.filter.getValue());
+                watch.filter = entry.getValue();
+                watch.collector = pc;
+            }
+            for (Watch<?> watch : filters.keySet()) {
+                watches.put(watch.filter.getValue(), watch);
+            }
+        }
+        for (Map.Entry<Watch<?>, Exception> entry : failed.entrySet()) {
+            entry.getKey().future.completeExceptionally(entry.getValue());
+        }
+    }
+
+    /*
+     * Returns true if the fault means that the collector is gone with the
+     * session which created it.
+     */
+    private static boolean isCollectorLost(RuntimeFaultFaultMsg e,
+            ManagedObjectReference pc) {
+        RuntimeFault fault = e.getFaultInfo();
+        if (fault instanceof NotAuthenticated) {
+            return true;
+        }
+        if (fault instanceof ManagedObjectNotFound) {
+            ManagedObjectReference obj = ((ManagedObjectNotFound) fault)
+                .getObj();
+            return obj == null || obj.getValue().equals(pc.getValue());
+        }
+        return false;
+    }
+
+    private void unwatch(Watch<?> watch) {
+        ManagedObjectReference filter;
+        synchronized (this) {
+            filter = watch.filter;
+            if (filter == null
+                    || !watches.remove(filter.getValue(), watch)) {
+                return;
+            }
+        }
+        destroyFilter(filter);
+    }
+
+    private void destroyFilter(ManagedObjectReference filter) {
+        try {
+            vimPort.destroyPropertyFilter(filter);
+        } catch (Exception e) {
+            // the filter goes away with the session
+        }
+    }
+
+    private void updateLoop() {
+        WaitOptions options = new WaitOptions();
+        options.setMaxWaitSeconds(MAX_WAIT_SECONDS);
+        long delayMs = Poller.DEFAULT_INITIAL_DELAY_MS;
+        int retries = 0;
+        while (true) {
+            ManagedObjectReference pc;
+            String since;
+            synchronized (this) {
+                if (watches.isEmpty() || closed) {
+                    /*
+                     * A watch registered meanwhile may have missed its first
+                     * update, so the next loop starts over with the current
+                     * values of all the filters.
+                     */
+                    running = false;
+                    version = "";
+                    early.clear();
+                    return;
+                }
+                pc = collector;
+                since = version;
+            }
+            long start = System.nanoTime();
+            Exception retryable;
+            try {
+                if (pc == null) {
+                    // lost with the session, see below
+                    resync(null);
+                    continue;
+                }
+                UpdateSet updateSet = vimPort.waitForUpdatesEx(pc, since,
+                        options);
+                retries = 0;
+                if (updateSet != null) {
+                    dispatch(updateSet);
+                    delayMs = Poller.DEFAULT_INITIAL_DELAY_MS;
+                    continue;
+                }
+                retryable = null;
+            } catch (InvalidCollectorVersionFaultMsg e) {
+                // the next wait returns the current values again
+                synchronized (this) {
+                    version = "";
+                }
+                continue;
+            } catch (RuntimeFaultFaultMsg e) {
+                if (pc != null && !isCollectorLost(e, pc)) {
+                    failAll(e);
+                    continue;
+                }
+                /*
+                 * The session expired or was renewed on the port; once it
+                 * is renewed, the next pass creates a new collector and
+                 * filters.
+                 */
+                synchronized (this) {
+                    if (collector == pc) {
+                        collector = null;
+                    }
+                }
+                retryable = e;
+            } catch (WebServiceException e) {
+                // transport error, such as a connection reset
+                retryable = e;
+            } catch (Exception e) {
+                failAll(e);
+                continue;
+            }
+            if (retryable != null) {
+                if (++retries > MAX_RETRIES) {
+                    failAll(retryable);
+                    retries = 0;
+                    continue;
+                }
+            } else if (System.nanoTime() - start
+                    >= MAX_WAIT_SECONDS * 1000000000L / 2) {
+                continue;
+            }
+            /*
+             * No update after a full wait is normal; returning early without
+             * one means the server does not hold the call, so back off
+             * instead of spinning, as after a failed wait.
+             */
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException e) {
+                synchronized (this) {
+                    running = false;
+                }
+                failAll(e);
+                return;
+            }
+            delayMs = Math.min(delayMs * 2, Poller.DEFAULT_MAX_DELAY_MS);
+        }
+    }
+
+    private void dispatch(UpdateSet updateSet) {
+        Map<Watch<?>, List<ObjectUpdate>> received = new LinkedHashMap<>();
+        synchronized (this) {
+            version = updateSet.getVersion();
+            if (updateSet.getFilterSet() == null) {
+                return;
+            }
+            for (PropertyFilterUpdate filterUpdate : updateSet
+                    .getFilterSet()) {
+                String filter = filterUpdate.getFilter().getValue();
+                Watch<?> watch = watches.get(filter);
+                if (watch == null) {
+                    early.computeIfAbsent(filter, f -> new ArrayList<>())
+                        .addAll(filterUpdate.getObjectSet());
+                } else {
+                    received.computeIfAbsent(watch, w -> new ArrayList<>())
+                        .addAll(filterUpdate.getObjectSet());
+                }
+            }
+        }
+        // outside the lock of the watcher, so that watches can be added
+        for (Map.Entry<Watch<?>, List<ObjectUpdate>> entry : received
+                .entrySet()) {
+            Watch<?> watch = entry.getKey();
+            boolean done;
+            synchronized (watch) {
+                done = watch.update(entry.getValue());
+            }
+            if (done) {
+                watch.complete();
+            }
+        }
+    }
+
+    private void failAll(Exception error) {
+        List<Watch<?>> failed;
+        synchronized (this) {
+            failed = new ArrayList<>(watches.values());
+        }
+        for (Watch<?> watch : failed) {
+            watch.future.completeExceptionally(error);
+        }
+    }
+
+    private static PropertyFilterSpec propertyFilterSpec(
+            List<ManagedObjectReference> objs, String[] properties) {
+        PropertyFilterSpec spec = new PropertyFilterSpec();
+        Set<String> types = new LinkedHashSet<>();
+        for (ManagedObjectReference obj : objs) {
+            ObjectSpec objectSpec = new ObjectSpec();
+            objectSpec.setObj(obj);
+            objectSpec.setSkip(Boolean.FALSE);
+            spec.getObjectSet().add(objectSpec);
+            types.add(obj.getType());
+        }
+        for (String type : types) {
+            PropertySpec propertySpec = new PropertySpec();
+            propertySpec.getPathSet().addAll(Arrays.asList(properties));
+            propertySpec.setType(type);
+            spec.getPropSet().add(propertySpec);
+        }
+        return spec;
+    }
+
+    /*
+     * Returns the changed properties of an object update, by path.
+     */
+    private static Map<String, Object> changesOf(ObjectUpdate objectUpdate) {
+        Map<String, Object> changes = new HashMap<>();
+        for (PropertyChange change : objectUpdate.getChangeSet()) {
+            changes.put(change.getName(),
+                change.getOp() == PropertyChangeOp.REMOVE ? null
+                    : change.getVal());
+        }
+        return changes;
+    }
+
+    /**
+     * Handles the updates of a watch on many objects.
+     */
+    public interface UpdateHandler {
+
+        /**
+         * Handles the changed properties of an object.
+         *
+         * @param obj
+         *            the object
+         * @param changes
+         *            the changed properties, by path
+         * @return true to end the watch
+         */
+        boolean onUpdate(ManagedObjectReference obj,
+                Map<String, Object> changes);
+    }
+
+    /*
+     * A filter and the future completed when its watch is done. The updates
+     * are applied holding the lock of the watch; the filter and its
+     * collector change under the lock of the watcher when the collector is
+     * replaced.
+     */
+    private abstract static class Watch<T> {
+        final PropertyFilterSpec spec;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        ManagedObjectReference collector;
+        ManagedObjectReference filter;
+        RuntimeException error;
+
+        Watch(PropertyFilterSpec spec) {
+            this.spec = spec;
+        }
+
+        /*
+         * Applies the updates, returns true if the watch is done, or if its
+         * condition or handler failed.
+         */
+        boolean update(List<ObjectUpdate> updates) {
+            try {
+                return apply(updates);
+            } catch (RuntimeException e) {
+                error = e;
+                return true;
+            }
+        }
+
+        abstract boolean apply(List<ObjectUpdate> updates);
+
+        /*
+         * Completes the future, outside the locks since the stages chained
+         * to it run right away.
+         */
+        void complete() {
+            if (error != null) {
+                future.completeExceptionally(error);
+            } else {
+                future.complete(result());
+            }
+        }
+
+        abstract T result();
+    }
+
+    private static class ValuesWatch extends Watch<Map<String, Object>> {
+        private final Predicate<Map<String, Object>> condition;
+        private final Map<String, Object> values = new HashMap<>();
+
+        ValuesWatch(PropertyFilterSpec spec,
+                Predicate<Map<String, Object>> condition) {
+            super(spec);
+            this.condition = condition;
+        }
+
+        @Override
+        boolean apply(List<ObjectUpdate> updates) {
+            boolean changed = false;
+            for (ObjectUpdate objectUpdate : updates) {
+                Map<String, Object> changes = changesOf(objectUpdate);
+                values.putAll(changes);
+                changed |= !changes.isEmpty();
+            }
+            return changed && condition.test(values);
+        }
+
+        @Override
+        Map<String, Object> result() {
+            return new HashMap<>(values);
+        }
+    }
+
+    private static class ObjectsWatch extends Watch<Void> {
+        private final UpdateHandler handler;
+        private boolean done;
+
+        ObjectsWatch(PropertyFilterSpec spec, UpdateHandler handler) {
+            super(spec);
+            this.handler = handler;
+        }
+
+        @Override
+        boolean apply(List<ObjectUpdate> updates) {
+            for (ObjectUpdate objectUpdate : updates) {
+                if (done) {
+                    break;
+                }
+                done = handler.onUpdate(objectUpdate.getObj(),
+                        changesOf(objectUpdate));
+            }
+            return done;
+        }
+
+        @Override
+        Void result() {
+            return null;
+        }
+    }
+}
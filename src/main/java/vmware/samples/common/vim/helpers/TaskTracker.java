@@ -0,0 +1,273 @@
+/*
+ * *******************************************************
+ * Copyright VMware, Inc. 2021.  All Rights Reserved.
+ * SPDX-License-Identifier: MIT
+ * *******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+
+package vmware.samples.common.vim.helpers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.vmware.vim25.InvalidPropertyFaultMsg;
+import com.vmware.vim25.LocalizedMethodFault;
+import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.RuntimeFaultFaultMsg;
+import com.vmware.vim25.TaskInfoState;
+
+/**
+ * Tracks many VIM tasks at once. The tasks given to {@link #track} share a
+ * single property filter on their state and progress, served by the update
+ * loop of the watcher, see {@link PropertyWatcher}; no thread waits per
+ * task.
+ *
+ * <pre>
+ * TaskTracker tracker = new TaskTracker(vimAuthHelper.getPropertyWatcher());
+ * List&lt;CompletableFuture&lt;Void&gt;&gt; done = tracker.track(tasks);
+ * boolean succeeded = tracker.waitForAll(5, TimeUnit.SECONDS);
+ * </pre>
+ *
+ * <p>The future of a task completes when the task succeeds, or completes
+ * exceptionally with the error of the task.</p>
+ */
+public class TaskTracker {
+
+    private static final String[] TASK_PROPERTIES = new String[] {
+        "info.state", "info.progress", "info.error" };
+
+    private final PropertyWatcher watcher;
+
+    // task moRef value -> tracked task
+    private final Map<String, Tracked> tracked = new HashMap<>();
+    private final List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+    public TaskTracker(PropertyWatcher watcher) {
+        this.watcher = watcher;
+    }
+
+    /**
+     * Starts tracking the tasks.
+     *
+     * @param tasks
+     *            the tasks to track
+     * @return the futures of the tasks, in the same order
+     * @throws InvalidPropertyFaultMsg
+     * @throws RuntimeFaultFaultMsg
+     */
+    public List<CompletableFuture<Void>> track(
+            List<ManagedObjectReference> tasks)
+            throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
+        final Map<String, Tracked> batch = new HashMap<>();
+        List<CompletableFuture<Void>> result = new ArrayList<>();
+        for (ManagedObjectReference task : tasks) {
+            Tracked t = batch.get(task.getValue());
+            if (t == null) {
+                t = new Tracked();
+                batch.put(task.getValue(), t);
+            }
+            result.add(t.future);
+        }
+        if (batch.isEmpty()) {
+            return result;
+        }
+
+        final AtomicInteger pending = new AtomicInteger(batch.size());
+        final CompletableFuture<Void> watch = watcher
+            .watch(tasks, TASK_PROPERTIES, (task, changes) -> {
+                Tracked t = batch.get(task.getValue());
+                if (t != null && !t.future.isDone()) {
+                    t.update(changes);
+                }
+                return pending.get() == 0;
+            });
+        // a failed or cancelled watch fails the tasks still running
+        watch.whenComplete((ignored, error) -> {
+            if (error != null) {
+                for (Tracked t : batch.values()) {
+                    t.future.completeExceptionally(error);
+                }
+            }
+        });
+        /*
+         * The watch ends when every task is done, including the ones whose
+         * future the caller cancelled, so that its filter is destroyed.
+         */
+        for (Tracked t : batch.values()) {
+            t.future.whenComplete((ignored, error) -> {
+                if (pending.decrementAndGet() == 0) {
+                    watch.complete(null);
+                }
+            });
+        }
+        // only once the watch exists, or a failed one would hang waitForAll
+        synchronized (this) {
+            tracked.putAll(batch);
+            for (Tracked t : batch.values()) {
+                futures.add(t.future);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Starts tracking a task.
+     *
+     * @param task
+     *            the task to track
+     * @return the future of the task
+     * @throws InvalidPropertyFaultMsg
+     * @throws RuntimeFaultFaultMsg
+     */
+    public CompletableFuture<Void> track(ManagedObjectReference task)
+            throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
+        List<ManagedObjectReference> tasks =
+                new ArrayList<ManagedObjectReference>(1);
+        tasks.add(task);
+        return track(tasks).get(0);
+    }
+
+    /**
+     * Returns a future completed when all the tracked tasks are done, with
+     * the first error if some failed.
+     */
+    public synchronized CompletableFuture<Void> allDone() {
+        return CompletableFuture.allOf(
+            futures.toArray(new CompletableFuture<?>[futures.size()]));
+    }
+
+    /**
+     * Waits for all the tracked tasks to be done, printing the progress at
+     * the given interval.
+     *
+     * @param reportInterval
+     *            interval between two progress reports
+     * @param unit
+     *            unit of the interval
+     * @return true if all the tasks succeeded
+     * @throws InterruptedException
+     */
+    public boolean waitForAll(long reportInterval, TimeUnit unit)
+            throws InterruptedException {
+        CompletableFuture<Void> settled;
+        synchronized (this) {
+            // completes when all are done, unlike allOf even on failures
+            CompletableFuture<?>[] all = new CompletableFuture<?>[futures
+                .size()];
+            for (int i = 0; i < all.length; i++) {
+                all[i] = futures.get(i).handle((result, error) -> null);
+            }
+            settled = CompletableFuture.allOf(all);
+        }
+        while (true) {
+            try {
+                settled.get(reportInterval, unit);
+                break;
+            } catch (ExecutionException e) {
+                break;
+            } catch (TimeoutException e) {
+                System.out.println("Tasks done: " + getDoneCount() + "/"
+                    + getTaskCount() + ", progress " + getProgress() + "%");
+            }
+        }
+        int failed = getFailedCount();
+        System.out.println("Tasks done: " + getTaskCount() + ", failed: "
+            + failed);
+        return failed == 0;
+    }
+
+    /**
+     * Returns the progress of all the tracked tasks, in percent. Done tasks
+     * count as complete, whether they succeeded or not.
+     */
+    public synchronized int getProgress() {
+        if (tracked.isEmpty()) {
+            return 100;
+        }
+        long sum = 0;
+        for (Tracked t : tracked.values()) {
+            sum += t.future.isDone() ? 100 : t.progress;
+        }
+        return (int) (sum / tracked.size());
+    }
+
+    /**
+     * Returns the number of tracked tasks.
+     */
+    public synchronized int getTaskCount() {
+        return tracked.size();
+    }
+
+    /**
+     * Returns the number of tracked tasks done.
+     */
+    public synchronized int getDoneCount() {
+        int done = 0;
+        for (Tracked t : tracked.values()) {
+            if (t.future.isDone()) {
+                done++;
+            }
+        }
+        return done;
+    }
+
+    /**
+     * Returns the number of tracked tasks which failed.
+     */
+    public synchronized int getFailedCount() {
+        int failed = 0;
+        for (Tracked t : tracked.values()) {
+            if (t.future.isCompletedExceptionally()) {
+                failed++;
+            }
+        }
+        return failed;
+    }
+
+    private static class Tracked {
+        private final CompletableFuture<Void> future =
+                new CompletableFuture<>();
+        private volatile int progress;
+        private LocalizedMethodFault error;
+
+        /*
+         * Applies the changed properties of the task, returns true if the
+         * task just finished.
+         */
+        private boolean update(Map<String, Object> changes) {
+            Object value = changes.get("info.progress");
+            if (value instanceof Integer) {
+                progress = (Integer) value;
+            }
+            if (changes.get("info.error") instanceof LocalizedMethodFault) {
+                error = (LocalizedMethodFault) changes.get("info.error");
+            }
+            Object state = changes.get("info.state");
+            if (state == TaskInfoState.SUCCESS) {
+                progress = 100;
+                future.complete(null);
+                return true;
+            }
+            if (state == TaskInfoState.ERROR) {
+                future.completeExceptionally(new RuntimeException(
+                    error != null ? error.getLocalizedMessage()
+                        : "Task failed"));
+                return true;
+            }
+            return false;
+        }
+    }
+}
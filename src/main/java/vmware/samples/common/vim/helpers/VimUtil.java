@@ -40,6 +40,11 @@ import com.vmware.vim25.VimPortType;
  *
  */
 public class VimUtil {
+    /*
+     * Number of objects per page when searching by name. The search stops at
+     * the first page holding a match.
+     */
+    private static final int FIND_PAGE_SIZE = 1000;
 
     /**
      * Get access to the service content
@@ -76,73 +81,39 @@ public class VimUtil {
             ServiceContent serviceContent, String clusterName)
             throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg,
             NotFoundFaultMsg {
+        return getCluster(vimPortType, serviceContent, null, clusterName);
+    }
 
-        // Spec to allow recursion on the Folder to Folder traversal
-        SelectionSpec folderToFolderSelection = new SelectionSpec();
-        folderToFolderSelection.setName("folderToFolder");
-
-        SelectionSpec dcToHostFolderSelection = new SelectionSpec();
-        dcToHostFolderSelection.setName("dcToHostFolder");
-
-        // spec to traverse from Datacenter to hostFolder
-        TraversalSpec dcToHostFolderTraversal = new TraversalSpec();
-        dcToHostFolderTraversal.setName("dcToHostFolder");
-        dcToHostFolderTraversal.setPath("hostFolder");
-        dcToHostFolderTraversal.setType("Datacenter");
-        dcToHostFolderTraversal.getSelectSet().addAll(
-                Arrays.asList(new SelectionSpec[] { folderToFolderSelection }));
-        dcToHostFolderTraversal.setSkip(false);
-
-        // spec to traverse from Folder to a child folder
-        TraversalSpec folderToFolderTraversal = new TraversalSpec();
-        folderToFolderTraversal.setName("folderToFolder");
-        folderToFolderTraversal.setPath("childEntity");
-        folderToFolderTraversal.setType("Folder");
-        folderToFolderTraversal.getSelectSet()
-                .addAll(Arrays.asList(new SelectionSpec[] {
-                    folderToFolderSelection, dcToHostFolderSelection }));
-        folderToFolderTraversal.setSkip(false);
-
-        PropertySpec propertySpec = new PropertySpec();
-        propertySpec.getPathSet()
-                .addAll(Arrays.asList(new String[] { "name" }));
-        propertySpec.setType("ClusterComputeResource");
-
-        ObjectSpec objectSpec = new ObjectSpec();
-        objectSpec.setObj(serviceContent.getRootFolder());
-        objectSpec.getSelectSet().addAll(Arrays.asList(new SelectionSpec[] {
-            folderToFolderTraversal, dcToHostFolderTraversal }));
-        objectSpec.setSkip(false);
-
-        // Create PropertyFilterSpec using the PropertySpec and ObjectPec
-        PropertyFilterSpec propertyFilterSpec = new PropertyFilterSpec();
-        propertyFilterSpec.getPropSet()
-                .addAll(Arrays.asList(new PropertySpec[] { propertySpec }));
-        propertyFilterSpec.getObjectSet()
-                .addAll(Arrays.asList(new ObjectSpec[] { objectSpec }));
-
-        ManagedObjectReference morPropertyCollector = serviceContent
-                .getPropertyCollector();
-        List<ObjectContent> objectContents = vimPortType.retrieveProperties(
-                morPropertyCollector,
-                Arrays.asList(new PropertyFilterSpec[] { propertyFilterSpec }));
-
-        for (ObjectContent objectContent : objectContents) {
-            ManagedObjectReference clusterManagedObjectReference = objectContent
-                    .getObj();
-            List<DynamicProperty> dynamicProperties = objectContent
-                    .getPropSet();
-            for (DynamicProperty dynamicProperty : dynamicProperties) {
-                if (dynamicProperty.getName().equalsIgnoreCase("name")) {
-                    if (dynamicProperty.getVal().toString()
-                            .equalsIgnoreCase(clusterName)) {
-                        return clusterManagedObjectReference;
-                    }
-                }
-            }
+    /**
+     * Retrieves the cluster managed object reference for the specified cluster
+     * name, searching only the given datacenter or folder. The name is
+     * compared ignoring case.
+     *
+     * @param vimPortType
+     * @param serviceContent
+     *            {@link ServiceContent}
+     * @param container
+     *            datacenter or folder to search, the root folder if null
+     * @param clusterName
+     *            name of the cluster to be searched for.
+     * @return {@link ManagedObjectReference}
+     * @throws InvalidPropertyFaultMsg
+     * @throws RuntimeFaultFaultMsg
+     * @throws NotFoundFaultMsg
+     */
+    public static ManagedObjectReference getCluster(VimPortType vimPortType,
+            ServiceContent serviceContent, ManagedObjectReference container,
+            String clusterName)
+            throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg,
+            NotFoundFaultMsg {
+        ManagedObjectReference cluster = findByName(vimPortType,
+                serviceContent, container, "ClusterComputeResource",
+                clusterName, true);
+        if (cluster == null) {
+            throw new NotFoundFaultMsg("Cluster Not Found - " + clusterName,
+                    new NotFound());
         }
-        throw new NotFoundFaultMsg("Cluster Not Found - " + clusterName,
-                new NotFound());
+        return cluster;
     }
 
     /**
@@ -219,110 +190,185 @@ public class VimUtil {
             ServiceContent serviceContent, String vmname)
             throws NotFoundFaultMsg, InvalidPropertyFaultMsg,
             RuntimeFaultFaultMsg {
+        return getVM(vimPortType, serviceContent, null, vmname);
+    }
+
+    /**
+     * Retrieves the vm managed object reference for the specified vm name,
+     * searching only the given datacenter, cluster, host, resource pool or
+     * folder.
+     *
+     * @param vimPortType
+     * @param serviceContent
+     * @param container
+     *            container to search, the root folder if null
+     * @param vmname
+     * @return
+     * @throws NotFoundFaultMsg
+     * @throws RuntimeFaultFaultMsg
+     * @throws InvalidPropertyFaultMsg
+     */
+    public static ManagedObjectReference getVM(VimPortType vimPortType,
+            ServiceContent serviceContent, ManagedObjectReference container,
+            String vmname)
+            throws NotFoundFaultMsg, InvalidPropertyFaultMsg,
+            RuntimeFaultFaultMsg {
+        ManagedObjectReference vm = findByName(vimPortType, serviceContent,
+                container, "VirtualMachine", vmname, false);
+        if (vm == null) {
+            throw new NotFoundFaultMsg("VM Not Found - " + vmname,
+                    new NotFound());
+        }
+        return vm;
+    }
+
+    /**
+     * Finds a managed entity by name through a ContainerView. The server
+     * filters the objects by type and only returns their names, a page at a
+     * time; the search stops at the first match, and the remaining pages are
+     * never sent.
+     *
+     * <p>The property collector cannot filter by name. Where the vAPI
+     * endpoint is available, the list methods of the vcenter services filter
+     * by name on the server, see
+     * {@link vmware.samples.vcenter.helpers.VmHelper#getVM}.</p>
+     *
+     * @param vimPort
+     * @param serviceContent
+     * @param container
+     *            folder, datacenter, compute resource or resource pool to
+     *            search recursively, the root folder if null
+     * @param type
+     *            type of the entity, such as VirtualMachine
+     * @param name
+     *            name of the entity
+     * @param ignoreCase
+     *            whether to compare the names ignoring case
+     * @return the entity, or null if none has the name
+     * @throws InvalidPropertyFaultMsg
+     * @throws RuntimeFaultFaultMsg
+     */
+    public static ManagedObjectReference findByName(VimPortType vimPort,
+            ServiceContent serviceContent, ManagedObjectReference container,
+            String type, String name, boolean ignoreCase)
+            throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
         ManagedObjectReference propCollectorRef = serviceContent
                 .getPropertyCollector();
-        ManagedObjectReference rootFolderRef = serviceContent.getRootFolder();
+        ManagedObjectReference view = createContainerView(vimPort,
+                serviceContent, container, Collections.singletonList(type));
+        try {
+            final ManagedObjectReference[] found =
+                    new ManagedObjectReference[1];
+            retrievePropertiesPaged(vimPort, propCollectorRef,
+                    Collections.singletonList(containerViewFilterSpec(view,
+                            type, Collections.singletonList("name"))),
+                    FIND_PAGE_SIZE, page -> {
+                        for (ObjectContent oc : page) {
+                            Object val = oc.getPropSet().isEmpty() ? null
+                                    : oc.getPropSet().get(0).getVal();
+                            if (val != null && (ignoreCase
+                                    ? name.equalsIgnoreCase(val.toString())
+                                    : name.equals(val))) {
+                                found[0] = oc.getObj();
+                                return false;
+                            }
+                        }
+                        return true;
+                    });
+            return found[0];
+        } finally {
+            vimPort.destroyView(view);
+        }
+    }
 
-        ManagedObjectReference retVmRef = null;
-        TraversalSpec tSpec = getVMTraversalSpec();
+    /**
+     * Creates a recursive ContainerView of the entities of the given types.
+     * The caller destroys it with {@link VimPortType#destroyView} when done.
+     *
+     * @param vimPort
+     * @param serviceContent
+     * @param container
+     *            entity whose descendants the view holds, the root folder if
+     *            null
+     * @param types
+     *            types of the entities in the view, all if empty
+     * @return the view
+     * @throws RuntimeFaultFaultMsg
+     */
+    public static ManagedObjectReference createContainerView(
+            VimPortType vimPort, ServiceContent serviceContent,
+            ManagedObjectReference container, List<String> types)
+            throws RuntimeFaultFaultMsg {
+        return vimPort.createContainerView(serviceContent.getViewManager(),
+                container != null ? container : serviceContent.getRootFolder(),
+                types, true);
+    }
 
-        PropertySpec propertySpec = new PropertySpec();
-        propertySpec.setAll(Boolean.FALSE);
-        propertySpec.getPathSet().add("name");
-        propertySpec.setType("VirtualMachine");
+    /**
+     * Builds a filter spec selecting the given properties of the objects of
+     * a view.
+     *
+     * @param view
+     *            a ContainerView
+     * @param type
+     *            type of the objects
+     * @param properties
+     *            properties to retrieve
+     * @return the filter spec
+     */
+    public static PropertyFilterSpec containerViewFilterSpec(
+            ManagedObjectReference view, String type,
+            List<String> properties) {
+        return containerViewFilterSpec(view, Collections.singletonList(type),
+                properties);
+    }
+
+    /**
+     * Builds a filter spec selecting the given properties of the objects of
+     * a view holding several types.
+     *
+     * @param view
+     *            a ContainerView
+     * @param types
+     *            types of the objects, all having the properties
+     * @param properties
+     *            properties to retrieve
+     * @return the filter spec
+     */
+    public static PropertyFilterSpec containerViewFilterSpec(
+            ManagedObjectReference view, List<String> types,
+            List<String> properties) {
+        TraversalSpec viewToObjects = new TraversalSpec();
+        viewToObjects.setName("viewToObjects");
+        viewToObjects.setType("ContainerView");
+        viewToObjects.setPath("view");
+        viewToObjects.setSkip(Boolean.FALSE);
 
         ObjectSpec objectSpec = new ObjectSpec();
-        objectSpec.setObj(rootFolderRef);
+        objectSpec.setObj(view);
         objectSpec.setSkip(Boolean.TRUE);
-        objectSpec.getSelectSet().add(tSpec);
+        objectSpec.getSelectSet().add(viewToObjects);
 
         PropertyFilterSpec propertyFilterSpec = new PropertyFilterSpec();
-        propertyFilterSpec.getPropSet().add(propertySpec);
-        propertyFilterSpec.getObjectSet().add(objectSpec);
-
-        List<PropertyFilterSpec> listpfs = new ArrayList<PropertyFilterSpec>(1);
-        listpfs.add(propertyFilterSpec);
-        List<ObjectContent> listobjcont = retrievePropertiesAllObjects(
-                vimPortType, propCollectorRef, listpfs);
-
-        if (listobjcont != null) {
-            for (ObjectContent oc : listobjcont) {
-                ManagedObjectReference mr = oc.getObj();
-                String vmnm = null;
-                List<DynamicProperty> dps = oc.getPropSet();
-                if (dps != null) {
-                    for (DynamicProperty dp : dps) {
-                        vmnm = (String) dp.getVal();
-                    }
-                }
-                if (vmnm != null && vmnm.equals(vmname)) {
-                    retVmRef = mr;
-                    break;
-                }
-            }
-        }
-        if (retVmRef == null) {
-            throw new NotFoundFaultMsg("VM Not Found - " + vmname,
-                    new NotFound());
+        for (String type : types) {
+            PropertySpec propertySpec = new PropertySpec();
+            propertySpec.setAll(Boolean.FALSE);
+            propertySpec.setType(type);
+            propertySpec.getPathSet().addAll(properties);
+            propertyFilterSpec.getPropSet().add(propertySpec);
         }
-        return retVmRef;
-    }
-
-    /**
-     * Gets the VM TraversalSpec.
-     *
-     * @return the VM TraversalSpec
-     */
-    private static TraversalSpec getVMTraversalSpec() {
-        TraversalSpec vAppToVM = new TraversalSpec();
-        vAppToVM.setName("vAppToVM");
-        vAppToVM.setType("VirtualApp");
-        vAppToVM.setPath("vm");
-
-        TraversalSpec vAppToVApp = new TraversalSpec();
-        vAppToVApp.setName("vAppToVApp");
-        vAppToVApp.setType("VirtualApp");
-        vAppToVApp.setPath("resourcePool");
-
-        SelectionSpec vAppRecursion = new SelectionSpec();
-        vAppRecursion.setName("vAppToVApp");
-
-        SelectionSpec vmInVApp = new SelectionSpec();
-        vmInVApp.setName("vAppToVM");
-
-        List<SelectionSpec> vAppToVMSS = new ArrayList<SelectionSpec>();
-        vAppToVMSS.add(vAppRecursion);
-        vAppToVMSS.add(vmInVApp);
-        vAppToVApp.getSelectSet().addAll(vAppToVMSS);
-
-        SelectionSpec sSpec = new SelectionSpec();
-        sSpec.setName("VisitFolders");
-
-        TraversalSpec dataCenterToVMFolder = new TraversalSpec();
-        dataCenterToVMFolder.setName("DataCenterToVMFolder");
-        dataCenterToVMFolder.setType("Datacenter");
-        dataCenterToVMFolder.setPath("vmFolder");
-        dataCenterToVMFolder.setSkip(false);
-        dataCenterToVMFolder.getSelectSet().add(sSpec);
-
-        TraversalSpec traversalSpec = new TraversalSpec();
-        traversalSpec.setName("VisitFolders");
-        traversalSpec.setType("Folder");
-        traversalSpec.setPath("childEntity");
-        traversalSpec.setSkip(false);
-        List<SelectionSpec> sSpecArr = new ArrayList<SelectionSpec>();
-        sSpecArr.add(sSpec);
-        sSpecArr.add(dataCenterToVMFolder);
-        sSpecArr.add(vAppToVM);
-        sSpecArr.add(vAppToVApp);
-        traversalSpec.getSelectSet().addAll(sSpecArr);
-        return traversalSpec;
+        propertyFilterSpec.getObjectSet().add(objectSpec);
+        return propertyFilterSpec;
     }
 
     /**
      * Uses the new RetrievePropertiesEx method to emulate the now deprecated
      * RetrieveProperties method.
      *
+     * <p>All the objects are held in memory; use
+     * {@link #retrievePropertiesPaged} to process large result sets a page
+     * at a time.</p>
+     *
      * @param listpfs
      * @return list of object content
      * @throws Exception
@@ -331,33 +377,76 @@ public class VimUtil {
             VimPortType vimPort, ManagedObjectReference propCollectorRef,
             List<PropertyFilterSpec> listpfs)
             throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
-        RetrieveOptions propObjectRetrieveOpts = new RetrieveOptions();
-        List<ObjectContent> listobjcontent = new ArrayList<ObjectContent>();
+        final List<ObjectContent> listobjcontent =
+                new ArrayList<ObjectContent>();
+        retrievePropertiesPaged(vimPort, propCollectorRef, listpfs, null,
+                page -> {
+                    listobjcontent.addAll(page);
+                    return true;
+                });
+        return listobjcontent;
+    }
 
+    /**
+     * Retrieves the properties a page at a time, handing each page to the
+     * handler as it arrives; memory use is bounded by the page size, not by
+     * the number of objects. When the handler stops the retrieval early, the
+     * remaining pages are discarded on the server.
+     *
+     * @param vimPort
+     * @param propCollectorRef
+     * @param listpfs
+     *            the filter specs selecting the objects and properties
+     * @param maxObjects
+     *            maximum number of objects per page, the server default if
+     *            null
+     * @param handler
+     *            processes the pages
+     * @return true if all the pages were handled, false if the handler
+     *         stopped the retrieval
+     * @throws InvalidPropertyFaultMsg
+     * @throws RuntimeFaultFaultMsg
+     */
+    public static boolean retrievePropertiesPaged(VimPortType vimPort,
+            ManagedObjectReference propCollectorRef,
+            List<PropertyFilterSpec> listpfs, Integer maxObjects,
+            PageHandler handler)
+            throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
+        RetrieveOptions options = new RetrieveOptions();
+        options.setMaxObjects(maxObjects);
         RetrieveResult rslts = vimPort.retrievePropertiesEx(propCollectorRef,
-                listpfs, propObjectRetrieveOpts);
-        if (rslts != null && rslts.getObjects() != null
-                && !rslts.getObjects().isEmpty()) {
-            listobjcontent.addAll(rslts.getObjects());
-        }
-        String token = null;
-        if (rslts != null && rslts.getToken() != null) {
-            token = rslts.getToken();
-        }
-        while (token != null && !token.isEmpty()) {
-            rslts = vimPort.continueRetrievePropertiesEx(propCollectorRef,
-                    token);
-            token = null;
-            if (rslts != null) {
-                token = rslts.getToken();
-                if (rslts.getObjects() != null
-                        && !rslts.getObjects().isEmpty()) {
-                    listobjcontent.addAll(rslts.getObjects());
+                listpfs, options);
+        while (rslts != null) {
+            String token = rslts.getToken();
+            if (!handler.onPage(rslts.getObjects())) {
+                if (token != null && !token.isEmpty()) {
+                    // free the pages not retrieved
+                    vimPort.cancelRetrievePropertiesEx(propCollectorRef,
+                            token);
                 }
+                return false;
             }
+            rslts = token == null || token.isEmpty() ? null
+                    : vimPort.continueRetrievePropertiesEx(propCollectorRef,
+                            token);
         }
+        return true;
+    }
 
-        return listobjcontent;
+    /**
+     * Processes the pages of a property retrieval, see
+     * {@link VimUtil#retrievePropertiesPaged}.
+     */
+    public interface PageHandler {
+
+        /**
+         * Processes a page of objects.
+         *
+         * @param page
+         *            the objects of the page
+         * @return true to retrieve the next page, false to stop
+         */
+        boolean onPage(List<ObjectContent> page);
     }
 
     /**
@@ -366,43 +455,30 @@ public class VimUtil {
     public static ManagedObjectReference getEntityByName(
             VimPortType vimPortType, ServiceContent serviceContent,
             String entityName, String entityType) {
-        ManagedObjectReference propCollectorRef = serviceContent
-                .getPropertyCollector();
-        ManagedObjectReference rootFolderRef = serviceContent.getRootFolder();
-        ManagedObjectReference retVal = null;
+        return getEntityByName(vimPortType, serviceContent, null, entityName,
+                entityType);
+    }
 
+    /**
+     * Getting the MOREF of the entity, searching only the given container.
+     *
+     * @param vimPortType
+     * @param serviceContent
+     * @param container
+     *            datacenter, cluster or folder to search, the root folder if
+     *            null
+     * @param entityName
+     * @param entityType
+     * @return the entity, or null if none has the name
+     */
+    public static ManagedObjectReference getEntityByName(
+            VimPortType vimPortType, ServiceContent serviceContent,
+            ManagedObjectReference container, String entityName,
+            String entityType) {
+        ManagedObjectReference retVal = null;
         try {
-            // Create Property Spec
-            PropertySpec propertySpec = new PropertySpec();
-            propertySpec.setAll(Boolean.FALSE);
-            propertySpec.setType(entityType);
-            propertySpec.getPathSet().add("name");
-
-            // Now create Object Spec
-            ObjectSpec objectSpec = new ObjectSpec();
-            objectSpec.setObj(rootFolderRef);
-            objectSpec.setSkip(Boolean.TRUE);
-            objectSpec.getSelectSet().addAll(Arrays.asList(buildTraversal()));
-
-            // Create PropertyFilterSpec using the PropertySpec and ObjectPec
-            // created above.
-            PropertyFilterSpec propertyFilterSpec = new PropertyFilterSpec();
-            propertyFilterSpec.getPropSet().add(propertySpec);
-            propertyFilterSpec.getObjectSet().add(objectSpec);
-
-            List<PropertyFilterSpec> listpfs =
-                    new ArrayList<PropertyFilterSpec>(1);
-            listpfs.add(propertyFilterSpec);
-            List<ObjectContent> listobjcont = retrievePropertiesAllObjects(
-                    vimPortType, propCollectorRef, listpfs);
-            if (listobjcont != null) {
-                for (ObjectContent oc : listobjcont) {
-                    if (oc.getPropSet().get(0).getVal().equals(entityName)) {
-                        retVal = oc.getObj();
-                        break;
-                    }
-                }
-            }
+            retVal = findByName(vimPortType, serviceContent, container,
+                    entityType, entityName, false);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -453,44 +529,6 @@ public class VimUtil {
         return objList;
     }
 
-    /**
-     * @return An array of SelectionSpec covering Datacenter to DatastoreFolder.
-     */
-    private static SelectionSpec[] buildTraversal() {
-
-        // For Folder -> Folder recursion
-        SelectionSpec sspecvfolders = new SelectionSpec();
-        sspecvfolders.setName("VisitFolders");
-
-        TraversalSpec dcToDf = new TraversalSpec();
-        dcToDf.setType("Datacenter");
-        dcToDf.setSkip(Boolean.FALSE);
-        dcToDf.setPath("datastoreFolder");
-        dcToDf.setName("dcToDf");
-        dcToDf.getSelectSet().add(sspecvfolders);
-
-        // DC -> DS
-        TraversalSpec dcToDs = new TraversalSpec();
-        dcToDs.setType("Datacenter");
-        dcToDs.setPath("datastore");
-        dcToDs.setName("dcToDs");
-        dcToDs.setSkip(Boolean.FALSE);
-
-        TraversalSpec visitFolders = new TraversalSpec();
-        visitFolders.setType("Folder");
-        visitFolders.setPath("childEntity");
-        visitFolders.setSkip(Boolean.FALSE);
-        visitFolders.setName("VisitFolders");
-
-        List<SelectionSpec> sspecarrvf = new ArrayList<SelectionSpec>();
-        sspecarrvf.add(dcToDs);
-        sspecarrvf.add(dcToDf);
-        sspecarrvf.add(sspecvfolders);
-
-        visitFolders.getSelectSet().addAll(sspecarrvf);
-        return new SelectionSpec[] { visitFolders };
-    }
-
     /**
      * Deletes a managed object and waits for the delete operation to complete
      * 
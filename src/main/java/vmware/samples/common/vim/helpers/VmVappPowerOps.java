@@ -12,22 +12,43 @@
  */
 package vmware.samples.common.vim.helpers;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 import com.vmware.vim25.ManagedObjectReference;
 import com.vmware.vim25.ServiceContent;
 import com.vmware.vim25.VimPortType;
 
 public class VmVappPowerOps {
+    private static final long PROGRESS_INTERVAL_SECONDS = 10;
+
     private final VimPortType vimPort;
-    @SuppressWarnings("unused")
     private final ServiceContent serviceContent;
+    private final PropertyWatcher watcher;
     private final WaitForValues waitForValues;
 
     public VmVappPowerOps(VimPortType vimPort, ServiceContent serviceContent) {
         this.vimPort = vimPort;
         this.serviceContent = serviceContent;
+        this.watcher = null;
         this.waitForValues = new WaitForValues(vimPort, serviceContent);
     }
 
+    /**
+     * The waits for the power operations share the update loop of the
+     * watcher, such as the one of the VIM authentication helper.
+     *
+     * @param vimPort
+     * @param watcher
+     */
+    public VmVappPowerOps(VimPortType vimPort, PropertyWatcher watcher) {
+        this.vimPort = vimPort;
+        this.serviceContent = null;
+        this.watcher = watcher;
+        this.waitForValues = new WaitForValues(watcher);
+    }
+
     /**
      * Powers on VM and wait for power on operation to complete
      *
@@ -84,6 +105,68 @@ public class VmVappPowerOps {
         }
     }
 
+    /**
+     * Powers on VMs and waits for all the power on operations to complete,
+     * tracking the tasks together
+     *
+     * @param vmMors vm MoRefs
+     * @return true if all the VMs powered on
+     */
+    public boolean powerOnVMs(List<ManagedObjectReference> vmMors) {
+        System.out.println("Powering on " + vmMors.size()
+                           + " virtual machines");
+        try {
+            List<ManagedObjectReference> tasks = new ArrayList<>();
+            for (ManagedObjectReference vmMor : vmMors) {
+                tasks.add(vimPort.powerOnVMTask(vmMor, null));
+            }
+            return waitForTasks(tasks);
+        } catch (Exception e) {
+            System.out.println("Unable to poweron virtual machines");
+            System.out.println("Reason :" + e.getLocalizedMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Powers off VMs and waits for all the power off operations to
+     * complete, tracking the tasks together
+     *
+     * @param vmMors vm MoRefs
+     * @return true if all the VMs powered off
+     */
+    public boolean powerOffVMs(List<ManagedObjectReference> vmMors) {
+        System.out.println("Powering off " + vmMors.size()
+                           + " virtual machines");
+        try {
+            List<ManagedObjectReference> tasks = new ArrayList<>();
+            for (ManagedObjectReference vmMor : vmMors) {
+                tasks.add(vimPort.powerOffVMTask(vmMor));
+            }
+            return waitForTasks(tasks);
+        } catch (Exception e) {
+            System.out.println("Unable to poweroff virtual machines");
+            System.out.println("Reason :" + e.getLocalizedMessage());
+            return false;
+        }
+    }
+
+    private boolean waitForTasks(List<ManagedObjectReference> tasks)
+            throws Exception {
+        PropertyWatcher trackWatcher = watcher != null ? watcher
+            : new PropertyWatcher(vimPort, serviceContent);
+        try {
+            TaskTracker tracker = new TaskTracker(trackWatcher);
+            tracker.track(tasks);
+            return tracker.waitForAll(PROGRESS_INTERVAL_SECONDS,
+                                      TimeUnit.SECONDS);
+        } finally {
+            if (trackWatcher != watcher) {
+                trackWatcher.close();
+            }
+        }
+    }
+
     /**
      * Powers on vApp and waits for the the power on operation to complete
      *
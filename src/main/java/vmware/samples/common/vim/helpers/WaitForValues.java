@@ -13,36 +13,46 @@
 
 package vmware.samples.common.vim.helpers;
 
-import java.util.Arrays;
-import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 import com.vmware.vim25.InvalidCollectorVersionFaultMsg;
 import com.vmware.vim25.InvalidPropertyFaultMsg;
 import com.vmware.vim25.LocalizedMethodFault;
 import com.vmware.vim25.ManagedObjectReference;
-import com.vmware.vim25.ObjectSpec;
-import com.vmware.vim25.ObjectUpdate;
-import com.vmware.vim25.ObjectUpdateKind;
-import com.vmware.vim25.PropertyChange;
-import com.vmware.vim25.PropertyChangeOp;
-import com.vmware.vim25.PropertyFilterSpec;
-import com.vmware.vim25.PropertyFilterUpdate;
-import com.vmware.vim25.PropertySpec;
 import com.vmware.vim25.RuntimeFaultFaultMsg;
 import com.vmware.vim25.ServiceContent;
 import com.vmware.vim25.TaskInfoState;
-import com.vmware.vim25.UpdateSet;
 import com.vmware.vim25.VimPortType;
-import com.vmware.vim25.WaitOptions;
 
 public class WaitForValues {
 
     private final VimPortType vimPort;
     private final ServiceContent serviceContent;
+    private final PropertyWatcher watcher;
 
+    /**
+     * Each wait uses a property collector of its own, destroyed after it.
+     *
+     * @param vimPort
+     * @param serviceContent
+     */
     public WaitForValues(VimPortType vimPort, ServiceContent serviceContent) {
         this.vimPort = vimPort;
         this.serviceContent = serviceContent;
+        this.watcher = null;
+    }
+
+    /**
+     * The waits share the update loop of the watcher, such as the one of
+     * {@link vmware.samples.common.authentication.VimAuthenticationHelper}.
+     *
+     * @param watcher
+     */
+    public WaitForValues(PropertyWatcher watcher) {
+        this.vimPort = null;
+        this.serviceContent = null;
+        this.watcher = watcher;
     }
 
     /**
@@ -81,7 +91,8 @@ public class WaitForValues {
 
     /**
      * Handle Updates for a single object. waits till expected values of
-     * properties to check are reached Destroys the ObjectFilter when done.
+     * properties to check are reached. The wait shares the update loop of
+     * the watcher with all the other waits, see {@link PropertyWatcher}.
      *
      * @param objmor
      *            MOR of the Object to wait for</param>
@@ -99,99 +110,56 @@ public class WaitForValues {
      *
      */
     public Object[] wait(ManagedObjectReference objmor, String[] filterProps,
-            String[] endWaitProps, Object[][] expectedVals)
+            final String[] endWaitProps, final Object[][] expectedVals)
             throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg,
             InvalidCollectorVersionFaultMsg {
-
-        // version string is initially null
-        String version = "";
-        Object[] endVals = new Object[endWaitProps.length];
-        Object[] filterVals = new Object[filterProps.length];
-
-        PropertyFilterSpec spec = propertyFilterSpec(objmor, filterProps);
-
-        ManagedObjectReference filterSpecRef = vimPort.createFilter(
-                serviceContent.getPropertyCollector(), spec, true);
-
-        boolean reached = false;
-
-        UpdateSet updateset = null;
-        List<PropertyFilterUpdate> filtupary = null;
-        List<ObjectUpdate> objupary = null;
-        List<PropertyChange> propchgary = null;
-        while (!reached) {
-            updateset = vimPort.waitForUpdatesEx(
-                    serviceContent.getPropertyCollector(), version,
-                    new WaitOptions());
-            if (updateset == null || updateset.getFilterSet() == null) {
-                continue;
-            }
-            version = updateset.getVersion();
-
-            // Make this code more general purpose when PropCol changes later.
-            filtupary = updateset.getFilterSet();
-
-            for (PropertyFilterUpdate filtup : filtupary) {
-                objupary = filtup.getObjectSet();
-                for (ObjectUpdate objup : objupary) {
-                    // TODO: Handle all "kind"s of updates.
-                    if (objup.getKind() == ObjectUpdateKind.MODIFY
-                            || objup.getKind() == ObjectUpdateKind.ENTER
-                            || objup.getKind() == ObjectUpdateKind.LEAVE) {
-                        propchgary = objup.getChangeSet();
-                        for (PropertyChange propchg : propchgary) {
-                            updateValues(endWaitProps, endVals, propchg);
-                            updateValues(filterProps, filterVals, propchg);
+        Map<String, Object> values;
+        PropertyWatcher waitWatcher = watcher != null ? watcher
+                : new PropertyWatcher(vimPort, serviceContent);
+        try {
+            values = waitWatcher.watch(objmor, filterProps, changed -> {
+                    Object[] endVals = valuesOf(endWaitProps, changed);
+                    // Check if the expected values have been reached
+                    for (int chgi = 0; chgi < endVals.length; chgi++) {
+                        for (Object expctdval : expectedVals[chgi]) {
+                            if (expctdval.equals(endVals[chgi])) {
+                                return true;
+                            }
                         }
                     }
-                }
+                    return false;
+                }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeFaultFaultMsg) {
+                throw (RuntimeFaultFaultMsg) e.getCause();
             }
-
-            Object expctdval = null;
-            // Check if the expected values have been reached and exit the loop
-            // if done.
-            // Also exit the WaitForUpdates loop if this is the case.
-            for (int chgi = 0; chgi < endVals.length && !reached; chgi++) {
-                for (int vali = 0; vali < expectedVals[chgi].length
-                        && !reached; vali++) {
-                    expctdval = expectedVals[chgi][vali];
-
-                    reached = expctdval.equals(endVals[chgi]) || reached;
-                }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            if (waitWatcher != watcher) {
+                waitWatcher.close();
             }
         }
-
-        // Destroy the filter when we are done.
-        vimPort.destroyPropertyFilter(filterSpecRef);
-        return filterVals;
-    }
-
-    private PropertyFilterSpec propertyFilterSpec(ManagedObjectReference objmor,
-            String[] filterProps) {
-        PropertyFilterSpec spec = new PropertyFilterSpec();
-        ObjectSpec oSpec = new ObjectSpec();
-        oSpec.setObj(objmor);
-        oSpec.setSkip(Boolean.FALSE);
-        spec.getObjectSet().add(oSpec);
-
-        PropertySpec pSpec = new PropertySpec();
-        pSpec.getPathSet().addAll(Arrays.asList(filterProps));
-        pSpec.setType(objmor.getType());
-        spec.getPropSet().add(pSpec);
-        return spec;
+        return valuesOf(filterProps, values);
     }
 
-    private void updateValues(String[] props, Object[] vals,
-            PropertyChange propchg) {
-        for (int findi = 0; findi < props.length; findi++) {
-            if (propchg.getName().lastIndexOf(props[findi]) >= 0) {
-                if (propchg.getOp() == PropertyChangeOp.REMOVE) {
-                    vals[findi] = "";
-                } else {
-                    vals[findi] = propchg.getVal();
+    /*
+     * Returns the values of the properties, matching the changed property
+     * paths which contain them; "" for properties removed.
+     */
+    private static Object[] valuesOf(String[] props,
+            Map<String, Object> changed) {
+        Object[] vals = new Object[props.length];
+        for (Map.Entry<String, Object> entry : changed.entrySet()) {
+            for (int findi = 0; findi < props.length; findi++) {
+                if (entry.getKey().lastIndexOf(props[findi]) >= 0) {
+                    vals[findi] = entry.getValue() == null ? ""
+                            : entry.getValue();
                 }
             }
         }
+        return vals;
     }
-
 }
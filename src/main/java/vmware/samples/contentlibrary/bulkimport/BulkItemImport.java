@@ -0,0 +1,440 @@
+/*
+ * *******************************************************
+ * Copyright VMware, Inc. 2021.  All Rights Reserved.
+ * SPDX-License-Identifier: MIT
+ * *******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package vmware.samples.contentlibrary.bulkimport;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.cli.Option;
+
+import com.vmware.content.LibraryTypes.FindSpec;
+import com.vmware.content.library.ItemModel;
+import com.vmware.content.library.ItemTypes;
+
+import vmware.samples.common.BandwidthScheduler;
+import vmware.samples.common.HttpClient;
+import vmware.samples.common.SamplesAbstractBase;
+import vmware.samples.common.TransferMetrics;
+import vmware.samples.common.TransferProfile;
+import vmware.samples.contentlibrary.client.ClsApiClient;
+import vmware.samples.contentlibrary.helpers.ItemUploadHelper;
+
+/**
+ * Description: Demonstrates importing many library items into a content
+ * library concurrently. Every item is uploaded through its own update session
+ * while all items share one Content Library client and one HTTP connection
+ * pool. Items which fail are put in a retry queue and imported again once the
+ * other items are done.
+ *
+ * The source is either a directory tree or a manifest file. In a directory
+ * tree every directory holding an .ovf file becomes an OVF item made of all
+ * the files in that directory, and every .iso file becomes an ISO item. A
+ * manifest lists one directory or file per line; a directory becomes an item
+ * made of all its files and a file becomes a single-file item. Lines starting
+ * with '#' are ignored.
+ *
+ * Author: VMware, Inc.
+ * Sample Prerequisites: The sample needs an existing content library to place
+ * the library items.
+ */
+public class BulkItemImport extends SamplesAbstractBase {
+
+    private static final String OVF_ITEM_TYPE = "ovf";
+    private static final String ISO_ITEM_TYPE = "iso";
+
+    private String libName;
+    private String source;
+    private int parallelism = 4;
+    private int retries = 2;
+    private long bandwidthLimit;
+    private long partSize;
+    private ClsApiClient client;
+    private HttpClient httpClient;
+    private final Queue<String> createdItemIds =
+            new ConcurrentLinkedQueue<>();
+
+    /**
+     * Define the options specific to this sample and configure the sample using
+     * command-line arguments or a config file
+     *
+     * @param args command line arguments passed to the sample
+     */
+    protected void parseArgs(String[] args) {
+        Option libNameOption = Option.builder()
+            .longOpt("contentlibraryname")
+            .desc("The name of the content library where the library items "
+                  + "will be created.")
+            .required(true)
+            .hasArg()
+            .argName("CONTENT LIBRARY")
+            .build();
+        Option sourceOption = Option.builder()
+            .longOpt("source")
+            .desc("A directory tree holding the items to import, or a "
+                  + "manifest file listing one item directory or file per "
+                  + "line.")
+            .required(true)
+            .hasArg()
+            .argName("SOURCE")
+            .build();
+        Option parallelismOption = Option.builder()
+            .longOpt("parallelism")
+            .desc("OPTIONAL: The maximum number of items imported at the same "
+                  + "time. Defaults to 4.")
+            .required(false)
+            .hasArg()
+            .argName("PARALLELISM")
+            .build();
+        Option retriesOption = Option.builder()
+            .longOpt("retries")
+            .desc("OPTIONAL: The number of times failed items are imported "
+                  + "again. Defaults to 2.")
+            .required(false)
+            .hasArg()
+            .argName("RETRIES")
+            .build();
+
+        Option bandwidthOption = Option.builder()
+            .longOpt("bandwidthlimit")
+            .desc("OPTIONAL: The maximum combined upload rate in MB/s. The "
+                  + "imports run as background transfers. Defaults to no "
+                  + "limit.")
+            .required(false)
+            .hasArg()
+            .argName("MB/S")
+            .build();
+
+        Option partSizeOption = Option.builder()
+            .longOpt("partsize")
+            .desc("OPTIONAL: Files larger than this size in MB are uploaded "
+                  + "as concurrent ranged parts of this size. Defaults to "
+                  + "uploading every file as a single request.")
+            .required(false)
+            .hasArg()
+            .argName("MB")
+            .build();
+
+        List<Option> optionList = Arrays.asList(libNameOption, sourceOption,
+            parallelismOption, retriesOption, bandwidthOption,
+            partSizeOption);
+        super.parseArgs(optionList, args);
+        this.libName = (String) parsedOptions.get("contentlibraryname");
+        this.source = (String) parsedOptions.get("source");
+        if (parsedOptions.get("parallelism") != null) {
+            this.parallelism =
+                    Integer.parseInt((String) parsedOptions.get("parallelism"));
+        }
+        if (parsedOptions.get("retries") != null) {
+            this.retries =
+                    Integer.parseInt((String) parsedOptions.get("retries"));
+        }
+        if (parsedOptions.get("bandwidthlimit") != null) {
+            this.bandwidthLimit = Long.parseLong(
+                (String) parsedOptions.get("bandwidthlimit")) * 1024 * 1024;
+        }
+        if (parsedOptions.get("partsize") != null) {
+            this.partSize = Long.parseLong(
+                (String) parsedOptions.get("partsize")) * 1024 * 1024;
+        }
+    }
+
+    protected void setup() throws Exception {
+        // One client and one connection pool are shared by all the imports
+        this.client =
+                new ClsApiClient(this.vapiAuthHelper.getStubFactory(),
+                    this.sessionStubConfig);
+        // every item in flight may send its parts concurrently
+        int partParallelism =
+                this.partSize > 0 ? HttpClient.DEFAULT_PART_PARALLELISM : 1;
+        int connections = Math.max(this.parallelism, 1) * partParallelism;
+        TransferProfile profile = TransferProfile.bulkTransfer();
+        this.httpClient = new HttpClient(profile
+            .setMaxTotal(Math.max(profile.getMaxTotal(), connections))
+            .setMaxPerRoute(connections));
+        this.httpClient.setMultiPartUpload(this.partSize, partParallelism);
+        if (this.bandwidthLimit > 0) {
+            // leave the rest of the link to interactive traffic
+            this.httpClient.setBandwidthScheduler(
+                new BandwidthScheduler(this.bandwidthLimit),
+                BandwidthScheduler.BACKGROUND_WEIGHT);
+        }
+        // expose the transfer rates of every host while the import runs
+        TransferMetrics.getDefault().registerMBean();
+    }
+
+    protected void run() throws Exception {
+        FindSpec findSpec = new FindSpec();
+        findSpec.setName(this.libName);
+        List<String> libraryIds = this.client.libraryService().find(findSpec);
+        assert !libraryIds.isEmpty() : "Unable to find a library with name: "
+                                       + this.libName;
+        String libraryId = libraryIds.get(0);
+        System.out.println("Found library : " + libraryId);
+
+        List<ImportItem> items = findItems(Paths.get(this.source));
+        System.out.println("Importing " + items.size() + " items with "
+                           + "parallelism " + this.parallelism);
+
+        ExecutorService executor =
+                Executors.newFixedThreadPool(this.parallelism);
+        List<ImportItem> pending = items;
+        try {
+            for (int round = 0; round <= this.retries && !pending.isEmpty();
+                    round++) {
+                if (round > 0) {
+                    System.out.println("Retrying " + pending.size()
+                                       + " failed items, attempt "
+                                       + (round + 1));
+                }
+                pending = importItems(executor, libraryId, pending);
+            }
+        } finally {
+            executor.shutdownNow();
+            System.out.println("Connection pool : "
+                               + this.httpClient.getPoolStats());
+            // cleanup only runs with --cleardata, close the pool here
+            this.httpClient.close();
+        }
+        System.out.println("Transfers : " + TransferMetrics.getDefault());
+
+        long imported = items.size() - pending.size();
+        System.out.println("Imported " + imported + " of " + items.size()
+                           + " items");
+        for (ImportItem item : pending) {
+            System.out.println("Failed to import " + item.name + " : "
+                               + item.lastError);
+        }
+    }
+
+    /*
+     * Import the items concurrently and return the items which failed.
+     */
+    private List<ImportItem> importItems(ExecutorService executor,
+                                         final String libraryId,
+                                         List<ImportItem> items)
+            throws InterruptedException {
+        final Queue<ImportItem> retryQueue = new ConcurrentLinkedQueue<>();
+        final AtomicInteger done = new AtomicInteger();
+        final int total = items.size();
+        final CountDownLatch latch = new CountDownLatch(total);
+        for (final ImportItem item : items) {
+            executor.execute(() -> {
+                long start = System.nanoTime();
+                try {
+                    importItem(libraryId, item);
+                    System.out.println(String.format(
+                        "[%d/%d] %s imported in %.1f s",
+                        done.incrementAndGet(), total, item.name,
+                        (System.nanoTime() - start) / 1e9));
+                } catch (RuntimeException e) {
+                    item.lastError = e;
+                    retryQueue.add(item);
+                    System.out.println(String.format("[%d/%d] %s failed : %s",
+                        done.incrementAndGet(), total, item.name, e));
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        return new ArrayList<>(retryQueue);
+    }
+
+    /*
+     * Create the library item if needed and upload its files through an
+     * update session.
+     */
+    private void importItem(String libraryId, ImportItem item) {
+        if (item.itemId == null) {
+            item.itemId = findOrCreateItem(libraryId, item);
+        }
+        List<String> fileLocations = new ArrayList<>();
+        for (Path file : item.files) {
+            fileLocations.add(file.toAbsolutePath().toString());
+        }
+        ItemUploadHelper.performUpload(this.httpClient,
+            this.client.updateSession(),
+            this.client.updateSessionFileService(),
+            this.client.itemService(),
+            item.itemId,
+            fileLocations);
+    }
+
+    private String findOrCreateItem(String libraryId, ImportItem item) {
+        ItemTypes.FindSpec findSpec = new ItemTypes.FindSpec();
+        findSpec.setLibraryId(libraryId);
+        findSpec.setName(item.name);
+        List<String> itemIds = this.client.itemService().find(findSpec);
+        if (!itemIds.isEmpty()) {
+            return itemIds.get(0);
+        }
+
+        ItemModel createSpec = new ItemModel();
+        createSpec.setName(item.name);
+        createSpec.setLibraryId(libraryId);
+        createSpec.setType(item.type);
+        String itemId = this.client.itemService()
+            .create(UUID.randomUUID().toString(), createSpec);
+        this.createdItemIds.add(itemId);
+        return itemId;
+    }
+
+    /*
+     * Find the items to import in a directory tree or a manifest file.
+     */
+    private static List<ImportItem> findItems(Path source)
+            throws IOException {
+        final List<ImportItem> items = new ArrayList<>();
+        if (Files.isDirectory(source)) {
+            Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir,
+                        BasicFileAttributes attrs) throws IOException {
+                    if (filesWithExtension(dir, ".ovf").isEmpty()) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    /*
+                     * The whole directory is one OVF item, including any
+                     * ISO or nested directory in it.
+                     */
+                    items.add(new ImportItem(nameOf(dir), OVF_ITEM_TYPE,
+                        listFiles(dir)));
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file,
+                        BasicFileAttributes attrs) {
+                    if (hasExtension(file, ".iso")) {
+                        items.add(new ImportItem(nameOf(file), ISO_ITEM_TYPE,
+                            Collections.singletonList(file)));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            return items;
+        }
+
+        for (String line : Files.readAllLines(source,
+                StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            Path path = Paths.get(line);
+            if (Files.isDirectory(path)) {
+                String type = filesWithExtension(path, ".ovf").isEmpty()
+                        ? null : OVF_ITEM_TYPE;
+                items.add(new ImportItem(nameOf(path), type, listFiles(path)));
+            } else {
+                String type = hasExtension(path, ".iso") ? ISO_ITEM_TYPE : null;
+                items.add(new ImportItem(nameOf(path), type,
+                    Collections.singletonList(path)));
+            }
+        }
+        return items;
+    }
+
+    private static List<Path> listFiles(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(Files::isRegularFile)
+                        .filter(f -> !f.getFileName().toString()
+                                       .startsWith("."))
+                        .sorted()
+                        .collect(Collectors.toList());
+        }
+    }
+
+    private static List<Path> filesWithExtension(Path dir, String extension)
+            throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (Path file : listFiles(dir)) {
+            if (hasExtension(file, extension)) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    private static boolean hasExtension(Path path, String extension) {
+        return Files.isRegularFile(path) && path.getFileName().toString()
+            .toLowerCase().endsWith(extension);
+    }
+
+    private static String nameOf(Path path) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return Files.isRegularFile(path) && dot > 0
+                ? name.substring(0, dot) : name;
+    }
+
+    /**
+     * Clean up the library items created by the sample.
+     */
+    protected void cleanup() throws Exception {
+        for (String itemId : this.createdItemIds) {
+            this.client.itemService().delete(itemId);
+            System.out.println("Deleted library item : " + itemId);
+        }
+    }
+
+    /*
+     * A library item to import and the state of its import.
+     */
+    private static class ImportItem {
+        private final String name;
+        private final String type;
+        private final List<Path> files;
+        private volatile String itemId;
+        private volatile Exception lastError;
+
+        ImportItem(String name, String type, List<Path> files) {
+            this.name = name;
+            this.type = type;
+            this.files = files;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        /*
+         * Execute the sample using the command line arguments or parameters
+         * from the configuration file. This executes the following steps:
+         * 1. Parse the arguments required by the sample
+         * 2. Login to the server
+         * 3. Setup any resources required by the sample run
+         * 4. Run the sample
+         * 5. Cleanup any data created by the sample run, if cleanup=true
+         * 6. Logout of the server
+         */
+        new BulkItemImport().execute(args);
+    }
+}
@@ -39,6 +39,7 @@ public class ClsApiClient {
     private final Item itemService;
     private final SubscribedItem subscribedItemService;
     private final Storage storageService;
+    private final com.vmware.content.library.item.File itemFileService;
     private final DownloadSession downloadSessionService;
     private final File downloadSessionFileService;
     private final UpdateSession updateSessionService;
@@ -71,6 +72,8 @@ public class ClsApiClient {
         this.subscribedItemService = stubFactory
                 .createStub(SubscribedItem.class, stubConfig);
         this.storageService = stubFactory.createStub(Storage.class, stubConfig);
+        this.itemFileService = stubFactory.createStub(
+                com.vmware.content.library.item.File.class, stubConfig);
         this.downloadSessionService = stubFactory
                 .createStub(DownloadSession.class, stubConfig);
         this.downloadSessionFileService = stubFactory.createStub(File.class,
@@ -148,6 +151,16 @@ public class ClsApiClient {
         return this.storageService;
     }
 
+    /**
+     * Returns the service for retrieving the files of a library item, with
+     * their sizes and checksums.
+     *
+     * @return the {@code com.vmware.content.library.item.File} service.
+     */
+    public com.vmware.content.library.item.File itemFileService() {
+        return this.itemFileService;
+    }
+
     /**
      * Returns the service for managing sessions to download content.
      *
@@ -33,13 +33,15 @@ import com.vmware.content.library.StorageBacking;
 import com.vmware.content.library.item.UpdateSessionModel;
 import com.vmware.content.library.item.updatesession.FileTypes;
 
+import vmware.samples.common.HttpClient;
 import vmware.samples.common.SamplesAbstractBase;
 import vmware.samples.contentlibrary.client.ClsApiClient;
 import vmware.samples.contentlibrary.helpers.ItemUploadHelper;
 
 /**
  * Description: Demonstrates content library item content updates using
- * UpdateSession API.
+ * UpdateSession API, including a delta update which uploads only the files
+ * that changed.
  *
  * Author: VMware, Inc.
  * 
@@ -210,6 +212,36 @@ public class ContentUpdate extends SamplesAbstractBase {
 //                           + ", content version: " + contentVersionAfterUpdate);
 //        assert Integer.parseInt(contentVersionBeforeUpdate) + 1 == Integer
 //            .parseInt(contentVersionAfterUpdate);
+
+        // Content update scenario 3:
+        // Refresh the OVF item with the same OVF template through a delta
+        // update. Only the files whose size or checksum differ from the
+        // stored files are uploaded, so this refresh transfers nothing and
+        // leaves the content version unchanged.
+        contentVersionBeforeUpdate = contentVersionAfterUpdate;
+        HttpClient httpClient = new HttpClient(true);
+        boolean updated;
+        try {
+            updated = ItemUploadHelper.performDeltaUpload(
+                httpClient,
+                this.client.updateSession(),
+                this.client.updateSessionFileService(),
+                this.client.itemFileService(),
+                this.client.itemService(),
+                this.ovfItemId,
+                Arrays.asList(filePathMap.get(OVF_ITEM_TWO_OVF_FILE_NAME),
+                    filePathMap.get(OVF_ITEM_TWO_VMDK_FILE_NAME)),
+                true);
+        } finally {
+            httpClient.close();
+        }
+        ovfItem = this.client.itemService().get(this.ovfItemId);
+        contentVersionAfterUpdate = ovfItem.getContentVersion();
+        System.out.println("OVF Library Item Refreshed : " + this.ovfItemId
+                           + ", updated: " + updated + ", content version: "
+                           + contentVersionAfterUpdate);
+        assert !updated : "The refresh uploaded files";
+        assert contentVersionBeforeUpdate.equals(contentVersionAfterUpdate);
     }
 
     /**
@@ -296,27 +328,26 @@ public class ContentUpdate extends SamplesAbstractBase {
     }
 
     /**
-     * Generate and return OVF and VMDK files from class resources with the
-     * given OVF and VMDK file names.
+     * Return the locations of the OVF and VMDK class resources with the
+     * given OVF and VMDK file names. The resources are uploaded straight
+     * from the class path, without temporary copies.
      *
      * @param folderName the name of the folder that contains both files
      * @param ovfFileName the name of the OVF file
      * @param diskFileName the name of the VMDK file
-     * @return map of OVF file and VMDK file absolute path as below: {
-     *         <ovf-file-name>: <ovf-file-path>, <vmdk-file-name>:
-     *         <vmdk-file-path>}
-     * @throws IOException when an I/O error occurs
+     * @return map of OVF file and VMDK file locations as below: {
+     *         <ovf-file-name>: <ovf-file-location>, <vmdk-file-name>:
+     *         <vmdk-file-location>}
      */
     private Map<String, String>
             getVmTemplateFiles(String folderName, String ovfFileName,
-                               String diskFileName) throws IOException {
+                               String diskFileName) {
         Map<String, String> filePathMap = new HashMap<>();
-        java.io.File tempDir = ItemUploadHelper.createTempDir(folderName);
-        String ovfFile = ItemUploadHelper.copyResourceToFile(
-            folderName + "/" + ovfFileName, tempDir, ovfFileName);
+        String ovfFile = ItemUploadHelper.resourceLocation(
+            folderName + "/" + ovfFileName);
         filePathMap.put(ovfFileName, ovfFile);
-        String vmdkFile = ItemUploadHelper.copyResourceToFile(
-            folderName + "/" + diskFileName, tempDir, diskFileName);
+        String vmdkFile = ItemUploadHelper.resourceLocation(
+            folderName + "/" + diskFileName);
         filePathMap.put(diskFileName, vmdkFile);
 
         System.out.println("OVF Path : " + ovfFile);
@@ -326,19 +357,17 @@ public class ContentUpdate extends SamplesAbstractBase {
     }
 
     /**
-     * Generate and return the ISO file from the class resources with the given
-     * ISO file name.
+     * Return the location of the ISO class resource with the given ISO file
+     * name. The resource is uploaded straight from the class path, without a
+     * temporary copy.
      *
      * @param folderName the name of the folder that contains the ISO file
      * @param isoFileName the name of the ISO file
-     * @return the absolute path to the ISO file
-     * @throws IOException when an I/O error occurs
+     * @return the location of the ISO file
      */
-    private String getIsoFile(String folderName, String isoFileName)
-            throws IOException {
-        java.io.File tempDir = ItemUploadHelper.createTempDir(folderName);
-        String isoFile = ItemUploadHelper.copyResourceToFile(
-            folderName + "/" + isoFileName, tempDir, isoFileName);
+    private String getIsoFile(String folderName, String isoFileName) {
+        String isoFile = ItemUploadHelper.resourceLocation(
+            folderName + "/" + isoFileName);
 
         System.out.println("Iso Image Path : " + isoFile);
         return isoFile;
@@ -0,0 +1,215 @@
+/*
+ * *******************************************************
+ * Copyright VMware, Inc. 2021.  All Rights Reserved.
+ * SPDX-License-Identifier: MIT
+ * *******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package vmware.samples.contentlibrary.helpers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs many deployments of library items concurrently, with at most
+ * {@code parallelism} deployments in flight, and reports the latency of
+ * every deployment.
+ *
+ * <p>The placement of the deployments should be resolved before they are
+ * added, once per target, so that each deployment only makes the deploy
+ * call itself. A failed deployment does not stop the others.</p>
+ */
+public class BatchDeployHelper {
+
+    /**
+     * Default number of deployments in flight.
+     */
+    public static final int DEFAULT_PARALLELISM = 8;
+
+    private final int parallelism;
+    private final List<Deployment> deployments = new ArrayList<>();
+
+    /**
+     * Creates a batch with the default parallelism.
+     */
+    public BatchDeployHelper() {
+        this(DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Creates a batch.
+     *
+     * @param parallelism the maximum number of deployments in flight
+     */
+    public BatchDeployHelper(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Adds a deployment to the batch.
+     *
+     * @param vmName the name of the VM to deploy
+     * @param target a description of the placement target, for the report
+     * @param deploy deploys the VM and returns its identifier
+     */
+    public void add(String vmName, String target, Callable<String> deploy) {
+        deployments.add(new Deployment(vmName, target, deploy));
+    }
+
+    /**
+     * Runs all the deployments of the batch and waits for them to finish.
+     *
+     * @return the outcome of the deployments, in the order they were added
+     * @throws InterruptedException if the current thread was interrupted
+     */
+    public List<Deployment> deployAll() throws InterruptedException {
+        if (deployments.isEmpty()) {
+            return deployments;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(
+            Math.min(parallelism, deployments.size()));
+        try {
+            List<Future<?>> futures = new ArrayList<>(deployments.size());
+            for (final Deployment deployment : deployments) {
+                futures.add(executor.submit(deployment::run));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // the deployments record their own exceptions, only
+                    // errors end up here
+                    throw new RuntimeException(e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return deployments;
+    }
+
+    /**
+     * Prints the outcome of every deployment and the latency percentiles of
+     * the successful ones.
+     *
+     * @param deployments the deployments returned by {@link #deployAll()}
+     * @param elapsedMillis the wall clock time of the batch
+     */
+    public static void printReport(List<Deployment> deployments,
+                                   long elapsedMillis) {
+        List<Long> latencies = new ArrayList<>();
+        long serialMillis = 0;
+        for (Deployment deployment : deployments) {
+            System.out.println("  " + deployment);
+            serialMillis += deployment.latencyMillis;
+            if (deployment.isSucceeded()) {
+                latencies.add(deployment.latencyMillis);
+            }
+        }
+        System.out.println(latencies.size() + " of " + deployments.size()
+                           + " deployments succeeded in " + elapsedMillis
+                           + " ms, " + serialMillis
+                           + " ms if run one after the other");
+        if (!latencies.isEmpty()) {
+            Collections.sort(latencies);
+            System.out.println("Deploy latency : p50 "
+                               + percentile(latencies, 50) + " ms, p90 "
+                               + percentile(latencies, 90) + " ms, p99 "
+                               + percentile(latencies, 99) + " ms, max "
+                               + latencies.get(latencies.size() - 1)
+                               + " ms");
+        }
+    }
+
+    private static long percentile(List<Long> sorted, int percent) {
+        int index = (int) Math.ceil(percent / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(index, 0));
+    }
+
+    /**
+     * One deployment of a batch.
+     */
+    public static class Deployment {
+        private final String vmName;
+        private final String target;
+        private final Callable<String> deploy;
+        private volatile String vmId;
+        private volatile long latencyMillis;
+        private volatile Exception error;
+
+        Deployment(String vmName, String target, Callable<String> deploy) {
+            this.vmName = vmName;
+            this.target = target;
+            this.deploy = deploy;
+        }
+
+        public String getVmName() {
+            return vmName;
+        }
+
+        public String getTarget() {
+            return target;
+        }
+
+        /**
+         * Returns the identifier of the deployed VM, or null if the
+         * deployment failed or did not run.
+         */
+        public String getVmId() {
+            return vmId;
+        }
+
+        public long getLatencyMillis() {
+            return latencyMillis;
+        }
+
+        /**
+         * Returns the error of a failed deployment, or null.
+         */
+        public Exception getError() {
+            return error;
+        }
+
+        public boolean isSucceeded() {
+            return vmId != null;
+        }
+
+        private void run() {
+            long start = System.nanoTime();
+            try {
+                vmId = deploy.call();
+                System.out.println("Vm created : " + vmName + " (" + vmId
+                                   + ") on " + target);
+            } catch (Exception e) {
+                error = e;
+                System.out.println("Failed to deploy " + vmName + " on "
+                                   + target + " : " + e);
+            } finally {
+                latencyMillis = TimeUnit.NANOSECONDS.toMillis(
+                    System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return vmName + " on " + target + " : "
+                   + (isSucceeded() ? vmId : "failed : " + error) + " in "
+                   + latencyMillis + " ms";
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * *******************************************************
+ * Copyright VMware, Inc. 2021.  All Rights Reserved.
+ * SPDX-License-Identifier: MIT
+ * *******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package vmware.samples.contentlibrary.helpers;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.vmware.content.library.item.FileTypes.ChecksumAlgorithm;
+import com.vmware.content.library.item.FileTypes.ChecksumInfo;
+
+/**
+ * Helper class to compute and compare the checksums reported by the Content
+ * Library file APIs.
+ */
+public class ChecksumHelper {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    // OVF manifest entry, e.g. SHA256(disk1.vmdk)= 3f2a...
+    private static final Pattern MANIFEST_ENTRY = Pattern.compile(
+            "^\\s*(SHA1|SHA256|SHA512|MD5)\\((.+)\\)\\s*=\\s*"
+            + "([0-9a-fA-F]+)\\s*$");
+
+    /**
+     * Returns the JCA name of the digest for the checksum algorithm.
+     *
+     * @param algorithm the Content Library checksum algorithm
+     * @return the name accepted by {@link MessageDigest#getInstance}
+     */
+    public static String digestName(ChecksumAlgorithm algorithm) {
+        switch (algorithm.name()) {
+        case "SHA1":
+            return "SHA-1";
+        case "SHA256":
+            return "SHA-256";
+        case "SHA512":
+            return "SHA-512";
+        case "MD5":
+            return "MD5";
+        default:
+            throw new IllegalArgumentException(
+                    "Unsupported checksum algorithm " + algorithm);
+        }
+    }
+
+    /**
+     * Returns the checksum algorithm with the given Content Library name,
+     * such as SHA256.
+     *
+     * @param name the name of the algorithm
+     * @return the checksum algorithm
+     */
+    public static ChecksumAlgorithm algorithm(String name) {
+        switch (name) {
+        case "SHA1":
+            return ChecksumAlgorithm.SHA1;
+        case "SHA256":
+            return ChecksumAlgorithm.SHA256;
+        case "SHA512":
+            return ChecksumAlgorithm.SHA512;
+        case "MD5":
+            return ChecksumAlgorithm.MD5;
+        default:
+            throw new IllegalArgumentException(
+                    "Unsupported checksum algorithm " + name);
+        }
+    }
+
+    /**
+     * Reads the checksums listed in an OVF manifest (.mf) stream.
+     *
+     * @param manifest the content of the manifest, left open
+     * @return the checksum info of each listed file, keyed by file name
+     * @throws IOException when an I/O error occurs
+     */
+    public static Map<String, ChecksumInfo> readManifest(InputStream manifest)
+            throws IOException {
+        Map<String, ChecksumInfo> checksums = new HashMap<>();
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(manifest, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            Matcher matcher = MANIFEST_ENTRY.matcher(line);
+            if (matcher.matches()) {
+                ChecksumInfo checksumInfo = new ChecksumInfo();
+                checksumInfo.setAlgorithm(algorithm(matcher.group(1)));
+                checksumInfo.setChecksum(matcher.group(3).toLowerCase());
+                checksums.put(matcher.group(2), checksumInfo);
+            }
+        }
+        return checksums;
+    }
+
+    /**
+     * Creates a new digest for the checksum algorithm.
+     *
+     * @param algorithm the Content Library checksum algorithm
+     * @return a fresh digest
+     */
+    public static MessageDigest newDigest(ChecksumAlgorithm algorithm) {
+        try {
+            return MessageDigest.getInstance(digestName(algorithm));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Checks whether the digest matches the checksum reported by the server.
+     *
+     * @param checksumInfo the checksum reported by the server
+     * @param digest the computed digest
+     * @return true if both checksums are the same
+     */
+    public static boolean matches(ChecksumInfo checksumInfo, byte[] digest) {
+        return checksumInfo.getChecksum().equalsIgnoreCase(toHex(digest));
+    }
+
+    /**
+     * Updates the digest with the first {@code length} bytes of the file.
+     *
+     * @param digest the digest to update
+     * @param path the file to read
+     * @param length the number of bytes to read
+     * @throws IOException when an I/O error occurs
+     */
+    public static void update(MessageDigest digest, Path path, long length)
+            throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            update(digest, in, length);
+        }
+    }
+
+    /**
+     * Updates the digest with the first {@code length} bytes of the stream.
+     *
+     * @param digest the digest to update
+     * @param in the stream to read, left open
+     * @param length the number of bytes to read
+     * @throws IOException when an I/O error occurs
+     */
+    public static void update(MessageDigest digest, InputStream in,
+            long length) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        long remaining = length;
+        while (remaining > 0) {
+            int n = in.read(buffer, 0,
+                    (int) Math.min(buffer.length, remaining));
+            if (n < 0) {
+                throw new IOException("Unexpected end of stream");
+            }
+            digest.update(buffer, 0, n);
+            remaining -= n;
+        }
+    }
+
+    /**
+     * Returns the lower case hexadecimal form of the bytes.
+     */
+    public static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
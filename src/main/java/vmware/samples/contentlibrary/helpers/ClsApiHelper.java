@@ -13,11 +13,22 @@
 package vmware.samples.contentlibrary.helpers;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import com.vmware.content.LibraryModel;
 import com.vmware.content.library.ItemModel;
+import vmware.samples.common.Poller;
 import vmware.samples.contentlibrary.client.ClsApiClient;
 
 /**
@@ -25,7 +36,13 @@ import vmware.samples.contentlibrary.client.ClsApiClient;
  */
 public class ClsApiHelper {
 
+    /**
+     * Default number of library items fetched concurrently.
+     */
+    public static final int DEFAULT_PARALLELISM = 16;
+
     private final ClsApiClient client;
+    private final int parallelism;
 
     /**
      * Constructs an instance of the Content Library API helper.
@@ -33,7 +50,41 @@ public class ClsApiHelper {
      * @param client the Content Library API client
      */
     public ClsApiHelper(ClsApiClient client) {
+        this(client, DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Constructs an instance of the Content Library API helper.
+     *
+     * @param client the Content Library API client
+     * @param parallelism the maximum number of library items fetched
+     *        concurrently
+     */
+    public ClsApiHelper(ClsApiClient client, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
         this.client = client;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Checks once whether the subscribed library is synchronized with the
+     * published library. The published and subscribed items are each fetched
+     * once, concurrently, and compared locally.
+     *
+     * @param pubLibraryId the identifier of the published library
+     * @param subLibraryId the identifier of the subscribed library
+     * @return the synchronization state of the subscribed items
+     */
+    public SyncReport checkLibrarySync(String pubLibraryId,
+                                       String subLibraryId) {
+        Map<String, ItemModel> pubItems =
+                getItems(client.itemService().list(pubLibraryId));
+        Map<String, ItemModel> subItems =
+                getItems(client.itemService().list(subLibraryId));
+        return compareItems(pubItems, subItems.values(),
+            new HashMap<String, String>());
     }
 
     /**
@@ -76,20 +127,169 @@ public class ClsApiHelper {
     }
 
 
+    /*
+     * Compare the subscribed items with the published items. Subscribed
+     * items found to be synchronized are added to syncedItems, which also
+     * holds the items found synchronized in earlier passes.
+     */
+    static SyncReport compareItems(Map<String, ItemModel> pubItems,
+                                   Collection<ItemModel> subItems,
+                                   Map<String, String> syncedItems) {
+        List<String> laggingItemIds = new ArrayList<>();
+        Set<String> presentSourceIds = new HashSet<>(syncedItems.values());
+        for (ItemModel subItem : subItems) {
+            ItemModel pubItem = pubItems.get(subItem.getSourceId());
+            if (pubItem == null) {
+                laggingItemIds.add(subItem.getId());
+                continue;
+            }
+            presentSourceIds.add(pubItem.getId());
+            if (isSubscribedItemLatest(pubItem, subItem)) {
+                syncedItems.put(subItem.getId(), pubItem.getId());
+            } else {
+                laggingItemIds.add(subItem.getId());
+            }
+        }
+
+        List<String> missingSourceIds = new ArrayList<>();
+        for (String pubItemId : pubItems.keySet()) {
+            if (!presentSourceIds.contains(pubItemId)) {
+                missingSourceIds.add(pubItemId);
+            }
+        }
+        return new SyncReport(new ArrayList<>(syncedItems.keySet()),
+            laggingItemIds, missingSourceIds);
+    }
+
+    /*
+     * Check if the subscribed item has the same metadata and content version
+     * as the source published item.
+     */
+    private static boolean isSubscribedItemLatest(ItemModel pubItem,
+                                                  ItemModel subItem) {
+        String metadataVersion = pubItem.getMetadataVersion();
+        String contentVersion = pubItem.getContentVersion();
+
+        return subItem.getMetadataVersion().equals(metadataVersion)
+               && subItem.getContentVersion().equals(contentVersion);
+    }
+
+    /*
+     * Fetch the library items concurrently, keyed by item identifier, on a
+     * pool created for this call only.
+     */
+    Map<String, ItemModel> getItems(Collection<String> itemIds) {
+        if (itemIds.isEmpty()) {
+            return new ConcurrentHashMap<>();
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(
+            Math.min(parallelism, itemIds.size()));
+        try {
+            return getItems(itemIds, executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /*
+     * Create a pool for fetching library items, to be reused by
+     * getItems(Collection, ExecutorService) across the passes of a wait.
+     */
+    ExecutorService newItemExecutor() {
+        return Executors.newFixedThreadPool(parallelism);
+    }
+
+    /*
+     * Fetch the library items concurrently on the given pool, keyed by item
+     * identifier.
+     */
+    Map<String, ItemModel> getItems(Collection<String> itemIds,
+                                    ExecutorService executor) {
+        final Map<String, ItemModel> items = new ConcurrentHashMap<>();
+        try {
+            List<Future<?>> futures = new ArrayList<>(itemIds.size());
+            for (final String itemId : itemIds) {
+                futures.add(executor.submit(() ->
+                    items.put(itemId, client.itemService().get(itemId))));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while fetching items", e);
+        }
+        return items;
+    }
+
+    /**
+     * Synchronization state of the items of a subscribed library.
+     */
+    public static class SyncReport {
+        private final List<String> syncedItemIds;
+        private final List<String> laggingItemIds;
+        private final List<String> missingSourceIds;
+
+        SyncReport(List<String> syncedItemIds, List<String> laggingItemIds,
+                   List<String> missingSourceIds) {
+            this.syncedItemIds = syncedItemIds;
+            this.laggingItemIds = laggingItemIds;
+            this.missingSourceIds = missingSourceIds;
+        }
+
+        /**
+         * Returns the subscribed items which have the same versions as their
+         * source items.
+         */
+        public List<String> getSyncedItemIds() {
+            return syncedItemIds;
+        }
+
+        /**
+         * Returns the subscribed items which are behind their source items
+         * or whose source item is no longer published.
+         */
+        public List<String> getLaggingItemIds() {
+            return laggingItemIds;
+        }
+
+        /**
+         * Returns the published items which have no subscribed item yet.
+         */
+        public List<String> getMissingSourceIds() {
+            return missingSourceIds;
+        }
+
+        /**
+         * Returns true if every published item has an up to date subscribed
+         * item and there are no other subscribed items.
+         */
+        public boolean isSynced() {
+            return laggingItemIds.isEmpty() && missingSourceIds.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "synced : " + syncedItemIds.size() + ", lagging : "
+                   + laggingItemIds + ", missing : " + missingSourceIds;
+        }
+    }
+
     /**
      * Helper class to wait for the subscribed libraries and items to be
      * synchronized completely with their source.
      */
     private class SyncHelper {
 
-        private static final long WAIT_INTERVAL_MS = 1000;
-
-        private final long startTime;
-        private final long timeoutNano;
+        private final Poller poller;
 
         public SyncHelper(long timeout, TimeUnit unit) {
-            this.startTime = System.nanoTime();
-            this.timeoutNano = TimeUnit.NANOSECONDS.convert(timeout, unit);
+            this.poller = new Poller(timeout, unit);
         }
 
         /*
@@ -97,135 +297,71 @@ public class ClsApiHelper {
          * the published library.
          */
         public boolean waitForLibrarySync(String pubLibraryId,
-                                          String subLibraryId)
+                                          final String subLibraryId)
                                                   throws InterruptedException {
-
-            if (!waitForSameItems(pubLibraryId, subLibraryId)) {
-                return false;
-            }
-
-            List<String> subItemIds = client.itemService().list(subLibraryId);
-            for (String subItemId : subItemIds) {
-                if (!waitForItemSync(subItemId)) {
-                    return false;
-                }
+            // one pool for all the passes
+            final ExecutorService executor = newItemExecutor();
+            final SyncReport[] report = new SyncReport[1];
+            boolean itemsSynced;
+            try {
+                // the published items do not change while we wait
+                final Map<String, ItemModel> pubItems = getItems(
+                    client.itemService().list(pubLibraryId), executor);
+                // subscribed item id -> source item id of the synced items
+                final Map<String, String> syncedItems = new HashMap<>();
+
+                itemsSynced = poller.await(() -> {
+                    List<String> subItemIds =
+                            client.itemService().list(subLibraryId);
+                    // forget the synced items deleted since
+                    syncedItems.keySet().retainAll(subItemIds);
+                    // only the items which were lagging are fetched again
+                    List<String> toCheck = new ArrayList<>();
+                    for (String subItemId : subItemIds) {
+                        if (!syncedItems.containsKey(subItemId)) {
+                            toCheck.add(subItemId);
+                        }
+                    }
+                    report[0] = compareItems(pubItems,
+                        getItems(toCheck, executor).values(), syncedItems);
+                    return report[0].isSynced();
+                });
+            } finally {
+                executor.shutdownNow();
             }
-
-            if (!waitForLibraryLastSyncTime(subLibraryId)) {
+            if (!itemsSynced) {
+                System.out.println("Subscribed library " + subLibraryId
+                    + " is not synchronized : " + report[0]);
                 return false;
             }
 
-            return true;
+            return waitForLibraryLastSyncTime(subLibraryId);
         }
 
         /*
          * Wait until the subscribed item is synchronized with the published
          * item.
          */
-        public boolean waitForItemSync(String subItemId)
+        public boolean waitForItemSync(final String subItemId)
                 throws InterruptedException {
-            boolean isSynced = false;
             String pubItemId =
                     client.itemService().get(subItemId).getSourceId();
-            ItemModel pubItem = client.itemService().get(pubItemId);
-
-            while (notTimedOut()) {
-                ItemModel subItem = client.itemService().get(subItemId);
-                if (isSubscribedItemLatest(pubItem, subItem)) {
-                    isSynced = true;
-                    break;
-                }
+            final ItemModel pubItem = client.itemService().get(pubItemId);
 
-                Thread.sleep(WAIT_INTERVAL_MS);
-            }
-            return isSynced;
-        }
-
-        /*
-         * Wait until the subscribed library has the same source item IDs as the
-         * published library.
-         */
-        private boolean waitForSameItems(String pubLibraryId,
-                                         String subLibraryId)
-                                                 throws InterruptedException {
-            boolean isSynced = false;
-            List<String> pubItemIds = client.itemService().list(pubLibraryId);
-
-            while (notTimedOut()) {
-                List<String> subItemIds =
-                        client.itemService().list(subLibraryId);
-                if (hasSameItems(pubItemIds, subItemIds)) {
-                    isSynced = true;
-                    break;
-                }
-
-                Thread.sleep(WAIT_INTERVAL_MS);
-            }
-            return isSynced;
-        }
-
-        /*
-         * Check if the subscribed library contains the same items as the source
-         * published library. The item versions are not checked.
-         */
-        private boolean hasSameItems(List<String> pubItemIds,
-                                     List<String> subItemIds) {
-            if (pubItemIds.size() != subItemIds.size()) {
-                return false;
-            }
-
-            List<String> syncedIds = new ArrayList<>(pubItemIds.size());
-            for (String subItemId : subItemIds) {
-                ItemModel subItem = client.itemService().get(subItemId);
-                String sourceId = subItem.getSourceId();
-                if (!syncedIds.contains(subItemId)
-                    && pubItemIds.contains(sourceId)) {
-                    syncedIds.add(subItemId);
-                }
-            }
-
-            return (pubItemIds.size() == syncedIds.size());
+            return poller.await(() -> isSubscribedItemLatest(pubItem,
+                    client.itemService().get(subItemId)));
         }
 
         /*
          * Wait until the subscribed library's last sync time is populated.
          */
-        private boolean waitForLibraryLastSyncTime(String subLibraryId)
+        private boolean waitForLibraryLastSyncTime(final String subLibraryId)
                 throws InterruptedException {
-            boolean isSynced = false;
-
-            while (notTimedOut()) {
+            return poller.await(() -> {
                 LibraryModel library =
                         client.subscribedLibraryService().get(subLibraryId);
-                if (library.getLastSyncTime() != null) {
-                    isSynced = true;
-                    break;
-                }
-
-                Thread.sleep(WAIT_INTERVAL_MS);
-            }
-            return isSynced;
-        }
-
-        /*
-         * Check if the subscribed item has the same metadata and content
-         * version as the source published item.
-         */
-        private boolean isSubscribedItemLatest(ItemModel pubItem,
-                                               ItemModel subItem) {
-            String metadataVersion = pubItem.getMetadataVersion();
-            String contentVersion = pubItem.getContentVersion();
-
-            return subItem.getMetadataVersion().equals(metadataVersion)
-                   && subItem.getContentVersion().equals(contentVersion);
-        }
-
-        /*
-         * Check if we have not timed out yet.
-         */
-        private boolean notTimedOut() {
-            long elapsedTime = System.nanoTime() - startTime;
-            return elapsedTime < timeoutNano;
+                return library.getLastSyncTime() != null;
+            });
         }
     }
 }
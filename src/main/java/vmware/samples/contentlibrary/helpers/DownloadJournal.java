@@ -0,0 +1,139 @@
+/*
+ * *******************************************************
+ * Copyright VMware, Inc. 2021.  All Rights Reserved.
+ * SPDX-License-Identifier: MIT
+ * *******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package vmware.samples.contentlibrary.helpers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+import com.vmware.content.library.item.FileTypes.ChecksumInfo;
+import com.vmware.content.library.item.downloadsession.FileTypes;
+
+/**
+ * Sidecar progress journal of a resumable download. The journal records the
+ * size and checksum of the file being downloaded together with the number of
+ * bytes safely written to the partial file, so an interrupted download can
+ * continue where it stopped as long as the remote file has not changed.
+ */
+class DownloadJournal {
+
+    static final String JOURNAL_SUFFIX = ".journal";
+    static final String PART_SUFFIX = ".part";
+
+    private static final String SIZE = "size";
+    private static final String CHECKSUM = "checksum";
+    private static final String BYTES = "bytes";
+
+    private final Path journalPath;
+    private final Properties properties;
+
+    private DownloadJournal(Path journalPath, Properties properties) {
+        this.journalPath = journalPath;
+        this.properties = properties;
+    }
+
+    /**
+     * Opens the journal of the target file. An existing journal is only kept
+     * when it was written for a file with the same size and checksum.
+     *
+     * @param target the final location of the downloaded file
+     * @param fileInfo the download session file being downloaded
+     * @return the journal
+     * @throws IOException when an I/O error occurs
+     */
+    static DownloadJournal open(Path target, FileTypes.Info fileInfo)
+            throws IOException {
+        Path journalPath = Paths.get(target + JOURNAL_SUFFIX);
+        Properties expected = new Properties();
+        expected.setProperty(SIZE, String.valueOf(fileInfo.getSize()));
+        expected.setProperty(CHECKSUM, describe(fileInfo.getChecksumInfo()));
+        expected.setProperty(BYTES, "0");
+
+        if (Files.exists(journalPath)) {
+            Properties existing = new Properties();
+            try (InputStream in = Files.newInputStream(journalPath)) {
+                existing.load(in);
+            }
+            if (expected.getProperty(SIZE).equals(existing.getProperty(SIZE))
+                && expected.getProperty(CHECKSUM)
+                           .equals(existing.getProperty(CHECKSUM))) {
+                return new DownloadJournal(journalPath, existing);
+            }
+            System.out.println("Discarding stale download journal : "
+                    + journalPath);
+        }
+        DownloadJournal journal = new DownloadJournal(journalPath, expected);
+        journal.record(0);
+        return journal;
+    }
+
+    /**
+     * Returns the offset to resume the download from, which is the number of
+     * journaled bytes that are actually present in the partial file.
+     *
+     * @param partPath the partial file
+     * @return the offset to resume from
+     * @throws IOException when an I/O error occurs
+     */
+    long resumeOffset(Path partPath) throws IOException {
+        if (!Files.exists(partPath)) {
+            return 0;
+        }
+        return Math.min(bytes(), Files.size(partPath));
+    }
+
+    /**
+     * Returns the number of bytes recorded in the journal.
+     */
+    long bytes() {
+        return Long.parseLong(properties.getProperty(BYTES, "0"));
+    }
+
+    /**
+     * Records that the first {@code bytes} bytes of the partial file have
+     * been written to disk.
+     *
+     * @param bytes the number of bytes written
+     * @throws IOException when an I/O error occurs
+     */
+    void record(long bytes) throws IOException {
+        properties.setProperty(BYTES, String.valueOf(bytes));
+        Path tempPath = Paths.get(journalPath + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tempPath)) {
+            properties.store(out, "Content Library download journal");
+        }
+        Files.move(tempPath, journalPath, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Deletes the journal once the download is complete or abandoned.
+     *
+     * @throws IOException when an I/O error occurs
+     */
+    void delete() throws IOException {
+        Files.deleteIfExists(journalPath);
+    }
+
+    private static String describe(ChecksumInfo checksumInfo) {
+        if (checksumInfo == null || checksumInfo.getChecksum() == null) {
+            return "";
+        }
+        return checksumInfo.getAlgorithm() + ":" + checksumInfo.getChecksum();
+    }
+}
@@ -17,20 +17,39 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import com.vmware.content.library.Item;
+import com.vmware.content.library.ItemModel;
 import com.vmware.content.library.item.DownloadSession;
 import com.vmware.content.library.item.DownloadSessionModel;
+import com.vmware.content.library.item.FileTypes.ChecksumInfo;
 import com.vmware.content.library.item.downloadsession.File;
 import com.vmware.content.library.item.downloadsession.FileTypes;
 import com.vmware.content.library.item.downloadsession.FileTypes.EndpointType;
 
 import vmware.samples.common.HttpClient;
+import vmware.samples.common.Poller;
+import vmware.samples.common.TransferMetrics;
+import vmware.samples.common.TransferProfile;
+import vmware.samples.common.TransferStats;
 
 public class ItemDownloadHelper {
 
@@ -47,15 +66,156 @@ public class ItemDownloadHelper {
     public static void performDownload(DownloadSession downloadService,
             File downloadFileService, Item libItemService, String libraryItemId,
             java.io.File dir) {
+        performDownload(downloadService, downloadFileService, libItemService,
+                libraryItemId, dir, false);
+    }
+
+    /**
+     * Performing the library item download. In resumable mode every file is
+     * written to a partial file next to a progress journal, interrupted
+     * transfers continue from the last journaled byte using HTTP Range
+     * requests, and the downloaded file is verified against the checksum
+     * reported by the download session.
+     *
+     * @param downloadService
+     * @param downloadFileService
+     * @param libItemService
+     * @param libraryItemId
+     * @param dir
+     * @param resumable true to download the files in resumable mode
+     */
+    public static void performDownload(DownloadSession downloadService,
+            File downloadFileService, Item libItemService, String libraryItemId,
+            java.io.File dir, boolean resumable) {
+        performDownload(downloadService, downloadFileService, libItemService,
+                libraryItemId, dir, resumable, 1);
+    }
+
+    /**
+     * Performing the library item download. With a parallelism greater than
+     * one all files are prepared up front, their readiness is watched
+     * together and every file is streamed as soon as it is prepared, with at
+     * most {@code parallelism} transfers running at the same time.
+     *
+     * @param downloadService
+     * @param downloadFileService
+     * @param libItemService
+     * @param libraryItemId
+     * @param dir
+     * @param resumable true to download the files in resumable mode
+     * @param parallelism the maximum number of concurrent file transfers
+     */
+    public static void performDownload(DownloadSession downloadService,
+            File downloadFileService, Item libItemService, String libraryItemId,
+            java.io.File dir, boolean resumable, int parallelism) {
+        performDownload(downloadService, downloadFileService, libItemService,
+                libraryItemId, dir, resumable, parallelism, null);
+    }
+
+    /**
+     * Performing the library item download through a local cache. The cache
+     * is looked up by library item id and content version before a download
+     * session is opened; on a hit the files are copied from the cache, on a
+     * miss they are downloaded and then added to the cache.
+     *
+     * @param downloadService
+     * @param downloadFileService
+     * @param libItemService
+     * @param libraryItemId
+     * @param dir
+     * @param resumable true to download the files in resumable mode
+     * @param parallelism the maximum number of concurrent file transfers
+     * @param cache the cache of library item files, or null for none
+     */
+    public static void performDownload(DownloadSession downloadService,
+            File downloadFileService, Item libItemService, String libraryItemId,
+            java.io.File dir, boolean resumable, int parallelism,
+            ItemFileCache cache) {
+        HttpClient httpClient = parallelism > 1
+                ? new HttpClient(TransferProfile.bulkTransfer())
+                : new HttpClient(true);
+        try {
+            performDownload(httpClient, downloadService, downloadFileService,
+                    libItemService, libraryItemId, dir, resumable,
+                    parallelism, cache);
+        } finally {
+            httpClient.close();
+        }
+    }
+
+    /**
+     * Performing the library item download with the given http client, so
+     * that the downloads of several items share its connection pool and its
+     * bandwidth scheduler. The client is not closed.
+     *
+     * @param httpClient
+     * @param downloadService
+     * @param downloadFileService
+     * @param libItemService
+     * @param libraryItemId
+     * @param dir
+     */
+    public static void performDownload(HttpClient httpClient,
+            DownloadSession downloadService, File downloadFileService,
+            Item libItemService, String libraryItemId, java.io.File dir) {
+        performDownload(httpClient, downloadService, downloadFileService,
+                libItemService, libraryItemId, dir, false, 1, null);
+    }
+
+    /**
+     * Performing the library item download with the given http client, see
+     * {@link #performDownload(DownloadSession, File, Item, String,
+     * java.io.File, boolean, int, ItemFileCache)}. The client is not closed.
+     *
+     * @param httpClient
+     * @param downloadService
+     * @param downloadFileService
+     * @param libItemService
+     * @param libraryItemId
+     * @param dir
+     * @param resumable true to download the files in resumable mode
+     * @param parallelism the maximum number of concurrent file transfers
+     * @param cache the cache of library item files, or null for none
+     */
+    public static void performDownload(HttpClient httpClient,
+            DownloadSession downloadService, File downloadFileService,
+            Item libItemService, String libraryItemId, java.io.File dir,
+            boolean resumable, int parallelism, ItemFileCache cache) {
+        ItemModel libItem = libItemService.get(libraryItemId);
         System.out.println("Download start for Library Item : " + libraryItemId
-                + " Name : " + libItemService.get(libraryItemId).getName());
+                + " Name : " + libItem.getName());
+        String contentVersion = libItem.getContentVersion();
+        if (cache != null && cache.restore(libraryItemId, contentVersion,
+                dir)) {
+            System.out.println("Restored content version " + contentVersion
+                    + " from the cache");
+            return;
+        }
         String downloadSessionId = null;
         try {
             // create download session
             downloadSessionId = createDownloadSession(downloadService,
                     libraryItemId, UUID.randomUUID().toString());
-            downloadFiles(downloadService, downloadFileService,
-                    downloadSessionId, dir);
+            if (parallelism > 1) {
+                downloadFilesParallel(httpClient, downloadService,
+                        downloadFileService, downloadSessionId, dir,
+                        resumable, parallelism);
+            } else {
+                downloadFiles(httpClient, downloadService,
+                        downloadFileService, downloadSessionId, dir,
+                        resumable);
+            }
+            // the item may have changed while the files were downloaded
+            if (cache != null && contentVersion != null
+                && contentVersion.equals(libItemService.get(libraryItemId)
+                        .getContentVersion())) {
+                List<String> fileNames = new ArrayList<>();
+                for (FileTypes.Info fileInfo : downloadFileService
+                        .list(downloadSessionId)) {
+                    fileNames.add(fileInfo.getName());
+                }
+                cache.store(libraryItemId, contentVersion, dir, fileNames);
+            }
             // delete the download session.
         } finally {
             downloadService.delete(downloadSessionId);
@@ -65,15 +225,17 @@ public class ItemDownloadHelper {
     /**
      * Downloading files from library item using the download session.
      *
+     * @param httpClient
      * @param downloadService
      * @param downloadFileService
      * @param sessionId
      * @param dir
+     * @param resumable
      * @return
      */
-    private static void downloadFiles(DownloadSession downloadService,
-            File downloadFileService, String sessionId, java.io.File dir) {
-        HttpClient httpClient = new HttpClient(true);
+    private static void downloadFiles(HttpClient httpClient,
+            DownloadSession downloadService, File downloadFileService,
+            String sessionId, java.io.File dir, boolean resumable) {
         List<FileTypes.Info> downloadFileInfos = downloadFileService
                 .list(sessionId);
         for (FileTypes.Info downloadFileInfo : downloadFileInfos) {
@@ -82,27 +244,139 @@ public class ItemDownloadHelper {
             // Do a get after file is prepared for download.
             downloadFileInfo = downloadFileService.get(sessionId,
                     downloadFileInfo.getName());
-            // Download the file
-            System.out.println("Download File Info : " + downloadFileInfo);
-            try {
-                URI downloadUri = downloadFileInfo.getDownloadEndpoint()
-                        .getUri();
-                String downloadUrl = downloadUri.toURL().toString();
-                System.out.println("Download from URL : " + downloadUrl);
-                InputStream inputStream = httpClient.downloadFile(downloadUrl);
-                String fileName = downloadFileInfo.getName();
-                downloadFile(inputStream, dir.getAbsolutePath()
-                        + System.getProperty("file.separator") + fileName);
-            } catch (MalformedURLException e) {
-                System.out
-                        .println("Failed to download due to IOException!" + e);
-                throw new RuntimeException(
-                        "Failed to download due to IOException!", e);
-            } catch (IOException e) {
-                System.out.println("IO exception during download" + e);
-                throw new RuntimeException(
-                        "Failed to download due to IOException!", e);
+            downloadPreparedFile(httpClient, downloadFileInfo, dir,
+                    resumable);
+        }
+    }
+
+    /**
+     * Downloading files from library item using the download session. All
+     * files are prepared up front and every prepared file is handed to a
+     * bounded pool of workers while the rest are still being prepared.
+     *
+     * @param httpClient
+     * @param downloadService
+     * @param downloadFileService
+     * @param sessionId
+     * @param dir
+     * @param resumable
+     * @param parallelism
+     */
+    private static void downloadFilesParallel(final HttpClient httpClient,
+            final DownloadSession downloadService,
+            final File downloadFileService, final String sessionId,
+            final java.io.File dir, final boolean resumable,
+            int parallelism) {
+        List<FileTypes.Info> downloadFileInfos = downloadFileService
+                .list(sessionId);
+        final Set<String> pending = new LinkedHashSet<>();
+        for (FileTypes.Info downloadFileInfo : downloadFileInfos) {
+            downloadFileService.prepare(sessionId, downloadFileInfo.getName(),
+                    EndpointType.HTTPS);
+            pending.add(downloadFileInfo.getName());
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(parallelism, pending.size())));
+        final List<Future<?>> transfers = new ArrayList<>();
+        Poller poller = new Poller(SESSION_FILE_TIMEOUT, TimeUnit.SECONDS);
+        try {
+            boolean prepared = poller.await(() -> {
+                // a single list call reports the status of every file
+                for (final FileTypes.Info fileInfo : downloadFileService
+                        .list(sessionId)) {
+                    if (!pending.contains(fileInfo.getName())) {
+                        continue;
+                    }
+                    if (fileInfo.getStatus() == FileTypes.PrepareStatus
+                            .PREPARED) {
+                        pending.remove(fileInfo.getName());
+                        transfers.add(executor.submit(() ->
+                            downloadPreparedFile(httpClient, fileInfo, dir,
+                                    resumable)));
+                    } else if (fileInfo.getStatus() == FileTypes.PrepareStatus
+                            .ERROR) {
+                        System.out.println("DownloadSession Info : "
+                                + downloadService.get(sessionId));
+                        throw new RuntimeException("Error while preparing "
+                                + fileInfo.getName() + " for download");
+                    }
+                }
+                return pending.isEmpty();
+            });
+            if (!prepared) {
+                throw new RuntimeException("Timeout waiting for files "
+                        + pending + " to be PREPARED");
+            }
+            System.out.println("All files prepared after "
+                    + poller.getPollCount() + " polls");
+
+            for (Future<?> transfer : transfers) {
+                try {
+                    transfer.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new RuntimeException(e.getCause());
+                }
             }
+            System.out.println("Connection pool : "
+                    + httpClient.getPoolStats());
+            System.out.println("Transfers : " + TransferMetrics.getDefault());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while downloading", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Download a file which is already prepared for download into the
+     * directory.
+     *
+     * @param httpClient
+     * @param downloadFileInfo
+     * @param dir
+     * @param resumable
+     */
+    private static void downloadPreparedFile(HttpClient httpClient,
+            FileTypes.Info downloadFileInfo, java.io.File dir,
+            boolean resumable) {
+        System.out.println("Download File Info : " + downloadFileInfo);
+        try {
+            URI downloadUri = downloadFileInfo.getDownloadEndpoint().getUri();
+            String downloadUrl = downloadUri.toURL().toString();
+            System.out.println("Download from URL : " + downloadUrl);
+            String fileName = downloadFileInfo.getName();
+            String fullPath = dir.getAbsolutePath()
+                    + System.getProperty("file.separator") + fileName;
+            if (resumable) {
+                downloadFileResumable(httpClient, downloadUrl,
+                        downloadFileInfo, Paths.get(fullPath));
+            } else {
+                TransferStats stats = TransferMetrics.getDefault().start(
+                        fileName, downloadUrl, sizeOf(downloadFileInfo));
+                try {
+                    InputStream inputStream =
+                            httpClient.downloadFile(downloadUrl, 0, stats);
+                    downloadFile(inputStream, fullPath);
+                    stats.completed();
+                } catch (IOException | RuntimeException e) {
+                    stats.failed(e);
+                    throw e;
+                }
+                System.out.println("Downloaded " + stats);
+            }
+        } catch (MalformedURLException e) {
+            System.out.println("Failed to download due to IOException!" + e);
+            throw new RuntimeException(
+                    "Failed to download due to IOException!", e);
+        } catch (IOException e) {
+            System.out.println("IO exception during download" + e);
+            throw new RuntimeException(
+                    "Failed to download due to IOException!", e);
         }
     }
 
@@ -132,6 +406,9 @@ public class ItemDownloadHelper {
 
     private static final long SESSION_FILE_TIMEOUT = 360;
 
+    private static final int DOWNLOAD_ATTEMPTS = 5;
+    private static final long JOURNAL_INTERVAL_BYTES = 64L * 1024 * 1024;
+
     /**
      * Wait for the download file status to be prepared.
      *
@@ -143,28 +420,23 @@ public class ItemDownloadHelper {
      * @param expectedStatus
      */
     private static void waitForDownloadFileReady(
-            DownloadSession downloadService, File downloadFileService,
-            String sessionId, String fileName,
-            FileTypes.PrepareStatus expectedStatus, long timeOut) {
-        Long endTime = System.currentTimeMillis() + timeOut * 1000;
+            final DownloadSession downloadService,
+            final File downloadFileService, final String sessionId,
+            final String fileName,
+            final FileTypes.PrepareStatus expectedStatus, long timeOut) {
+        Poller poller = new Poller(timeOut, TimeUnit.SECONDS);
+        final FileTypes.PrepareStatus[] currentStatus =
+                new FileTypes.PrepareStatus[1];
+        FileTypes.Info fileInfo;
         try {
-            Thread.sleep(5000);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-        FileTypes.Info fileInfo = downloadFileService.get(sessionId, fileName);
-        FileTypes.PrepareStatus currentStatus = fileInfo.getStatus();
-        if (currentStatus == expectedStatus) {
-            return;
-        } else {
-            while (endTime > System.currentTimeMillis()) {
-                fileInfo = downloadFileService.get(sessionId, fileName);
-                currentStatus = fileInfo.getStatus();
-                System.out.println("Current Status : " + currentStatus);
-                if (currentStatus == expectedStatus) {
-                    return;
-                } else if (
-                        currentStatus ==
+            fileInfo = poller.pollUntil(() -> {
+                FileTypes.Info info =
+                        downloadFileService.get(sessionId, fileName);
+                currentStatus[0] = info.getStatus();
+                System.out.println("Current Status : " + currentStatus[0]);
+                if (currentStatus[0] == expectedStatus) {
+                    return info;
+                } else if (currentStatus[0] ==
                         com.vmware.content.library.item.downloadsession.File
                             .PrepareStatus.ERROR) {
                     System.out.println("DownloadSession Info : "
@@ -175,11 +447,21 @@ public class ItemDownloadHelper {
                             "Error while waiting for download file status to "
                             + "be PREPARED...");
                 }
-            }
+                return null;
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(
+                    "Interrupted while waiting for download file status", e);
+        }
+        if (fileInfo != null) {
+            System.out.println(fileName + " is " + expectedStatus + " after "
+                    + poller.getPollCount() + " polls");
+            return;
         }
         throw new RuntimeException(
                 "Timeout waiting for download file status to be PREPARED,"
-                        + "  status : " + currentStatus.toString());
+                        + "  status : " + currentStatus[0]);
     }
 
     /**
@@ -211,4 +493,157 @@ public class ItemDownloadHelper {
         Files.copy(inputStream, Paths.get(fullPath),
                 StandardCopyOption.REPLACE_EXISTING);
     }
+
+    /**
+     * Download a file in resumable mode. The data goes to a partial file whose
+     * progress is recorded in a sidecar journal; when the transfer is
+     * interrupted it continues from the last journaled byte, both within this
+     * call and in a later run against a new download session of the same
+     * file. The checksum reported by the download session is verified before
+     * the partial file is moved to the target path.
+     *
+     * @param httpClient the client used for the transfer
+     * @param downloadUrl the download endpoint of the file
+     * @param fileInfo the prepared download session file
+     * @param target the final location of the file
+     * @throws IOException when the file cannot be downloaded
+     */
+    public static void downloadFileResumable(HttpClient httpClient,
+            String downloadUrl, FileTypes.Info fileInfo, Path target)
+                    throws IOException {
+        TransferStats stats = TransferMetrics.getDefault().start(
+                fileInfo.getName(), downloadUrl, sizeOf(fileInfo));
+        try {
+            downloadFileResumable(httpClient, downloadUrl, fileInfo, target,
+                    stats);
+            stats.completed();
+        } catch (IOException | RuntimeException e) {
+            stats.failed(e);
+            throw e;
+        }
+        System.out.println("Downloaded " + stats);
+    }
+
+    private static void downloadFileResumable(HttpClient httpClient,
+            String downloadUrl, FileTypes.Info fileInfo, Path target,
+            TransferStats stats) throws IOException {
+        Path partPath = Paths.get(target + DownloadJournal.PART_SUFFIX);
+        DownloadJournal journal = DownloadJournal.open(target, fileInfo);
+        ChecksumInfo checksumInfo = fileInfo.getChecksumInfo();
+        if (checksumInfo != null && checksumInfo.getChecksum() == null) {
+            checksumInfo = null;
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            long offset = journal.resumeOffset(partPath);
+            if (attempt == 1) {
+                // only the bytes received from now on count as transferred
+                stats.setResumedBytes(offset);
+            }
+            try {
+                MessageDigest digest = null;
+                if (checksumInfo != null) {
+                    digest = ChecksumHelper.newDigest(
+                            checksumInfo.getAlgorithm());
+                    // the partial data is hashed once, new data as it arrives
+                    ChecksumHelper.update(digest, partPath, offset);
+                }
+                if (offset > 0) {
+                    System.out.println("Resuming " + fileInfo.getName()
+                            + " at byte " + offset);
+                }
+                long size = transferRange(httpClient, downloadUrl, offset,
+                        partPath, journal, digest, stats);
+                Long expectedSize = fileInfo.getSize();
+                if (expectedSize != null && expectedSize > 0
+                    && size != expectedSize) {
+                    throw new IOException("Received " + size + " of "
+                            + expectedSize + " bytes");
+                }
+                if (digest != null
+                    && !ChecksumHelper.matches(checksumInfo, digest.digest())) {
+                    Files.deleteIfExists(partPath);
+                    journal.delete();
+                    throw new RuntimeException("Checksum mismatch for "
+                            + fileInfo.getName() + ", expected "
+                            + checksumInfo.getAlgorithm() + " "
+                            + checksumInfo.getChecksum());
+                }
+                Files.move(partPath, target,
+                        StandardCopyOption.REPLACE_EXISTING);
+                journal.delete();
+                return;
+            } catch (IOException e) {
+                retryOrFail(fileInfo, journal, attempt, e);
+                stats.retried(e);
+            } catch (RuntimeException e) {
+                if (!(e.getCause() instanceof IOException)) {
+                    throw e;
+                }
+                retryOrFail(fileInfo, journal, attempt, e);
+                stats.retried(e);
+            }
+        }
+    }
+
+    private static long sizeOf(FileTypes.Info fileInfo) {
+        Long size = fileInfo.getSize();
+        return size != null && size > 0 ? size : -1;
+    }
+
+    private static void retryOrFail(FileTypes.Info fileInfo,
+            DownloadJournal journal, int attempt, Exception e)
+                    throws IOException {
+        if (attempt >= DOWNLOAD_ATTEMPTS) {
+            throw new IOException("Failed to download " + fileInfo.getName()
+                    + " after " + attempt + " attempts", e);
+        }
+        System.out.println("Download of " + fileInfo.getName()
+                + " interrupted at byte " + journal.bytes()
+                + ", resuming : " + e);
+    }
+
+    /**
+     * Transfer the file from {@code offset} to its end into the partial file,
+     * journaling the progress as the data is forced to disk.
+     *
+     * @return the size of the partial file after the transfer
+     */
+    private static long transferRange(HttpClient httpClient,
+            String downloadUrl, long offset, Path partPath,
+            DownloadJournal journal, MessageDigest digest,
+            TransferStats stats) throws IOException {
+        byte[] bytes = new byte[64 * 1024];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        long position = offset;
+        long unjournaled = 0;
+        try (InputStream in = httpClient.downloadFile(downloadUrl, offset,
+                stats);
+                FileChannel out = FileChannel.open(partPath,
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            out.truncate(offset);
+            out.position(offset);
+            int n;
+            while ((n = in.read(bytes)) > 0) {
+                if (digest != null) {
+                    digest.update(bytes, 0, n);
+                }
+                buffer.clear();
+                buffer.limit(n);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                position += n;
+                unjournaled += n;
+                if (unjournaled >= JOURNAL_INTERVAL_BYTES) {
+                    out.force(false);
+                    journal.record(position);
+                    unjournaled = 0;
+                }
+            }
+            out.force(false);
+            journal.record(position);
+        }
+        return position;
+    }
 }
@@ -0,0 +1,382 @@
+/*
+ * *******************************************************
+ * Copyright VMware, Inc. 2021.  All Rights Reserved.
+ * SPDX-License-Identifier: MIT
+ * *******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package vmware.samples.contentlibrary.helpers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+
+import com.vmware.content.library.item.FileTypes.ChecksumAlgorithm;
+
+/**
+ * On-disk cache of the files of library items. The file contents are stored
+ * once per SHA-256 checksum under {@code objects/}, so the same disk shared by
+ * several items or content versions takes space only once. Each cached
+ * content version of an item is an entry under {@code entries/} mapping the
+ * file names of the item to their checksums.
+ *
+ * <p>Entries are keyed by library item id and content version, so a new
+ * version of an item is a cache miss. The total size of the stored files is
+ * capped; when a new entry does not fit, the least recently used entries are
+ * evicted together with the files no remaining entry refers to.</p>
+ *
+ * <p>Files and entries are written to temporary names and moved into place,
+ * so several processes, such as CI runners on one host, can share a cache
+ * directory. Eviction only deletes the files no entry refers to which were
+ * not used for {@link #GRACE_PERIOD_MS}, so a file another process just
+ * stored or is restoring is kept; a file restored while it is evicted
+ * anyway is a cache miss.</p>
+ */
+public class ItemFileCache {
+
+    /**
+     * Default location of the cache, under the home directory of the user.
+     */
+    public static final Path DEFAULT_DIR = Paths.get(
+            System.getProperty("user.home"), ".vsphere-samples", "cls-cache");
+
+    /**
+     * Default size cap of the cache.
+     */
+    public static final long DEFAULT_MAX_BYTES = 50L * 1024 * 1024 * 1024;
+
+    /**
+     * Time since their last use during which unreferenced files are kept, as
+     * another process may be about to refer to them or be copying them.
+     */
+    public static final long GRACE_PERIOD_MS = 60L * 60 * 1000;
+
+    private static final String OBJECTS = "objects";
+    private static final String ENTRIES = "entries";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path objectsDir;
+    private final Path entriesDir;
+    private final long maxBytes;
+
+    /**
+     * Creates a cache in {@link #DEFAULT_DIR} with the default size cap.
+     */
+    public ItemFileCache() {
+        this(DEFAULT_DIR, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param dir the directory of the cache, created if needed
+     * @param maxBytes the maximum total size of the cached files
+     */
+    public ItemFileCache(Path dir, long maxBytes) {
+        this.objectsDir = dir.resolve(OBJECTS);
+        this.entriesDir = dir.resolve(ENTRIES);
+        this.maxBytes = maxBytes;
+        try {
+            Files.createDirectories(objectsDir);
+            Files.createDirectories(entriesDir);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to create cache " + dir, e);
+        }
+    }
+
+    /**
+     * Copies the cached files of the content version of the item into the
+     * directory.
+     *
+     * @param libraryItemId the id of the library item
+     * @param contentVersion the content version of the item
+     * @param dir the directory to copy the files into
+     * @return true if the files were found in the cache and copied, false
+     *         on a cache miss
+     */
+    public synchronized boolean restore(String libraryItemId,
+            String contentVersion, java.io.File dir) {
+        Path entryPath = entryPath(libraryItemId, contentVersion);
+        Properties entry = readEntry(entryPath);
+        if (entry == null) {
+            return false;
+        }
+        try {
+            List<Path> objects = new ArrayList<>();
+            for (String name : entry.stringPropertyNames()) {
+                Path object = objectsDir.resolve(entry.getProperty(name));
+                if (!Files.isRegularFile(object)) {
+                    // evicted by another process, the entry is unusable
+                    Files.deleteIfExists(entryPath);
+                    return false;
+                }
+                objects.add(object);
+            }
+            // mark the entry and its files as recently used before copying,
+            // so that eviction in other processes keeps them meanwhile
+            FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+            Files.setLastModifiedTime(entryPath, now);
+            for (Path object : objects) {
+                Files.setLastModifiedTime(object, now);
+            }
+            for (String name : entry.stringPropertyNames()) {
+                Files.copy(objectsDir.resolve(entry.getProperty(name)),
+                        dir.toPath().resolve(name),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (IOException e) {
+            if (isEvicted(entryPath, entry)) {
+                // evicted by another process during the copy
+                return false;
+            }
+            throw new RuntimeException("Failed to restore " + libraryItemId
+                    + " from the cache", e);
+        }
+    }
+
+    /**
+     * Adds the downloaded files of the content version of the item to the
+     * cache, then evicts the least recently used entries until the cache fits
+     * its size cap. Nothing is stored when the files alone exceed the cap.
+     *
+     * @param libraryItemId the id of the library item
+     * @param contentVersion the content version of the item
+     * @param dir the directory holding the downloaded files
+     * @param fileNames the names of the files of the item
+     */
+    public synchronized void store(String libraryItemId,
+            String contentVersion, java.io.File dir,
+            Collection<String> fileNames) {
+        try {
+            long size = 0;
+            for (String name : fileNames) {
+                size += Files.size(dir.toPath().resolve(name));
+            }
+            if (size > maxBytes) {
+                System.out.println("Not caching " + libraryItemId + ", "
+                        + size + " bytes exceed the cache size");
+                return;
+            }
+
+            Properties entry = new Properties();
+            for (String name : fileNames) {
+                entry.setProperty(name,
+                        storeObject(dir.toPath().resolve(name)));
+            }
+            Path entryPath = entryPath(libraryItemId, contentVersion);
+            Path tempPath = tempPath(entryPath);
+            try (OutputStream out = Files.newOutputStream(tempPath)) {
+                entry.store(out, "Library item " + libraryItemId
+                        + " content version " + contentVersion);
+            }
+            Files.move(tempPath, entryPath,
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            evict(entryPath);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to cache " + libraryItemId, e);
+        }
+    }
+
+    /**
+     * Returns the total size of the cached files.
+     */
+    public synchronized long size() {
+        long size = 0;
+        try (DirectoryStream<Path> objects =
+                Files.newDirectoryStream(objectsDir)) {
+            for (Path object : objects) {
+                try {
+                    size += Files.size(object);
+                } catch (NoSuchFileException e) {
+                    // moved or deleted by another process
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read the cache", e);
+        }
+        return size;
+    }
+
+    /*
+     * Copy the file under its checksum, unless the same content is already
+     * cached, and return the checksum.
+     */
+    private String storeObject(Path file) throws IOException {
+        MessageDigest digest = ChecksumHelper.newDigest(
+                ChecksumAlgorithm.SHA256);
+        ChecksumHelper.update(digest, file, Files.size(file));
+        String checksum = ChecksumHelper.toHex(digest.digest());
+        Path object = objectsDir.resolve(checksum);
+        if (Files.isRegularFile(object)
+            && Files.size(object) == Files.size(file)) {
+            Files.setLastModifiedTime(object,
+                    FileTime.fromMillis(System.currentTimeMillis()));
+            return checksum;
+        }
+        Path tempPath = tempPath(object);
+        Files.copy(file, tempPath, StandardCopyOption.REPLACE_EXISTING);
+        try {
+            Files.move(tempPath, object, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // stored concurrently by another process
+            Files.deleteIfExists(tempPath);
+            Files.setLastModifiedTime(object,
+                    FileTime.fromMillis(System.currentTimeMillis()));
+        }
+        return checksum;
+    }
+
+    /*
+     * Evict the least recently used entries, other than the one just stored,
+     * until the files referenced by the remaining entries fit the cap. The
+     * unreferenced files kept for the grace period do not count, or they
+     * would evict every other entry.
+     */
+    private void evict(Path keep) throws IOException {
+        List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream =
+                Files.newDirectoryStream(entriesDir, "*.properties")) {
+            for (Path entryPath : stream) {
+                entries.add(entryPath);
+            }
+        }
+        entries.sort((a, b) -> lastModified(a).compareTo(lastModified(b)));
+
+        long referencedSize = deleteUnreferencedObjects();
+        while (referencedSize > maxBytes) {
+            Path oldest = null;
+            for (Path entryPath : entries) {
+                if (!entryPath.equals(keep)) {
+                    oldest = entryPath;
+                    break;
+                }
+            }
+            if (oldest == null) {
+                break;
+            }
+            entries.remove(oldest);
+            Files.deleteIfExists(oldest);
+            System.out.println("Evicted cache entry : "
+                    + oldest.getFileName());
+            referencedSize = deleteUnreferencedObjects();
+        }
+    }
+
+    /*
+     * Delete the files no entry refers to. The entries are listed again, as
+     * other processes may have added some, and the files used within the
+     * grace period are kept, as another process may have stored them for an
+     * entry it has not written yet. Return the size of the referenced files.
+     */
+    private long deleteUnreferencedObjects() throws IOException {
+        Set<String> referenced = new HashSet<>();
+        try (DirectoryStream<Path> stream =
+                Files.newDirectoryStream(entriesDir, "*.properties")) {
+            for (Path entryPath : stream) {
+                Properties entry = readEntry(entryPath);
+                if (entry != null) {
+                    for (String name : entry.stringPropertyNames()) {
+                        referenced.add(entry.getProperty(name));
+                    }
+                }
+            }
+        }
+        long referencedSize = 0;
+        long cutoff = System.currentTimeMillis() - GRACE_PERIOD_MS;
+        try (DirectoryStream<Path> objects =
+                Files.newDirectoryStream(objectsDir)) {
+            for (Path object : objects) {
+                String name = object.getFileName().toString();
+                if (name.endsWith(TEMP_SUFFIX)) {
+                    continue;
+                }
+                if (referenced.contains(name)) {
+                    try {
+                        referencedSize += Files.size(object);
+                    } catch (NoSuchFileException e) {
+                        // evicted by another process
+                    }
+                } else if (lastModified(object).toMillis() < cutoff) {
+                    Files.deleteIfExists(object);
+                }
+            }
+        }
+        return referencedSize;
+    }
+
+    /*
+     * Return true if the entry or one of its files is no longer in the
+     * cache.
+     */
+    private boolean isEvicted(Path entryPath, Properties entry) {
+        if (!Files.isRegularFile(entryPath)) {
+            return true;
+        }
+        for (String name : entry.stringPropertyNames()) {
+            if (!Files.isRegularFile(
+                    objectsDir.resolve(entry.getProperty(name)))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Path entryPath(String libraryItemId, String contentVersion) {
+        // item ids are UUIDs and content versions are numbers, keep the name
+        // safe anyway
+        String key = (libraryItemId + "@" + contentVersion)
+                .replaceAll("[^A-Za-z0-9@._-]", "_");
+        return entriesDir.resolve(key + ".properties");
+    }
+
+    private static Path tempPath(Path path) {
+        return path.resolveSibling(path.getFileName() + "."
+                + UUID.randomUUID() + TEMP_SUFFIX);
+    }
+
+    private static Properties readEntry(Path entryPath) {
+        Properties entry = new Properties();
+        try (InputStream in = Files.newInputStream(entryPath)) {
+            entry.load(in);
+            return entry;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read cache entry "
+                    + entryPath, e);
+        }
+    }
+
+    private static FileTime lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
@@ -20,13 +20,27 @@ import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import com.vmware.content.library.Item;
+import com.vmware.content.library.item.FileTypes.ChecksumAlgorithm;
+import com.vmware.content.library.item.FileTypes.ChecksumInfo;
 import com.vmware.content.library.item.TransferEndpoint;
+import com.vmware.content.library.item.TransferStatus;
 import com.vmware.content.library.item.UpdateSession;
 import com.vmware.content.library.item.UpdateSessionModel;
 import com.vmware.content.library.item.updatesession.File;
@@ -34,11 +48,24 @@ import com.vmware.content.library.item.updatesession.FileTypes.AddSpec;
 import com.vmware.content.library.item.updatesession.FileTypes.Info;
 import com.vmware.content.library.item.updatesession.FileTypes.SourceType;
 import com.vmware.content.library.item.updatesession.FileTypes.ValidationError;
+import com.vmware.content.library.item.updatesession.FileTypes.ValidationResult;
 
 import vmware.samples.common.HttpClient;
+import vmware.samples.common.Poller;
 
 public class ItemUploadHelper {
 
+    /**
+     * Prefix of the file locations which name a class path resource rather
+     * than a local file.
+     */
+    public static final String RESOURCE_PREFIX = "classpath:";
+
+    private static final ChecksumAlgorithm DEFAULT_CHECKSUM_ALGORITHM =
+            ChecksumAlgorithm.SHA256;
+
+    private static final long FILE_CHECK_TIMEOUT = 60;
+
     /**
      * Perform the upload.
      *
@@ -51,54 +78,82 @@ public class ItemUploadHelper {
     public static void performUpload(UpdateSession uploadService,
             File uploadFileService, Item libItemService, String libItemId,
             List<String> fileLocations) {
+        performUpload(new HttpClient(true), uploadService, uploadFileService,
+                libItemService, libItemId, fileLocations);
+    }
+
+    /**
+     * Perform the upload using the given HTTP client, so that concurrent
+     * uploads can share one connection pool.
+     *
+     * @param httpClient
+     * @param uploadService
+     * @param uploadFileService
+     * @param libItemService
+     * @param libItemId
+     * @param fileLocations
+     */
+    public static void performUpload(HttpClient httpClient,
+            UpdateSession uploadService, File uploadFileService,
+            Item libItemService, String libItemId,
+            List<String> fileLocations) {
+        performUpload(httpClient, uploadService, uploadFileService,
+                libItemService, libItemId, fileLocations, false);
+    }
+
+    /**
+     * Perform the upload using the given HTTP client. When
+     * {@code validateWhileUploading} is set, every file is checked by the
+     * server as soon as its PUT finishes while the next file is uploading,
+     * and the upload stops at the first file the server rejects.
+     *
+     * @param httpClient
+     * @param uploadService
+     * @param uploadFileService
+     * @param libItemService
+     * @param libItemId
+     * @param fileLocations
+     * @param validateWhileUploading
+     */
+    public static void performUpload(HttpClient httpClient,
+            UpdateSession uploadService, File uploadFileService,
+            Item libItemService, String libItemId,
+            List<String> fileLocations, boolean validateWhileUploading) {
 
         // get the file names from the local file locations.
         List<String> fileNames = new ArrayList<String>();
         for (String location : fileLocations) {
-            java.io.File file = new java.io.File(location);
-            fileNames.add(file.getName());
+            fileNames.add(fileNameOf(location));
         }
 
+        // checksums listed in OVF manifests let the server validate the
+        // files without the client reading them twice
+        Map<String, ChecksumInfo> checksums = readManifests(fileLocations);
+
         // create a new upload session for uploading the files
         String sessionId = createUploadSession(uploadService, libItemService,
                 libItemId);
 
         // add the files to the item and PUT the file to the transfer URL
-        uploadFiles(uploadFileService, sessionId, fileNames, fileLocations);
-
-        // check if there were any invalid or missing files
-        List<ValidationError> invalidFiles =
-                uploadFileService.validate(sessionId).getInvalidFiles();
-        Set<String> missingFiles = uploadFileService.validate(sessionId)
-                .getMissingFiles();
-        System.out.println(
-                "UploadSession Info : " + uploadService.get(sessionId));
-        System.out.println("Invalid Files : " + invalidFiles);
-        System.out.println("Missing Files : " + missingFiles);
-        if (missingFiles.size() == 0 && invalidFiles.size() == 0) {
-            uploadService.complete(sessionId);
-            // Delete the update session once the upload is done to free up the
-            // session.
-            uploadService.delete(sessionId);
+        List<String> rejectedFiles;
+        try {
+            rejectedFiles = uploadFiles(httpClient, uploadFileService,
+                    sessionId, fileNames, fileLocations, checksums,
+                    validateWhileUploading);
+        } catch (RuntimeException e) {
+            // release the session so that the item can be uploaded again
+            uploadService.cancel(sessionId);
+            throw e;
         }
-        if (invalidFiles.size() != 0) {
-            uploadService.fail(sessionId,
-                    invalidFiles.get(0).getErrorMessage().toString());
+        if (!rejectedFiles.isEmpty()) {
+            uploadService.fail(sessionId, rejectedFiles.get(0));
             uploadService.delete(sessionId);
-            System.out.println("Invalid files : " + invalidFiles);
-            throw new RuntimeException(invalidFiles.toString());
-        }
-        if (missingFiles.size() != 0) {
-            uploadService.cancel(sessionId);
-            System.out.println("Following files are missing : " + missingFiles);
-            throw new RuntimeException(
-                    "Missing the required files : " + missingFiles);
+            System.out.println("Invalid files : " + rejectedFiles);
+            throw new RuntimeException(rejectedFiles.toString());
         }
 
-        // verify that the content version number has incremented after the
-        // commit.
-        System.out.println("The Library Item version after the upload commit : "
-                + libItemService.get(libItemId).getContentVersion());
+        completeSession(uploadService, uploadFileService, libItemService,
+                libItemId, sessionId);
     }
 
     public static void performPull(UpdateSession uploadService,
@@ -115,11 +170,164 @@ public class ItemUploadHelper {
         // add the files to the item and PUT the file to the transfer URL
         pullFiles(uploadFileService, sessionId, fileNames, fileLocations);
 
+        completeSession(uploadService, uploadFileService, libItemService,
+                libItemId, sessionId);
+    }
+
+    /**
+     * Creating a new upload session.
+     *
+     * @param uploadService
+     * @param libItemService
+     * @param libraryItemId
+     * @return
+     */
+    private static String createUploadSession(UpdateSession uploadService,
+            Item libItemService, String libraryItemId) {
+        // Create a session for upload.
+        String currentVersion = libItemService.get(libraryItemId)
+                .getContentVersion();
+        UpdateSessionModel createSpec = new UpdateSessionModel();
+        createSpec.setLibraryItemId(libraryItemId);
+        createSpec.setLibraryItemContentVersion(currentVersion);
+        String sessionId = uploadService.create(UUID.randomUUID().toString(),
+                createSpec);
+        return sessionId;
+    }
+
+    /**
+     * Update the content of the library item with only the files which
+     * changed. Each local file is compared with the file of the same name
+     * stored in the item, first by size and then by the checksum the server
+     * reports for it; matching files are left in place and only the others
+     * are uploaded. When nothing changed no update session is created and
+     * the content version of the item stays the same.
+     *
+     * @param httpClient
+     * @param uploadService
+     * @param uploadFileService
+     * @param itemFileService the service listing the files of the item
+     * @param libItemService
+     * @param libItemId
+     * @param fileLocations the local files making up the new content
+     * @param removeMissing true to remove the stored files which are not
+     *        among the local files
+     * @return true if the content of the item was updated
+     */
+    public static boolean performDeltaUpload(HttpClient httpClient,
+            UpdateSession uploadService, File uploadFileService,
+            com.vmware.content.library.item.File itemFileService,
+            Item libItemService, String libItemId,
+            List<String> fileLocations, boolean removeMissing) {
+        Map<String, com.vmware.content.library.item.FileTypes.Info> stored =
+                new HashMap<>();
+        for (com.vmware.content.library.item.FileTypes.Info fileInfo
+                : itemFileService.list(libItemId)) {
+            stored.put(fileInfo.getName(), fileInfo);
+        }
+
+        List<String> fileNames = new ArrayList<>();
+        List<String> changedNames = new ArrayList<>();
+        List<String> changedLocations = new ArrayList<>();
+        for (String location : fileLocations) {
+            String fileName = fileNameOf(location);
+            fileNames.add(fileName);
+            if (isUnchanged(stored.get(fileName), location)) {
+                System.out.println("Unchanged file : " + fileName);
+            } else {
+                changedNames.add(fileName);
+                changedLocations.add(location);
+            }
+        }
+        List<String> removedNames = new ArrayList<>();
+        if (removeMissing) {
+            for (String fileName : stored.keySet()) {
+                if (!fileNames.contains(fileName)) {
+                    removedNames.add(fileName);
+                }
+            }
+        }
+        if (changedNames.isEmpty() && removedNames.isEmpty()) {
+            System.out.println("Library item " + libItemId
+                    + " is up to date");
+            return false;
+        }
+        System.out.println("Changed files : " + changedNames
+                + ", removed files : " + removedNames);
+
+        String sessionId = createUploadSession(uploadService, libItemService,
+                libItemId);
+        try {
+            for (String fileName : removedNames) {
+                uploadFileService.remove(sessionId, fileName);
+            }
+            // the files are validated by the server when the session is
+            // completed
+            uploadFiles(httpClient, uploadFileService, sessionId,
+                    changedNames, changedLocations,
+                    readManifests(fileLocations), false);
+        } catch (RuntimeException e) {
+            uploadService.cancel(sessionId);
+            throw e;
+        }
+        completeSession(uploadService, uploadFileService, libItemService,
+                libItemId, sessionId);
+        return true;
+    }
+
+    /**
+     * Checks whether the local file has the same content as the file stored
+     * in the library item. The local file is only hashed when the sizes
+     * match and the server reports a checksum.
+     *
+     * @param storedFile the stored file, or null if there is none
+     * @param location the local file
+     * @return true if both files are the same
+     */
+    private static boolean isUnchanged(
+            com.vmware.content.library.item.FileTypes.Info storedFile,
+            String location) {
+        if (storedFile == null) {
+            return false;
+        }
+        long length = sizeOf(location);
+        Long size = storedFile.getSize();
+        if (size == null || size != length) {
+            return false;
+        }
+        ChecksumInfo checksumInfo = storedFile.getChecksumInfo();
+        if (checksumInfo == null || checksumInfo.getChecksum() == null) {
+            return false;
+        }
+        MessageDigest digest =
+                ChecksumHelper.newDigest(checksumInfo.getAlgorithm());
+        try (InputStream in = openLocation(location)) {
+            ChecksumHelper.update(digest, in, length);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read " + location, e);
+        }
+        return ChecksumHelper.matches(checksumInfo, digest.digest());
+    }
+
+    /**
+     * Validate the session once, then complete it if all the files are valid
+     * and present, or fail it otherwise.
+     *
+     * @param uploadService
+     * @param uploadFileService
+     * @param libItemService
+     * @param libItemId
+     * @param sessionId
+     */
+    private static void completeSession(UpdateSession uploadService,
+            File uploadFileService, Item libItemService, String libItemId,
+            String sessionId) {
         // check if there were any invalid or missing files
+        ValidationResult validationResult =
+                uploadFileService.validate(sessionId);
         List<ValidationError> invalidFiles =
-                uploadFileService.validate(sessionId).getInvalidFiles();
-        Set<String> missingFiles = uploadFileService.validate(sessionId)
-                .getMissingFiles();
+                validationResult.getInvalidFiles();
+        Set<String> missingFiles = validationResult.getMissingFiles();
         System.out.println(
                 "UploadSession Info : " + uploadService.get(sessionId));
         System.out.println("Invalid Files : " + invalidFiles);
@@ -151,42 +359,114 @@ public class ItemUploadHelper {
     }
 
     /**
-     * Creating a new upload session.
+     * Upload files using upload session. When {@code validateWhileUploading}
+     * is set, the server status of each uploaded file is checked in the
+     * background while the next file is uploading.
      *
-     * @param uploadService
-     * @param libItemService
-     * @param libraryItemId
-     * @return
+     * @param httpClient
+     * @param uploadFileService
+     * @param sessionId
+     * @param fileNames
+     * @param fileLocations
+     * @param checksums
+     * @param validateWhileUploading
+     * @return the errors of the files rejected by the server
      */
-    private static String createUploadSession(UpdateSession uploadService,
-            Item libItemService, String libraryItemId) {
-        // Create a session for upload.
-        String currentVersion = libItemService.get(libraryItemId)
-                .getContentVersion();
-        UpdateSessionModel createSpec = new UpdateSessionModel();
-        createSpec.setLibraryItemId(libraryItemId);
-        createSpec.setLibraryItemContentVersion(currentVersion);
-        String sessionId = uploadService.create(UUID.randomUUID().toString(),
-                createSpec);
-        return sessionId;
+    private static List<String> uploadFiles(HttpClient httpClient,
+            final File uploadFileService, final String sessionId,
+            List<String> fileNames, List<String> fileLocations,
+            Map<String, ChecksumInfo> checksums,
+            boolean validateWhileUploading) {
+        assert fileNames.size() == fileLocations.size();
+        final List<String> rejectedFiles =
+                Collections.synchronizedList(new ArrayList<String>());
+        ExecutorService validator = validateWhileUploading
+                ? Executors.newSingleThreadExecutor() : null;
+        try {
+            for (int i = 0; i < fileNames.size() && rejectedFiles.isEmpty();
+                    i++) {
+                final String fileName = fileNames.get(i);
+                uploadFile(httpClient, uploadFileService, sessionId, fileName,
+                        fileLocations.get(i), checksums.get(fileName));
+                if (validator != null) {
+                    validator.execute(() -> {
+                        String error = checkReceivedFile(uploadFileService,
+                                sessionId, fileName);
+                        if (error != null) {
+                            rejectedFiles.add(fileName + " : " + error);
+                        }
+                    });
+                }
+            }
+            if (validator != null) {
+                validator.shutdown();
+                validator.awaitTermination(Long.MAX_VALUE,
+                        TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while uploading", e);
+        } finally {
+            if (validator != null) {
+                validator.shutdownNow();
+            }
+        }
+        return new ArrayList<>(rejectedFiles);
     }
 
     /**
-     * Upload files using upload session.
+     * Wait for the server to finish receiving the uploaded file.
      *
      * @param uploadFileService
      * @param sessionId
-     * @param fileNames
+     * @param fileName
+     * @return the error reported for the file, or null if it is ready
+     */
+    private static String checkReceivedFile(final File uploadFileService,
+            final String sessionId, final String fileName) {
+        try {
+            Info fileInfo = new Poller(FILE_CHECK_TIMEOUT, TimeUnit.SECONDS)
+                    .pollUntil(() -> {
+                        Info info = uploadFileService.get(sessionId, fileName);
+                        TransferStatus status = info.getStatus();
+                        return TransferStatus.READY.equals(status)
+                               || TransferStatus.ERROR.equals(status)
+                                ? info : null;
+                    });
+            if (fileInfo == null) {
+                // leave the decision to the final session validation
+                return null;
+            }
+            if (TransferStatus.ERROR.equals(fileInfo.getStatus())) {
+                return String.valueOf(fileInfo.getErrorMessage());
+            }
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Reads the checksums from the OVF manifests among the files.
+     *
      * @param fileLocations
-     * @return
+     * @return the checksums keyed by file name
      */
-    private static void uploadFiles(File uploadFileService, String sessionId,
-            List<String> fileNames, List<String> fileLocations) {
-        assert fileNames.size() == fileLocations.size();
-        for (int i = 0; i < fileNames.size(); i++) {
-            uploadFile(uploadFileService, sessionId, fileNames.get(i),
-                    fileLocations.get(i));
+    private static Map<String, ChecksumInfo> readManifests(
+            List<String> fileLocations) {
+        Map<String, ChecksumInfo> checksums = new HashMap<>();
+        for (String location : fileLocations) {
+            if (location.toLowerCase().endsWith(".mf")) {
+                try (InputStream in = openLocation(location)) {
+                    checksums.putAll(ChecksumHelper.readManifest(in));
+                } catch (IOException e) {
+                    throw new RuntimeException(
+                            "Failed to read manifest " + location, e);
+                }
+            }
         }
+        return checksums;
     }
     private static void pullFiles(File uploadFileService, String sessionId,
                                     List<String> fileNames, List<String> fileLocations) throws URISyntaxException {
@@ -206,11 +486,58 @@ public class ItemUploadHelper {
      */
     public static Info uploadFile(File uploadFileService, String sessionId,
             String fileName, String fileLocation) {
-        HttpClient httpClient = new HttpClient(true);
+        return uploadFile(uploadFileService, sessionId, fileName, fileLocation,
+                null);
+    }
+
+    /**
+     * Upload a file using upload session. The checksum of the file is
+     * computed while it is uploaded and compared with the checksum the
+     * server reports for the received file. When the checksum is already
+     * known, for example from an OVF manifest, it is passed in the add spec so
+     * that the server validates the file as well.
+     *
+     * @param sessionId
+     * @param fileName
+     * @param fileLocation
+     * @param checksumInfo the known checksum of the file, or null
+     * @return info of the update session file
+     */
+    public static Info uploadFile(File uploadFileService, String sessionId,
+            String fileName, String fileLocation, ChecksumInfo checksumInfo) {
+        return uploadFile(new HttpClient(true), uploadFileService, sessionId,
+                fileName, fileLocation, checksumInfo);
+    }
+
+    /**
+     * Upload a file using upload session and the given HTTP client. A
+     * location made with {@link #resourceLocation(String)} is streamed from
+     * the class path without a local copy. A local file larger than the part
+     * size of the client is sent in concurrent parts, see
+     * {@link HttpClient#setMultiPartUpload(long, int)}.
+     *
+     * @param httpClient
+     * @param sessionId
+     * @param fileName
+     * @param fileLocation the local file or class path resource
+     * @param checksumInfo the known checksum of the file, or null
+     * @return info of the update session file
+     */
+    public static Info uploadFile(HttpClient httpClient,
+            File uploadFileService, String sessionId, String fileName,
+            String fileLocation, ChecksumInfo checksumInfo) {
+        System.out.println("File Location : " + fileLocation);
+        System.out.println("File Name " + fileNameOf(fileLocation));
+        long size = sizeOf(fileLocation);
+
         // add the file spec to the upload file service
         AddSpec addSpec = new AddSpec();
         addSpec.setName(fileName);
         addSpec.setSourceType(SourceType.PUSH);
+        addSpec.setSize(size);
+        if (checksumInfo != null) {
+            addSpec.setChecksumInfo(checksumInfo);
+        }
         uploadFileService.add(sessionId, addSpec);
 
         // Do a get on the file, verify the information is the same
@@ -220,21 +547,51 @@ public class ItemUploadHelper {
         // Get the transfer uri.
         URI transferUri = fileInfo.getUploadEndpoint().getUri();
 
-        System.out.println("File Location : " + fileLocation);
-        java.io.File file1 = new java.io.File(fileLocation);
-        System.out.println("File Name " + file1.getName());
+        ChecksumAlgorithm algorithm = checksumInfo != null
+                ? checksumInfo.getAlgorithm() : DEFAULT_CHECKSUM_ALGORITHM;
+        MessageDigest digest = ChecksumHelper.newDigest(algorithm);
         try {
             String transferUrl = transferUri.toURL().toString();
             System.out.println("Upload/Transfer URL : " + transferUrl);
-            httpClient.upload(file1, transferUrl);
+            if (isResource(fileLocation)) {
+                httpClient.upload(resourceUrl(fileLocation), size,
+                        transferUrl, digest);
+            } else if (httpClient.isMultiPartUpload(size)) {
+                /*
+                 * The parts are sent out of order, so the file is hashed
+                 * after the upload instead of on the way.
+                 */
+                httpClient.uploadMultiPart(new java.io.File(fileLocation),
+                        transferUrl);
+                ChecksumHelper.update(digest, Paths.get(fileLocation), size);
+            } else {
+                httpClient.upload(new java.io.File(fileLocation),
+                        transferUrl, digest);
+            }
 
-        } catch (MalformedURLException e) {
+        } catch (IOException e) {
             throw new RuntimeException("Failed to upload due to IOException!",
                     e);
         }
+        byte[] uploaded = digest.digest();
+        System.out.println(algorithm + " of " + fileName + " : "
+                + ChecksumHelper.toHex(uploaded));
+        if (checksumInfo != null
+            && !ChecksumHelper.matches(checksumInfo, uploaded)) {
+            throw new RuntimeException("Checksum of " + fileName
+                    + " does not match the expected " + algorithm + " "
+                    + checksumInfo.getChecksum());
+        }
 
         // Verify that the file has been received
         fileInfo = uploadFileService.get(sessionId, fileName);
+        ChecksumInfo received = fileInfo.getChecksumInfo();
+        if (received != null && received.getChecksum() != null
+            && algorithm.equals(received.getAlgorithm())
+            && !ChecksumHelper.matches(received, uploaded)) {
+            throw new RuntimeException("Checksum of the received " + fileName
+                    + " does not match the uploaded file");
+        }
         return fileInfo;
     }
 
@@ -276,7 +633,65 @@ public class ItemUploadHelper {
     }
 
     /**
-     * Creating a local temp dir with the given prefix.
+     * Returns the location of a class path resource, which can be uploaded
+     * like a local file without being copied to one.
+     *
+     * @param resourceName the name of the resource
+     * @return the location to pass to the upload methods
+     */
+    public static String resourceLocation(String resourceName) {
+        return RESOURCE_PREFIX + resourceName;
+    }
+
+    private static boolean isResource(String location) {
+        return location.startsWith(RESOURCE_PREFIX);
+    }
+
+    private static String fileNameOf(String location) {
+        return new java.io.File(isResource(location)
+                ? location.substring(RESOURCE_PREFIX.length())
+                : location).getName();
+    }
+
+    private static URL resourceUrl(String location) {
+        String resourceName = location.substring(RESOURCE_PREFIX.length());
+        URL url = ItemUploadHelper.class.getClassLoader()
+                .getResource(resourceName);
+        if (url == null) {
+            throw new RuntimeException("Resource not found : " + resourceName);
+        }
+        return url;
+    }
+
+    /*
+     * Return the size of the file or resource without reading it.
+     */
+    private static long sizeOf(String location) {
+        if (!isResource(location)) {
+            return new java.io.File(location).length();
+        }
+        try {
+            URLConnection connection =
+                    resourceUrl(location).openConnection();
+            // do not keep the jar open through the JVM wide cache
+            connection.setUseCaches(false);
+            long size = connection.getContentLengthLong();
+            connection.getInputStream().close();
+            return size;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read " + location, e);
+        }
+    }
+
+    private static InputStream openLocation(String location)
+            throws IOException {
+        return isResource(location) ? resourceUrl(location).openStream()
+                : Files.newInputStream(Paths.get(location));
+    }
+
+    /**
+     * Creating a local temp dir with the given prefix. Uploads do not need
+     * one for class path resources, see {@link #resourceLocation(String)}.
      *
      * @param prefix
      * @return the File handle for the created directory
@@ -293,7 +708,9 @@ public class ItemUploadHelper {
     }
 
     /**
-     * Copies the resource into a temporary file.
+     * Copies the resource into a temporary file. Only needed when the
+     * resource must exist on disk; uploads can stream it with
+     * {@link #resourceLocation(String)} instead.
      *
      * @param resourceName
      *            the resource name to copy
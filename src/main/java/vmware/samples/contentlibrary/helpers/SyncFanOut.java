@@ -0,0 +1,362 @@
+/*
+ * *******************************************************
+ * Copyright VMware, Inc. 2021.  All Rights Reserved.
+ * SPDX-License-Identifier: MIT
+ * *******************************************************
+ *
+ * DISCLAIMER. THIS PROGRAM IS PROVIDED TO YOU "AS IS" WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, WHETHER ORAL OR WRITTEN,
+ * EXPRESS OR IMPLIED. THE AUTHOR SPECIFICALLY DISCLAIMS ANY IMPLIED
+ * WARRANTIES OR CONDITIONS OF MERCHANTABILITY, SATISFACTORY QUALITY,
+ * NON-INFRINGEMENT AND FITNESS FOR A PARTICULAR PURPOSE.
+ */
+package vmware.samples.contentlibrary.helpers;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.vmware.content.LibraryModel;
+import com.vmware.content.library.ItemModel;
+
+import vmware.samples.common.Poller;
+import vmware.samples.contentlibrary.client.ClsApiClient;
+import vmware.samples.contentlibrary.helpers.ClsApiHelper.SyncReport;
+
+/**
+ * Synchronizes many subscribed libraries of one published library at once
+ * and tracks how long each of them takes to converge.
+ *
+ * <p>The synchronizations are started concurrently. The subscribers are then
+ * checked in passes driven by a single {@link Poller}: every pass checks the
+ * subscribers which have not converged yet concurrently, so the time of a
+ * pass is that of the slowest subscriber rather than the sum over all of
+ * them. A subscriber has converged once its last sync time is later than
+ * the one it had when the fan-out started, and all of its items have the
+ * versions of the published items. The convergence time
+ * of a subscriber is measured from the start of the fan-out to the pass which
+ * found it converged, so its resolution is the poll interval.</p>
+ */
+public class SyncFanOut {
+
+    private final ClsApiClient client;
+    private final ClsApiHelper clsHelper;
+    private final int parallelism;
+
+    /**
+     * Creates a fan-out checking up to {@link ClsApiHelper#DEFAULT_PARALLELISM}
+     * subscribers at the same time.
+     *
+     * @param client the Content Library API client
+     */
+    public SyncFanOut(ClsApiClient client) {
+        this(client, ClsApiHelper.DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Creates a fan-out.
+     *
+     * @param client the Content Library API client
+     * @param parallelism the maximum number of subscribers synchronized or
+     *        checked at the same time
+     */
+    public SyncFanOut(ClsApiClient client, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        this.client = client;
+        this.clsHelper = new ClsApiHelper(client);
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Starts the synchronization of the subscribed libraries and waits until
+     * all of them have converged with the published library or the timeout
+     * is reached. The state of the subscribers is printed after every pass.
+     *
+     * @param pubLibraryId the identifier of the published library
+     * @param subLibraryIds the identifiers of the subscribed libraries
+     * @param timeout the maximum time to wait
+     * @param unit the time unit of the timeout parameter
+     * @return the state of every subscriber, in the order of subLibraryIds
+     * @throws InterruptedException if the current thread was interrupted
+     */
+    public Map<String, SubscriberState> syncAll(String pubLibraryId,
+            List<String> subLibraryIds, long timeout, TimeUnit unit)
+                    throws InterruptedException {
+        final Poller poller = new Poller(timeout, unit);
+        final long startNanos = System.nanoTime();
+        final Map<String, SubscriberState> states = new LinkedHashMap<>();
+        for (String subLibraryId : subLibraryIds) {
+            states.put(subLibraryId, new SubscriberState(subLibraryId));
+        }
+        if (states.isEmpty()) {
+            return states;
+        }
+
+        // the published items do not change while we wait
+        final Map<String, ItemModel> pubItems = clsHelper.getItems(
+                client.itemService().list(pubLibraryId));
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+            Math.min(parallelism, states.size()));
+        // a pool of its own, the checks running on executor wait for it
+        final ExecutorService itemExecutor = clsHelper.newItemExecutor();
+        try {
+            forEach(executor, states.values(), state -> {
+                try {
+                    /*
+                     * The time of an earlier sync does not count; it is read
+                     * from the server, so the clocks need not agree.
+                     */
+                    state.startSyncTime = client.subscribedLibraryService()
+                        .get(state.subLibraryId).getLastSyncTime();
+                    client.subscribedLibraryService().sync(
+                        state.subLibraryId);
+                } catch (RuntimeException e) {
+                    state.error = e;
+                }
+            });
+            System.out.println("Started the synchronization of "
+                               + states.size() + " subscribed libraries");
+
+            final List<SubscriberState> pending = new ArrayList<>();
+            for (SubscriberState state : states.values()) {
+                if (state.error == null) {
+                    pending.add(state);
+                }
+            }
+            poller.await(() -> {
+                forEach(executor, pending, state ->
+                    check(state, pubItems, itemExecutor, startNanos));
+                List<SubscriberState> converged = new ArrayList<>();
+                for (SubscriberState state : pending) {
+                    if (state.isConverged() || state.error != null) {
+                        converged.add(state);
+                    }
+                }
+                pending.removeAll(converged);
+                printProgress(states.values(), startNanos);
+                return pending.isEmpty();
+            });
+        } finally {
+            executor.shutdownNow();
+            itemExecutor.shutdownNow();
+        }
+        return states;
+    }
+
+    /**
+     * Prints the state of every subscriber and the distribution of the
+     * convergence times.
+     *
+     * @param states the states returned by
+     *        {@link #syncAll(String, List, long, TimeUnit)}
+     */
+    public static void printReport(Map<String, SubscriberState> states) {
+        List<Long> times = new ArrayList<>();
+        for (SubscriberState state : states.values()) {
+            System.out.println("  " + state);
+            if (state.isConverged()) {
+                times.add(state.convergedMillis);
+            }
+        }
+        if (times.isEmpty()) {
+            System.out.println("No subscribed library converged");
+            return;
+        }
+        Collections.sort(times);
+        System.out.println(times.size() + " of " + states.size()
+                           + " subscribed libraries converged, p50 "
+                           + percentile(times, 50) + " ms, p90 "
+                           + percentile(times, 90) + " ms, max "
+                           + times.get(times.size() - 1) + " ms");
+    }
+
+    /*
+     * Refresh the state of the subscriber. Items found synchronized in
+     * earlier passes are not fetched again.
+     */
+    private void check(SubscriberState state, Map<String, ItemModel> pubItems,
+                       ExecutorService itemExecutor, long startNanos) {
+        try {
+            LibraryModel library =
+                    client.subscribedLibraryService().get(state.subLibraryId);
+            state.lastSyncTime = library.getLastSyncTime();
+
+            List<String> subItemIds =
+                    client.itemService().list(state.subLibraryId);
+            // forget the synced items deleted since
+            state.syncedItems.keySet().retainAll(subItemIds);
+            List<String> toCheck = new ArrayList<>();
+            for (String subItemId : subItemIds) {
+                if (!state.syncedItems.containsKey(subItemId)) {
+                    toCheck.add(subItemId);
+                }
+            }
+            state.report = ClsApiHelper.compareItems(pubItems,
+                clsHelper.getItems(toCheck, itemExecutor).values(),
+                state.syncedItems);
+            if (state.isSyncedSinceStart() && state.report.isSynced()) {
+                state.convergedMillis = TimeUnit.NANOSECONDS.toMillis(
+                    System.nanoTime() - startNanos);
+            }
+        } catch (RuntimeException e) {
+            state.error = e;
+        }
+    }
+
+    private static void printProgress(Iterable<SubscriberState> states,
+                                      long startNanos) {
+        int converged = 0;
+        int failed = 0;
+        int lagging = 0;
+        int total = 0;
+        for (SubscriberState state : states) {
+            total++;
+            if (state.error != null) {
+                failed++;
+            } else if (state.isConverged()) {
+                converged++;
+            } else if (state.report != null) {
+                lagging += state.report.getLaggingItemIds().size()
+                           + state.report.getMissingSourceIds().size();
+            }
+        }
+        System.out.println("Sync fan-out after "
+                           + TimeUnit.NANOSECONDS.toSeconds(
+                               System.nanoTime() - startNanos)
+                           + " s : " + converged + "/" + total
+                           + " converged, " + failed + " failed, " + lagging
+                           + " items behind");
+    }
+
+    private static long percentile(List<Long> sorted, int percent) {
+        int index = (int) Math.ceil(percent / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(index, 0));
+    }
+
+    /*
+     * Run the action for every subscriber on the executor and wait for all
+     * of them.
+     */
+    private static void forEach(ExecutorService executor,
+                                Iterable<SubscriberState> states,
+                                SubscriberAction action)
+                                        throws InterruptedException {
+        List<Future<?>> futures = new ArrayList<>();
+        for (final SubscriberState state : states) {
+            futures.add(executor.submit(() -> action.apply(state)));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private interface SubscriberAction {
+        void apply(SubscriberState state);
+    }
+
+    /**
+     * Synchronization state of one subscribed library.
+     */
+    public static class SubscriberState {
+        private final String subLibraryId;
+        // subscribed item id -> source item id of the synchronized items
+        private final Map<String, String> syncedItems = new HashMap<>();
+        private volatile Calendar startSyncTime;
+        private volatile Calendar lastSyncTime;
+        private volatile SyncReport report;
+        private volatile long convergedMillis = -1;
+        private volatile RuntimeException error;
+
+        SubscriberState(String subLibraryId) {
+            this.subLibraryId = subLibraryId;
+        }
+
+        public String getSubLibraryId() {
+            return subLibraryId;
+        }
+
+        /**
+         * Returns the last sync time of the library, or null if it was never
+         * synchronized.
+         */
+        public Calendar getLastSyncTime() {
+            return lastSyncTime;
+        }
+
+        /**
+         * Returns the state of the items found by the last check, or null if
+         * the library was not checked.
+         */
+        public SyncReport getReport() {
+            return report;
+        }
+
+        /**
+         * Returns the time in milliseconds the library took to converge, or
+         * -1 if it has not converged.
+         */
+        public long getConvergedMillis() {
+            return convergedMillis;
+        }
+
+        public boolean isConverged() {
+            return convergedMillis >= 0;
+        }
+
+        /*
+         * Returns true if the library was synchronized since the fan-out
+         * started.
+         */
+        private boolean isSyncedSinceStart() {
+            return lastSyncTime != null && (startSyncTime == null
+                || lastSyncTime.after(startSyncTime));
+        }
+
+        /**
+         * Returns the error which ended the synchronization or the checks of
+         * the library, or null.
+         */
+        public RuntimeException getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(subLibraryId).append(" : ");
+            if (error != null) {
+                sb.append("failed : ").append(error);
+            } else if (isConverged()) {
+                sb.append("converged in ").append(convergedMillis)
+                  .append(" ms");
+            } else {
+                sb.append("not converged");
+            }
+            if (lastSyncTime != null) {
+                sb.append(", last sync ").append(lastSyncTime.getTime());
+            }
+            if (report != null && !isConverged()) {
+                sb.append(", ").append(report);
+            }
+            return sb.toString();
+        }
+    }
+}
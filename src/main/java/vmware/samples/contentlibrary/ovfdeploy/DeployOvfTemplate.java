@@ -13,30 +13,46 @@
 package vmware.samples.contentlibrary.ovfdeploy;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.cli.Option;
 import org.apache.commons.lang.StringUtils;
 
 import com.vmware.content.library.ItemTypes.FindSpec;
+import com.vmware.vcenter.VM;
+import com.vmware.vcenter.vm.Power;
+import com.vmware.vcenter.vm.PowerTypes;
 import com.vmware.vcenter.ovf.LibraryItemTypes.DeploymentResult;
 import com.vmware.vcenter.ovf.LibraryItemTypes.DeploymentTarget;
 import com.vmware.vcenter.ovf.LibraryItemTypes.OvfSummary;
 import com.vmware.vcenter.ovf.LibraryItemTypes.ResourcePoolDeploymentSpec;
 import com.vmware.vim25.DynamicProperty;
+import com.vmware.vim25.InvalidCollectorVersionFaultMsg;
+import com.vmware.vim25.InvalidPropertyFaultMsg;
 import com.vmware.vim25.ManagedObjectReference;
+import com.vmware.vim25.NotFoundFaultMsg;
+import com.vmware.vim25.RuntimeFaultFaultMsg;
 
 import vmware.samples.common.SamplesAbstractBase;
+import vmware.samples.common.vim.helpers.InventoryIndex;
 import vmware.samples.common.vim.helpers.VimUtil;
 import vmware.samples.common.vim.helpers.VmVappPowerOps;
 import vmware.samples.contentlibrary.client.ClsApiClient;
+import vmware.samples.contentlibrary.helpers.BatchDeployHelper;
+import vmware.samples.contentlibrary.helpers.BatchDeployHelper.Deployment;
 
 /**
  * Description: Demonstrates the workflow to deploy an OVF library item to a
- * resource pool.
+ * resource pool. Several VMs, on one or several clusters, can be deployed
+ * concurrently in a batch.
  *
  * Author: VMware, Inc.
  * Sample Prerequisites: The sample needs an existing OVF
@@ -45,12 +61,19 @@ import vmware.samples.contentlibrary.client.ClsApiClient;
  */
 public class DeployOvfTemplate extends SamplesAbstractBase {
 
+    private static final String CLUSTER_TYPE = "ClusterComputeResource";
+
     private String libItemName;
-    private String clusterName;
+    private List<String> clusterNames;
     private String vmName;
+    private int count = 1;
+    private int parallelism = BatchDeployHelper.DEFAULT_PARALLELISM;
     private ClsApiClient client;
     private VmVappPowerOps vmPowerOps;
     private ManagedObjectReference vmMoRef;
+    private VM vmService;
+    private Power vmPowerService;
+    private final List<String> batchVmIds = new ArrayList<>();
 
     /**
      * Define the options specific to this sample and configure the sample using
@@ -62,7 +85,9 @@ public class DeployOvfTemplate extends SamplesAbstractBase {
         // Parse the command line options or use config file
         Option clusNameOption = Option.builder()
             .longOpt("clustername")
-            .desc("Name of the Cluster in which VM would be created")
+            .desc("Name of the Cluster in which VM would be created. A comma "
+                  + "separated list of clusters deploys the VMs to every "
+                  + "cluster")
             .required(true)
             .hasArg()
             .argName("CLUSTER")
@@ -88,19 +113,51 @@ public class DeployOvfTemplate extends SamplesAbstractBase {
                 .argName("VM NAME")
                 .build();
 
+        Option countOption = Option.builder()
+                .longOpt("count")
+                .desc("OPTIONAL: The number of VMs to deploy in each cluster. "
+                      + "Defaults to 1. The VM names get a numeric suffix "
+                      + "when more than one VM is deployed")
+                .required(false)
+                .hasArg()
+                .argName("COUNT")
+                .build();
+
+        Option parallelismOption = Option.builder()
+                .longOpt("parallelism")
+                .desc("OPTIONAL: The maximum number of VMs deployed at the "
+                      + "same time. Defaults to "
+                      + BatchDeployHelper.DEFAULT_PARALLELISM)
+                .required(false)
+                .hasArg()
+                .argName("PARALLELISM")
+                .build();
+
         List<Option> optionList = Arrays.asList(clusNameOption, vmNameOption,
-            libItemNameOption);
+            libItemNameOption, countOption, parallelismOption);
         super.parseArgs(optionList, args);
-        this.clusterName = (String) parsedOptions.get("clustername");
+        this.clusterNames = Arrays.asList(
+            ((String) parsedOptions.get("clustername")).split("\\s*,\\s*"));
         this.libItemName = (String) parsedOptions.get("libitemname");
         this.vmName =  (String) parsedOptions.get("vmname");
+        if (parsedOptions.get("count") != null) {
+            this.count = Integer.parseInt((String) parsedOptions.get("count"));
+        }
+        if (parsedOptions.get("parallelism") != null) {
+            this.parallelism =
+                    Integer.parseInt((String) parsedOptions.get("parallelism"));
+        }
     }
 
     protected void setup() throws Exception {
         this.client = new ClsApiClient(this.vapiAuthHelper.getStubFactory(),
             sessionStubConfig);
         this.vmPowerOps = new VmVappPowerOps(this.vimAuthHelper.getVimPort(),
-            this.vimAuthHelper.getServiceContent());
+            this.vimAuthHelper.getPropertyWatcher());
+        this.vmService = this.vapiAuthHelper.getStubFactory().createStub(
+            VM.class, sessionStubConfig);
+        this.vmPowerService = this.vapiAuthHelper.getStubFactory().createStub(
+            Power.class, sessionStubConfig);
 
         // Generate a default VM name if it is not provided
         if (StringUtils.isBlank(this.vmName)) {
@@ -110,29 +167,6 @@ public class DeployOvfTemplate extends SamplesAbstractBase {
     }
 
     protected void run() throws Exception {
-        // Find the MoRef of the VC cluster using VIM APIs
-        ManagedObjectReference clusterMoRef =
-                VimUtil.getCluster(this.vimAuthHelper.getVimPort(),
-                    this.vimAuthHelper.getServiceContent(),
-                    this.clusterName);
-        assert clusterMoRef != null : "Cluster by name " + this.clusterName
-                +" must exist";
-        System.out.println("Cluster MoRef : " + clusterMoRef.getType() + " : "
-                           + clusterMoRef.getValue());
-
-        // Find the cluster's root resource pool
-        List<DynamicProperty> dynamicProps =
-                VimUtil.getProperties(this.vimAuthHelper.getVimPort(),
-                    this.vimAuthHelper.getServiceContent(),
-                    clusterMoRef,
-                    clusterMoRef.getType(),
-                    Arrays.asList("resourcePool"));
-        assert dynamicProps != null && dynamicProps.size() > 0;
-        ManagedObjectReference rootResPoolMoRef =
-                (ManagedObjectReference) dynamicProps.get(0).getVal();
-        System.out.println("Resource pool MoRef : " + rootResPoolMoRef.getType()
-                           + " : " + rootResPoolMoRef.getValue());
-
         // Find the library item by name
         FindSpec findSpec = new FindSpec();
         findSpec.setName(this.libItemName);
@@ -142,10 +176,19 @@ public class DeployOvfTemplate extends SamplesAbstractBase {
         String itemId = itemIds.get(0);
         System.out.println("Library item ID : " + itemId);
 
+        if (this.clusterNames.size() > 1 || this.count > 1) {
+            deployBatch(itemId);
+            return;
+        }
+
+        ManagedObjectReference rootResPoolMoRef =
+                findRootResourcePool(this.clusterNames.get(0));
+
         // Deploy a VM from the library item on the given cluster
         System.out.println("Deploying Vm : " + this.vmName);
-        String vmId =
-                deployVMFromOvfItem(rootResPoolMoRef, this.vmName, itemId);
+        String vmId = deployVMFromOvfItem(rootResPoolMoRef.getValue(),
+            this.vmName, itemId, getAnnotation(rootResPoolMoRef.getValue(),
+                itemId));
         assert vmId != null;
         System.out.println("Vm created : " + vmId);
 
@@ -157,6 +200,21 @@ public class DeployOvfTemplate extends SamplesAbstractBase {
     }
 
     protected void cleanup() throws Exception {
+        for (String vmId : this.batchVmIds) {
+            // Power off and delete the VMs of the batch
+            try {
+                if (!PowerTypes.State.POWERED_OFF.equals(
+                        this.vmPowerService.get(vmId).getState())) {
+                    this.vmPowerService.stop(vmId);
+                }
+                this.vmService.delete(vmId);
+                System.out.println("Deleted Vm : " + vmId);
+            } catch (RuntimeException e) {
+                // keep deleting the other VMs
+                System.out.println("Failed to delete Vm : " + vmId + " ("
+                    + e.getMessage() + ")");
+            }
+        }
         if (this.vmMoRef != null) {
             // Power off the VM and wait for the power off operation to complete
             this.vmPowerOps.powerOffVM(this.vmName, this.vmMoRef);
@@ -168,31 +226,154 @@ public class DeployOvfTemplate extends SamplesAbstractBase {
         }
     }
 
+    /**
+     * Deploys the VMs to all the clusters concurrently. The placement of
+     * every cluster and the OVF annotation are resolved once, before the
+     * deployments start, and every VM is powered on as soon as it is
+     * deployed. The clusters are looked up in an index of the clusters of
+     * the inventory, loaded once instead of a search per cluster.
+     *
+     * @param libItemId identifier of the OVF library item to deploy
+     * @throws InterruptedException if the current thread was interrupted
+     * @throws InvalidPropertyFaultMsg
+     * @throws RuntimeFaultFaultMsg
+     * @throws InvalidCollectorVersionFaultMsg
+     */
+    private void deployBatch(final String libItemId)
+            throws InterruptedException, InvalidPropertyFaultMsg,
+            RuntimeFaultFaultMsg, InvalidCollectorVersionFaultMsg {
+        Map<String, String> resPoolIds = new LinkedHashMap<>();
+        try (InventoryIndex index = new InventoryIndex(
+                this.vimAuthHelper.getVimPort(),
+                this.vimAuthHelper.getServiceContent(),
+                Collections.singletonList(CLUSTER_TYPE))) {
+            index.start();
+            for (String clusterName : this.clusterNames) {
+                resPoolIds.put(clusterName, findRootResourcePool(
+                    index.find(CLUSTER_TYPE, clusterName), clusterName)
+                    .getValue());
+            }
+        }
+        final String annotation = getAnnotation(
+            resPoolIds.values().iterator().next(), libItemId);
+
+        BatchDeployHelper batch = new BatchDeployHelper(this.parallelism);
+        int index = 0;
+        for (Map.Entry<String, String> cluster : resPoolIds.entrySet()) {
+            final String resPoolId = cluster.getValue();
+            for (int i = 0; i < this.count; i++) {
+                final String name = this.vmName + "-" + (++index);
+                batch.add(name, cluster.getKey(), () -> {
+                    String vmId = deployVMFromOvfItem(resPoolId, name,
+                        libItemId, annotation);
+                    synchronized (this.batchVmIds) {
+                        this.batchVmIds.add(vmId);
+                    }
+                    this.vmPowerService.start(vmId);
+                    return vmId;
+                });
+            }
+        }
+
+        System.out.println("Deploying " + index + " Vms to "
+                           + resPoolIds.size() + " clusters, parallelism "
+                           + this.parallelism);
+        long start = System.nanoTime();
+        List<Deployment> deployments = batch.deployAll();
+        BatchDeployHelper.printReport(deployments,
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Finds the root resource pool of the cluster using VIM APIs.
+     *
+     * @param clusterName the name of the cluster
+     * @return managed object reference of the root resource pool
+     * @throws InvalidPropertyFaultMsg
+     * @throws RuntimeFaultFaultMsg
+     * @throws NotFoundFaultMsg
+     */
+    private ManagedObjectReference findRootResourcePool(String clusterName)
+            throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg,
+            NotFoundFaultMsg {
+        // Find the MoRef of the VC cluster using VIM APIs
+        ManagedObjectReference clusterMoRef =
+                VimUtil.getCluster(this.vimAuthHelper.getVimPort(),
+                    this.vimAuthHelper.getServiceContent(),
+                    clusterName);
+        return findRootResourcePool(clusterMoRef, clusterName);
+    }
+
+    /**
+     * Finds the root resource pool of the cluster using VIM APIs.
+     *
+     * @param clusterMoRef the cluster, or null if it was not found
+     * @param clusterName the name of the cluster
+     * @return managed object reference of the root resource pool
+     * @throws InvalidPropertyFaultMsg
+     * @throws RuntimeFaultFaultMsg
+     */
+    private ManagedObjectReference findRootResourcePool(
+            ManagedObjectReference clusterMoRef, String clusterName)
+            throws InvalidPropertyFaultMsg, RuntimeFaultFaultMsg {
+        assert clusterMoRef != null : "Cluster by name " + clusterName
+                +" must exist";
+        System.out.println("Cluster MoRef : " + clusterMoRef.getType() + " : "
+                           + clusterMoRef.getValue());
+
+        // Find the cluster's root resource pool
+        List<DynamicProperty> dynamicProps =
+                VimUtil.getProperties(this.vimAuthHelper.getVimPort(),
+                    this.vimAuthHelper.getServiceContent(),
+                    clusterMoRef,
+                    clusterMoRef.getType(),
+                    Arrays.asList("resourcePool"));
+        assert dynamicProps != null && dynamicProps.size() > 0;
+        ManagedObjectReference rootResPoolMoRef =
+                (ManagedObjectReference) dynamicProps.get(0).getVal();
+        System.out.println("Resource pool MoRef : " + rootResPoolMoRef.getType()
+                           + " : " + rootResPoolMoRef.getValue());
+        return rootResPoolMoRef;
+    }
+
+    /**
+     * Retrieves the annotation of the OVF package of the library item.
+     *
+     * @param resPoolId identifier of a resource pool the item can be
+     *        deployed to
+     * @param libItemId identifier of the OVF library item
+     * @return the annotation of the OVF package
+     */
+    private String getAnnotation(String resPoolId, String libItemId) {
+        DeploymentTarget deploymentTarget = new DeploymentTarget();
+        deploymentTarget.setResourcePoolId(resPoolId);
+        OvfSummary ovfSummary = this.client.ovfLibraryItemService()
+            .filter(libItemId, deploymentTarget);
+        return ovfSummary.getAnnotation();
+    }
+
     /**
      * Deploying a VM from the Content Library into a cluster.
      *
-     * @param rootResPoolMoRef managed object reference of the root resource
-     *        pool
+     * @param resPoolId identifier of the root resource pool of the cluster
      * @param vmName the name of the VM to create
      * @param libItemId identifier of the OVF library item to deploy
+     * @param annotation the annotation of the OVF package
      * @return the identifier of the created VM
      */
-    private String deployVMFromOvfItem(ManagedObjectReference rootResPoolMoRef,
-                                       String vmName, String libItemId) {
+    private String deployVMFromOvfItem(String resPoolId, String vmName,
+                                       String libItemId, String annotation) {
         // Creating the deployment.
         DeploymentTarget deploymentTarget = new DeploymentTarget();
         // Setting the target resource pool.
-        deploymentTarget.setResourcePoolId(rootResPoolMoRef.getValue());
+        deploymentTarget.setResourcePoolId(resPoolId);
         // Creating and setting the resource pool deployment spec.
         ResourcePoolDeploymentSpec deploymentSpec =
                 new ResourcePoolDeploymentSpec();
-        deploymentSpec.setName(this.vmName);
+        deploymentSpec.setName(vmName);
         deploymentSpec.setAcceptAllEULA(true);
-        // Retrieve the library items OVF information and use it for populating
-        // deployment spec.
-         OvfSummary ovfSummary = this.client.ovfLibraryItemService().filter(libItemId, deploymentTarget);
         // Setting the annotation retrieved from the OVF summary.
-         deploymentSpec.setAnnotation(ovfSummary.getAnnotation());
+        deploymentSpec.setAnnotation(annotation);
         // Calling the deploy and getting the deployment result.
         DeploymentResult deploymentResult = this.client.ovfLibraryItemService()
             .deploy(UUID.randomUUID().toString(),
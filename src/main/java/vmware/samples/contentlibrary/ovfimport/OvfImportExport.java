@@ -12,7 +12,6 @@
  */
 package vmware.samples.contentlibrary.ovfimport;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
@@ -86,14 +85,12 @@ public class OvfImportExport extends SamplesAbstractBase {
      * @throws IOException
      */
     protected void run() throws IOException {
-        // Get the template's OVF and VMDK files
-        File tempDir = ItemUploadHelper.createTempDir(libFolderName);
-        String ovfFile = ItemUploadHelper.copyResourceToFile(
-                libFolderName+"/"+libItemName, tempDir, libItemName);
-        String vmdkFile = ItemUploadHelper.copyResourceToFile(
-                libFolderName+"/"+libVMDKName, tempDir, libVMDKName);
-        String mfFile = ItemUploadHelper.copyResourceToFile(
-                libFolderName+"/"+libMfName, tempDir, libVMDKName);
+        // Get the template's OVF and VMDK files, uploaded straight from the
+        // class path
+        String ovfFile = ItemUploadHelper.resourceLocation(
+                libFolderName+"/"+libItemName);
+        String vmdkFile = ItemUploadHelper.resourceLocation(
+                libFolderName+"/"+libVMDKName);
         System.out.println("OVF Path : " + ovfFile);
         System.out.println("VMDK Path : " + vmdkFile);
 
@@ -11,6 +11,8 @@ import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.apache.commons.compress.utils.IOUtils;
 import vmware.samples.common.SamplesAbstractBase;
+import vmware.samples.common.TransferMetrics;
+import vmware.samples.common.TransferStats;
 import vmware.samples.contentlibrary.client.ClsApiClient;
 import com.vmware.content.library.item.updatesession.File;
 
@@ -125,12 +127,31 @@ public class OvfUploadUrl extends SamplesAbstractBase {
         fileSpec.setSourceEndpoint(endpoint);
         uploadFileService.add(sessionId, fileSpec);
 
+        // the server pulls the file, so its progress comes from the session
+        FileTypes.Info pullInfo = uploadFileService.get(sessionId, "vrnic");
+        Long pullSize = pullInfo.getSize();
+        TransferStats stats = TransferMetrics.getDefault().start("vrnic",
+                endpoint.getUri().toString(),
+                pullSize != null && pullSize > 0 ? pullSize : -1);
         UpdateSessionModel updateSessionModel1 = uploadService.get(sessionId);
         while (updateSessionModel1.getState() == UpdateSessionModel.State.ACTIVE) {
-            System.out.println("Progress :" + updateSessionModel1.getClientProgress());
+            Long transferred = uploadFileService.get(sessionId, "vrnic")
+                    .getBytesTransferred();
+            if (transferred != null) {
+                stats.setBytes(transferred);
+            }
+            System.out.println("Progress :" + updateSessionModel1.getClientProgress()
+                    + " " + stats);
             Thread.sleep(60000);
             updateSessionModel1 = uploadService.get(sessionId);
         }
+        if (updateSessionModel1.getState() == UpdateSessionModel.State.DONE) {
+            stats.completed();
+        } else {
+            stats.failed(new RuntimeException(
+                    String.valueOf(updateSessionModel1.getErrorMessage())));
+        }
+        System.out.println("Pulled " + stats);
 
 
         UpdateSessionModel updateSessionModel2 = uploadService.get(sessionId);
@@ -15,9 +15,11 @@ package vmware.samples.contentlibrary.publishsubscribe;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
@@ -34,11 +36,14 @@ import vmware.samples.common.SamplesAbstractBase;
 import vmware.samples.contentlibrary.client.ClsApiClient;
 import vmware.samples.contentlibrary.helpers.ClsApiHelper;
 import vmware.samples.contentlibrary.helpers.ItemUploadHelper;
+import vmware.samples.contentlibrary.helpers.SyncFanOut;
+import vmware.samples.contentlibrary.helpers.SyncFanOut.SubscriberState;
 import vmware.samples.vcenter.helpers.DatastoreHelper;
 
 /**
  * Description: Demonstrates the workflow to publish and subscribe content
- * libraries.
+ * libraries. With more than one subscriber, the subscribed libraries are
+ * synchronized concurrently and their convergence times are reported.
  *
  * Author: VMware, Inc.
  * Sample Prerequisites: The sample needs an existing VC datastore with
@@ -54,11 +59,13 @@ public class LibraryPublishSubscribe extends SamplesAbstractBase {
     private String dsName;
     private String pubLibName = "demo-publib";
     private String subLibName = "demo-sublib";
+    private int subscribers = 1;
 
     private ClsApiClient client;
     private ClsApiHelper clsHelper;
     private String pubLibId;
     private String subLibId;
+    private final List<String> extraSubLibIds = new ArrayList<>();
 
     /**
      * Define the options specific to this sample and configure the sample using
@@ -76,9 +83,23 @@ public class LibraryPublishSubscribe extends SamplesAbstractBase {
             .argName("DATASTORE")
             .build();
 
-        List<Option> optionList = Collections.singletonList(dsNameOption);
+        Option subscribersOption = Option.builder()
+            .longOpt("subscribers")
+            .desc("OPTIONAL: The number of subscribed libraries to create and "
+                  + "synchronize concurrently. Defaults to 1.")
+            .required(false)
+            .hasArg()
+            .argName("SUBSCRIBERS")
+            .build();
+
+        List<Option> optionList = Arrays.asList(dsNameOption,
+            subscribersOption);
         super.parseArgs(optionList, args);
         this.dsName = (String) parsedOptions.get("datastore");
+        if (parsedOptions.get("subscribers") != null) {
+            this.subscribers =
+                    Integer.parseInt((String) parsedOptions.get("subscribers"));
+        }
     }
 
     protected void setup() throws Exception {
@@ -143,6 +164,15 @@ public class LibraryPublishSubscribe extends SamplesAbstractBase {
         LibraryModel subLib =
                 this.client.subscribedLibraryService().get(this.subLibId);
         System.out.println("Subscribed library created : " + this.subLibId);
+        for (int i = 1; i < this.subscribers; i++) {
+            subSpec.setName(this.subLibName + "-" + i);
+            String extraSubLibId = this.client.subscribedLibraryService()
+                .create(UUID.randomUUID().toString(), subSpec);
+            this.extraSubLibIds.add(extraSubLibId);
+            System.out.println("Subscribed library created : "
+                               + extraSubLibId);
+        }
+        subSpec.setName(this.subLibName);
 
         boolean syncSuccess;
         // Wait for the initial synchronization to finish
@@ -160,14 +190,27 @@ public class LibraryPublishSubscribe extends SamplesAbstractBase {
         // Add another item to the publish library
         createLibraryItem(pubLib.getId(), "item 2");
 
-        // Manually synchronize the subscribed library to get the latest changes
-        // immediately.
-        this.client.subscribedLibraryService().sync(this.subLibId);
-        syncSuccess =  this.clsHelper.waitForLibrarySync(this.pubLibId,
-            this.subLibId,
-            SYNC_TIMEOUT_SEC,
-            TimeUnit.SECONDS);
-        assert syncSuccess : "Timed out while waiting for sync success";
+        if (this.extraSubLibIds.isEmpty()) {
+            // Manually synchronize the subscribed library to get the latest
+            // changes immediately.
+            this.client.subscribedLibraryService().sync(this.subLibId);
+            syncSuccess =  this.clsHelper.waitForLibrarySync(this.pubLibId,
+                this.subLibId,
+                SYNC_TIMEOUT_SEC,
+                TimeUnit.SECONDS);
+            assert syncSuccess : "Timed out while waiting for sync success";
+        } else {
+            // Manually synchronize all the subscribed libraries at once
+            List<String> subLibIds = new ArrayList<>();
+            subLibIds.add(this.subLibId);
+            subLibIds.addAll(this.extraSubLibIds);
+            Map<String, SubscriberState> states = new SyncFanOut(this.client)
+                .syncAll(this.pubLibId, subLibIds, SYNC_TIMEOUT_SEC,
+                    TimeUnit.SECONDS);
+            SyncFanOut.printReport(states);
+            assert states.get(this.subLibId).isConverged()
+                : "Timed out while waiting for sync success";
+        }
         subLib = this.client.subscribedLibraryService().get(this.subLibId);
         System.out.println("Subscribed library synced : "
                            + subLib.getLastSyncTime().getTime());
@@ -204,6 +247,11 @@ public class LibraryPublishSubscribe extends SamplesAbstractBase {
     }
 
     protected void cleanup() {
+        for (String extraSubLibId : this.extraSubLibIds) {
+            this.client.subscribedLibraryService().delete(extraSubLibId);
+            System.out.println("Deleted subscribed library : " + extraSubLibId);
+        }
+
         if (this.subLibId != null) {
             // Delete the subscribed content library
             this.client.subscribedLibraryService().delete(this.subLibId);
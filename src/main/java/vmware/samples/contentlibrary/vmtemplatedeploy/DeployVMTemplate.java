@@ -13,9 +13,11 @@
 package vmware.samples.contentlibrary.vmtemplatedeploy;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.cli.Option;
 import org.apache.commons.lang.StringUtils;
@@ -27,12 +29,15 @@ import com.vmware.vcenter.vm_template.LibraryItemsTypes;
 
 import vmware.samples.common.SamplesAbstractBase;
 import vmware.samples.contentlibrary.client.ClsApiClient;
+import vmware.samples.contentlibrary.helpers.BatchDeployHelper;
+import vmware.samples.contentlibrary.helpers.BatchDeployHelper.Deployment;
 import vmware.samples.vcenter.helpers.DatastoreHelper;
 import vmware.samples.vcenter.helpers.FolderHelper;
 import vmware.samples.vcenter.helpers.ResourcePoolHelper;
 
 /**
  * Demonstrates how to deploy a virtual machine from a library item containing a virtual machine template.
+ * Several virtual machines can be deployed concurrently in a batch.
  *    Prerequisites:
  *        - A library item containing a virtual machine template
  *        - A datacenter
@@ -49,6 +54,9 @@ public class DeployVMTemplate extends SamplesAbstractBase {
 	private String resourcePoolName;
 	private String libItemName;
 	private String vmId;
+	private int count = 1;
+	private int parallelism = BatchDeployHelper.DEFAULT_PARALLELISM;
+	private final List<String> batchVmIds = new ArrayList<>();
 	private ClsApiClient client;
 	private VM vmService;
 	private LibraryItems vmLibraryItemService;
@@ -109,13 +117,32 @@ public class DeployVMTemplate extends SamplesAbstractBase {
 				.argName("VMTEMPLATENAME")
 				.build();
 
+		Option countOption = Option.builder()
+				.longOpt("count")
+				.desc("OPTIONAL: The number of vms to deploy. Defaults to 1. The vm names get a numeric suffix when more than one vm is deployed.")
+				.required(false)
+				.hasArg()
+				.argName("COUNT")
+				.build();
+
+		Option parallelismOption = Option.builder()
+				.longOpt("parallelism")
+				.desc("OPTIONAL: The maximum number of vms deployed at the same time. Defaults to "
+						+ BatchDeployHelper.DEFAULT_PARALLELISM + ".")
+				.required(false)
+				.hasArg()
+				.argName("PARALLELISM")
+				.build();
+
 		List<Option> optionList = Arrays.asList(
 				vmFolderOption, 
 				vmNameOption, 
 				datastoreOption, 
 				datacenterOption,
 				resourcePoolOption, 
-				libItemNameOption);
+				libItemNameOption,
+				countOption,
+				parallelismOption);
 
 		super.parseArgs(optionList, args);
 
@@ -125,6 +152,12 @@ public class DeployVMTemplate extends SamplesAbstractBase {
 		this.datacenterName = (String) parsedOptions.get("datacenter");
 		this.resourcePoolName = (String) parsedOptions.get("resourceool");
 		this.libItemName = (String) parsedOptions.get("libitemname");
+		if (parsedOptions.get("count") != null) {
+			this.count = Integer.parseInt((String) parsedOptions.get("count"));
+		}
+		if (parsedOptions.get("parallelism") != null) {
+			this.parallelism = Integer.parseInt((String) parsedOptions.get("parallelism"));
+		}
 	}
 
 	protected void setup() throws Exception {
@@ -152,6 +185,28 @@ public class DeployVMTemplate extends SamplesAbstractBase {
 		// Find datastore Id by name
 		String datastoreId = findDatastoreId();
 
+		if (this.count > 1) {
+			deployBatch(templateId, folderId, resourcePoolId, datastoreId);
+			return;
+		}
+
+		LibraryItems.DeploySpec spec = createDeploySpec(this.vmName, folderId, resourcePoolId, datastoreId);
+
+		// Deploy a virtual machine from the VM template item
+		System.out.println("\nDeploying a virtual machine from VM template item...");
+		this.vmId = this.vmLibraryItemService.deploy(templateId, spec);
+
+		assert this.vmId != null;
+		
+		System.out.println("\nVm " + this.vmName + " created with id: " + this.vmId);
+
+	}
+
+	/**
+	 * Creates the deployment specification of a VM. The placement is the same for all the VMs.
+	 */
+	private LibraryItems.DeploySpec createDeploySpec(String vmName, String folderId, String resourcePoolId,
+			String datastoreId) {
 		// Specify the place in the inventory on which to deploy the VM such as an ESXi
 		// host,resource pool, and VM folder
 		// If getHost() and getResourcePool() are both specified, getResourcePool() must
@@ -184,21 +239,37 @@ public class DeployVMTemplate extends SamplesAbstractBase {
 		// You can use the GuestCustomizationSpec and HardwareCustomizationSpec classes
 
 		// deployment specification
-		LibraryItems.DeploySpec spec = new LibraryItems.DeploySpec
-				.Builder(this.vmName)
+		return new LibraryItems.DeploySpec
+				.Builder(vmName)
 				.setPlacement(placementSpec)
 				.setVmHomeStorage(vmHomeStorageSpec)
 				.setDiskStorage(diskStorageSpec)
 				.build();
+	}
 
-		// Deploy a virtual machine from the VM template item
-		System.out.println("\nDeploying a virtual machine from VM template item...");
-		this.vmId = this.vmLibraryItemService.deploy(templateId, spec);
-
-		assert this.vmId != null;
-		
-		System.out.println("\nVm " + this.vmName + " created with id: " + this.vmId);
+	/**
+	 * Deploys the VMs concurrently. The template and the placement were resolved once, before the deployments start.
+	 */
+	private void deployBatch(final String templateId, String folderId, String resourcePoolId, String datastoreId)
+			throws InterruptedException {
+		BatchDeployHelper batch = new BatchDeployHelper(this.parallelism);
+		for (int i = 1; i <= this.count; i++) {
+			final String name = this.vmName + "-" + i;
+			final LibraryItems.DeploySpec spec = createDeploySpec(name, folderId, resourcePoolId, datastoreId);
+			batch.add(name, this.resourcePoolName, () -> {
+				String id = this.vmLibraryItemService.deploy(templateId, spec);
+				synchronized (this.batchVmIds) {
+					this.batchVmIds.add(id);
+				}
+				return id;
+			});
+		}
 
+		System.out.println("\nDeploying " + this.count + " virtual machines from VM template item, parallelism "
+				+ this.parallelism + "...");
+		long start = System.nanoTime();
+		List<Deployment> deployments = batch.deployAll();
+		BatchDeployHelper.printReport(deployments, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
 	}
 
 	private String findDatastoreId() {
@@ -263,6 +334,16 @@ public class DeployVMTemplate extends SamplesAbstractBase {
 		if (this.vmId != null) {
 			this.vmService.delete(this.vmId);
 		}
+		for (String id : this.batchVmIds) {
+			try {
+				this.vmService.delete(id);
+				System.out.println("Deleted Vm : " + id);
+			} catch (RuntimeException e) {
+				// keep deleting the other VMs
+				System.out.println("Failed to delete Vm : " + id + " ("
+						+ e.getMessage() + ")");
+			}
+		}
 	}
 
 	public static void main(String[] args) throws Exception {
@@ -15,8 +15,11 @@ package vmware.samples.vcenter.vcha.helpers;
 
 import com.vmware.vim25.ManagedObjectReference;
 import vmware.samples.common.authentication.VimAuthenticationHelper;
+import vmware.samples.common.vim.helpers.TaskTracker;
 import vmware.samples.common.vim.helpers.WaitForValues;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 public class TaskHelper {
@@ -24,6 +27,7 @@ public class TaskHelper {
     public static final String TASK_TYPE_MO_REF = "Task";
     public static final String TASK_ID_SEPERATOR = ":";
     public static final Long TASK_SLEEP = 60L;
+    public static final long TASK_PROGRESS_INTERVAL = 10L;
 
     /**
      * Waits for given Task to complete
@@ -37,7 +41,7 @@ public class TaskHelper {
         ManagedObjectReference ref = new ManagedObjectReference();
         ref.setType(TASK_TYPE_MO_REF);
         ref.setValue(finalTaskID);
-        WaitForValues waitForValues = new WaitForValues(vim.getVimPort(), vim.getServiceContent());
+        WaitForValues waitForValues = new WaitForValues(vim.getPropertyWatcher());
         try {
             if(waitForValues.getTaskResultAfterDone(ref)) {
                 System.out.println("Successfully completed task [" + ref.getValue() + "]");
@@ -52,11 +56,46 @@ public class TaskHelper {
         return false;
     }
 
+    /**
+     * Waits for the given Tasks to complete, all of them tracked with a
+     * single property filter
+     *
+     * @param vim AuthenticationHelper for VMODL1 APIs
+     * @param taskIDs IDs for the performed tasks
+     * @return true if all the tasks completed successfully
+     */
+    public static Boolean waitForTasks(VimAuthenticationHelper vim, List<String> taskIDs) {
+        List<ManagedObjectReference> refs = new ArrayList<>();
+        for (String taskID : taskIDs) {
+            ManagedObjectReference ref = new ManagedObjectReference();
+            ref.setType(TASK_TYPE_MO_REF);
+            ref.setValue(taskID.split(TASK_ID_SEPERATOR)[0]);
+            refs.add(ref);
+        }
+        TaskTracker tracker = new TaskTracker(vim.getPropertyWatcher());
+        try {
+            tracker.track(refs);
+            return tracker.waitForAll(TASK_PROGRESS_INTERVAL, TimeUnit.SECONDS);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println("Interrupted while waiting for " + refs.size() + " tasks");
+        } catch(Exception e) {
+            System.out.println("Unable to track " + refs.size() + " tasks");
+            System.out.println("Reason: " + e.getLocalizedMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Sleeps for the given number of seconds, without holding a CPU
+     *
+     * @param duration seconds to sleep
+     */
     public static void sleep(Long duration) {
-        Long startTime = System.nanoTime();
-        Long currTime = System.nanoTime();
-        while(currTime - startTime < TimeUnit.NANOSECONDS.convert(duration, TimeUnit.SECONDS)) {
-            currTime = System.nanoTime();
+        try {
+            TimeUnit.SECONDS.sleep(duration);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 }
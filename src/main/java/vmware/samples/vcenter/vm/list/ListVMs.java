@@ -12,16 +12,22 @@
  */
 package vmware.samples.vcenter.vm.list;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.commons.cli.Option;
 
+import com.vmware.vapi.protocol.HttpConfiguration;
 import com.vmware.vcenter.VM;
+import com.vmware.vcenter.VMTypes.Info;
 import com.vmware.vcenter.VMTypes.Summary;
 import com.vmware.vcenter.VMTypes.FilterSpec.Builder;
+import vmware.samples.common.AsyncInvoker;
 import vmware.samples.common.SamplesAbstractBase;
+import vmware.samples.common.authentication.VapiAuthenticationHelper;
 import vmware.samples.vcenter.helpers.ClusterHelper;
 import vmware.samples.vcenter.helpers.DatacenterHelper;
 import vmware.samples.vcenter.helpers.FolderHelper;
@@ -33,10 +39,15 @@ import vmware.samples.vcenter.helpers.FolderHelper;
  * Sample Prerequisites: vCenter 6.5+
  */
 public class ListVMs extends SamplesAbstractBase {
+    // calls in flight and connections when fetching the details
+    private static final int MAX_IN_FLIGHT = 32;
+    private static final int IO_THREADS = 2;
+
     private VM vmService;
     private String vmFolderName;
     private String datacenterName;
     private String clusterName;
+    private boolean details;
 
     /**
      * Define the options specific to this sample and configure the sample using
@@ -69,13 +80,35 @@ public class ListVMs extends SamplesAbstractBase {
                 .required(false)
                 .hasArg()
                 .build();
+        Option detailsOption = Option.builder()
+                .longOpt("details")
+                .desc("OPTIONAL: Specify this option to also get the details"
+                        + " of every VM, with concurrent non-blocking calls.")
+                .required(false)
+                .type(Boolean.class)
+                .build();
         List<Option> optionList = Arrays.asList(vmFolderOption,
-                datacenterOption, clusterOption);
+                datacenterOption, clusterOption, detailsOption);
 
         super.parseArgs(optionList, args);
         this.vmFolderName = (String) parsedOptions.get("vmfolder");
         this.datacenterName = (String) parsedOptions.get("datacenter");
         this.clusterName = (String) parsedOptions.get("cluster");
+        Object detailsObj = parsedOptions.get("details");
+        this.details = detailsObj != null && (Boolean) detailsObj;
+    }
+
+    /**
+     * Uses the non-blocking transport when getting the details, so that the
+     * calls for all the VMs overlap without a thread each.
+     */
+    @Override
+    protected HttpConfiguration buildHttpConfiguration() throws Exception {
+        if (!this.details) {
+            return super.buildHttpConfiguration();
+        }
+        return VapiAuthenticationHelper.buildAsyncHttpConfiguration(
+            buildSslConfiguration(), IO_THREADS, MAX_IN_FLIGHT);
     }
 
     protected void setup() throws Exception {
@@ -109,6 +142,24 @@ public class ListVMs extends SamplesAbstractBase {
             System.out.println(vmSummary);
         }
         System.out.println("----------------------------------------");
+        if (this.details) {
+            printDetails(vmList);
+        }
+    }
+
+    private void printDetails(List<Summary> vmList) throws Exception {
+        AsyncInvoker invoker = new AsyncInvoker(MAX_IN_FLIGHT);
+        List<CompletableFuture<Info>> infos = new ArrayList<>();
+        for (Summary vmSummary : vmList) {
+            final String vmId = vmSummary.getVm();
+            infos.add(invoker.invoke(cb -> this.vmService.get(vmId, cb)));
+        }
+        List<Info> results = AsyncInvoker.allOf(infos).get();
+        System.out.println("Details of VMs");
+        for (int i = 0; i < vmList.size(); i++) {
+            System.out.println(vmList.get(i).getVm() + " : " + results.get(i));
+        }
+        System.out.println("----------------------------------------");
     }
     protected void cleanup() throws Exception {
     	// No cleanup required